@@ -0,0 +1,171 @@
+package com.example.beanfactory.index;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 编译时生成bean索引文件 {@link #INDEX_RESOURCE_LOCATION}.
+ * <p>
+ * 索引中是所有直接或间接(例如@Repository,@Configuration,@Service)打了扫描注解的类名, 一行一个.
+ * 运行时开启 ApplicationX.setScannerIndexEnabled(true) 后, ApplicationX.scanner(...) 发现索引文件就只加载索引中的类, 不再遍历目录与jar包.
+ * <p>
+ * 扫描注解默认是 ApplicationX.Component, ApplicationX.Resource, javax.annotation.Resource, org.springframework.stereotype.Component,
+ * 可以通过编译参数 -Aapplicationx.index.annotations=a.b.C,a.b.D 追加.
+ *
+ * @author wangzihao
+ */
+@SupportedOptions(ApplicationXIndexProcessor.OPTION_ANNOTATIONS)
+@SupportedAnnotationTypes("*")
+public class ApplicationXIndexProcessor extends AbstractProcessor {
+    public static final String INDEX_RESOURCE_LOCATION = "META-INF/applicationx.index";
+    public static final String OPTION_ANNOTATIONS = "applicationx.index.annotations";
+    private static final String[] DEFAULT_ANNOTATIONS = {
+            "com.example.beanfactory.util.ApplicationX.Component",
+            "com.example.beanfactory.util.ApplicationX.Resource",
+            "javax.annotation.Resource",
+            "org.springframework.stereotype.Component"
+    };
+    private final Set<String> scannerAnnotations = new LinkedHashSet<>(Arrays.asList(DEFAULT_ANNOTATIONS));
+    //注解类名与是否是扫描注解的关系
+    private final Map<String, Boolean> annotationCacheMap = new HashMap<>();
+    //索引中的类名, 用二进制类名(内部类是$分隔), 与Class.forName一致
+    private final Set<String> classNames = new TreeSet<>();
+    //本次编译处理过的类名(包括没有扫描注解的), 上次索引中这些类的记录以本次为准
+    private final Set<String> processedClassNames = new HashSet<>();
+    //上次编译生成过索引, 本次没有类时也要覆盖, 否则会留下旧的索引
+    private boolean existingIndex;
+    private Elements elements;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        this.elements = processingEnv.getElementUtils();
+        String annotations = processingEnv.getOptions().get(OPTION_ANNOTATIONS);
+        if (annotations != null) {
+            for (String annotation : annotations.split(",")) {
+                if (!annotation.trim().isEmpty()) {
+                    scannerAnnotations.add(annotation.trim());
+                }
+            }
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getRootElements()) {
+            collect(element);
+        }
+        if (roundEnv.processingOver()) {
+            readExistingIndex();
+            writeIndex();
+        }
+        return false;
+    }
+
+    private void collect(Element element) {
+        if (!(element instanceof TypeElement)) {
+            return;
+        }
+        TypeElement typeElement = (TypeElement) element;
+        processedClassNames.add(elements.getBinaryName(typeElement).toString());
+        ElementKind kind = typeElement.getKind();
+        //与运行时一致, 注解与接口不是bean
+        if (kind == ElementKind.CLASS || kind == ElementKind.ENUM) {
+            for (AnnotationMirror mirror : typeElement.getAnnotationMirrors()) {
+                if (isScannerAnnotation((TypeElement) mirror.getAnnotationType().asElement())) {
+                    classNames.add(elements.getBinaryName(typeElement).toString());
+                    break;
+                }
+            }
+        }
+        //内部类
+        for (Element enclosed : typeElement.getEnclosedElements()) {
+            collect(enclosed);
+        }
+    }
+
+    private boolean isScannerAnnotation(TypeElement annotationType) {
+        String name = annotationType.getQualifiedName().toString();
+        if (scannerAnnotations.contains(name)) {
+            return true;
+        }
+        if (name.startsWith("java.lang.annotation.")) {
+            return false;
+        }
+        Boolean exist = annotationCacheMap.get(name);
+        if (exist != null) {
+            return exist;
+        }
+        //先放入false, 防止注解互相标注时死循环
+        annotationCacheMap.put(name, Boolean.FALSE);
+        exist = Boolean.FALSE;
+        for (AnnotationMirror mirror : annotationType.getAnnotationMirrors()) {
+            if (isScannerAnnotation((TypeElement) mirror.getAnnotationType().asElement())) {
+                exist = Boolean.TRUE;
+                break;
+            }
+        }
+        annotationCacheMap.put(name, exist);
+        return exist;
+    }
+
+    /**
+     * 增量编译时只会处理改动的类, 所以需要保留上次索引中没有重新编译并且仍然存在的类.
+     * 重新编译的类以本次的结果为准, 去掉了扫描注解的类不会再留在索引中
+     */
+    private void readExistingIndex() {
+        FileObject resource;
+        try {
+            resource = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE_LOCATION);
+        } catch (IOException | IllegalArgumentException e) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openInputStream(), StandardCharsets.UTF_8))) {
+            existingIndex = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || processedClassNames.contains(line)) {
+                    continue;
+                }
+                TypeElement typeElement = elements.getTypeElement(line.replace('$', '.'));
+                if (typeElement != null) {
+                    classNames.add(line);
+                }
+            }
+        } catch (IOException e) {
+            //skip 第一次编译时没有索引文件
+        }
+    }
+
+    private void writeIndex() {
+        if (classNames.isEmpty() && !existingIndex) {
+            return;
+        }
+        try {
+            FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE_LOCATION);
+            try (Writer writer = new OutputStreamWriter(resource.openOutputStream(), StandardCharsets.UTF_8)) {
+                writer.write("# Generated by " + getClass().getName() + "\n");
+                for (String className : classNames) {
+                    writer.write(className);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "write " + INDEX_RESOURCE_LOCATION + " error=" + e);
+        }
+    }
+}
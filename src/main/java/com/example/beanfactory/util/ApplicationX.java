@@ -4,24 +4,42 @@ import java.beans.BeanInfo;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
+import java.io.*;
 import java.lang.annotation.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.*;
+import java.net.MalformedURLException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.*;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import static java.lang.annotation.ElementType.*;
 
@@ -32,7 +50,12 @@ import static java.lang.annotation.ElementType.*;
  * 2016/11/11/011
  */
 public class ApplicationX {
+    /**
+     * 编译时生成的bean索引文件, 由 beanfactory-index 模块的注解处理器生成, 一行一个类名
+     */
+    public static final String INDEX_RESOURCE_LOCATION = "META-INF/applicationx.index";
     private static final AtomicInteger SHUTDOWN_HOOK_ID_INCR = new AtomicInteger();
+    private static final String JAVA_HOME_URL = getJavaHomeUrl();
     private static final Method[] EMPTY_METHOD_ARRAY = {};
     private static final PropertyDescriptor[] EMPTY_DESCRIPTOR_ARRAY = {};
     private static final Constructor<ConcurrentMap> CONCURRENT_REFERENCE_MAP_CONSTRUCTOR = getAnyConstructor(
@@ -47,6 +70,7 @@ public class ApplicationX {
     private static final Map<Class, Boolean> FACTORY_METHOD_ANNOTATION_CACHE_MAP = newConcurrentReferenceMap(32);
     private static final Map<Class, PropertyDescriptor[]> PROPERTY_DESCRIPTOR_CACHE_MAP = newConcurrentReferenceMap(128);
     private static final Map<Class, Method[]> DECLARED_METHODS_CACHE_MAP = newConcurrentReferenceMap(128);
+    private static final Map<Member, MemberAccessor> MEMBER_ACCESSOR_CACHE_MAP = newConcurrentReferenceMap(128);
     private static final OrderComparator COMPARATOR = new OrderComparator(new LinkedHashSet<>(Collections.singletonList(Order.class)));
     private final Collection<Class<? extends Annotation>> initMethodAnnotations = new LinkedHashSet<>(
             Arrays.asList(PostConstruct.class));
@@ -68,14 +92,39 @@ public class ApplicationX {
     private final Collection<String> beanSkipLifecycles = new LinkedHashSet<>(8);
     //存放Class与bean名称对应关系
     private final Map<Class, String[]> beanNameMap = new ConcurrentHashMap<>(64);
+    //存放类型(bean的类,所有父类与接口)与bean名称的关系, 按类型查找bean时直接用这个索引
+    private final Map<Class<?>, String[]> beanTypeIndexMap = new ConcurrentHashMap<>(256);
+    //存放按类型获取bean时, 解析(包括@Primary)出的唯一bean名称. bean定义变化时清空
+    private final Map<Class<?>, String> beanTypeResolvedMap = new ConcurrentHashMap<>(64);
+    private volatile int beanDefinitionVersion;
+    //存放类与初始化,销毁方法的关系
+    private final Map<Class<?>, LifecycleMetadata> lifecycleMetadataCacheMap = newConcurrentReferenceMap(64);
     //存放别名与别名关系或别名与bean名称的关系
     private final Map<String, String> beanAliasMap = new ConcurrentHashMap<>(6);
     //存放bean名称与bean描述的关系
     private final Map<String, BeanDefinition> beanDefinitionMap = new ConcurrentHashMap<>(64);
     //存放bean名称与单例对象的关系
     private final Map<String, Object> singletonObjects = new ConcurrentHashMap<>(64);
-    //正在创建的单例bean
+    //正在创建的单例bean(所有线程)
     private final Set<String> singletonsCurrentlyInCreation = Collections.newSetFromMap(new ConcurrentHashMap<>(16));
+    //存放bean名称与提前暴露的单例的关系, 用于循环依赖. 只有创建它的线程(或互相等待的线程)可以拿到
+    private final Map<String, Object> earlySingletonObjects = new ConcurrentHashMap<>(16);
+    //存放bean名称与创建单例的锁的关系, 创建完后删除
+    private final Map<String, SingletonLock> singletonLockMap = new ConcurrentHashMap<>(16);
+    //存放线程与它正在等待的锁的关系, 用于发现线程之间互相等待
+    private final Map<Thread, SingletonLock> singletonLockWaitingMap = new ConcurrentHashMap<>(4);
+    //等待单例的锁的线程在这里挂起. 有线程开始等待或释放锁时唤醒, 重新检查
+    private final Object singletonLockMonitor = new Object();
+    //存放bean名称与依赖它的bean名称的关系
+    private final Map<String, Set<String>> dependentBeanMap = new ConcurrentHashMap<>(64);
+    //存放bean名称与它依赖的bean名称的关系
+    private final Map<String, Set<String>> dependenciesForBeanMap = new ConcurrentHashMap<>(64);
+    //正在监听的热加载数量, 大于0时才记录bean之间的依赖关系
+    private final AtomicInteger dependentBeanRecordingCount = new AtomicInteger();
+    //当前线程正在创建的bean, 创建时获取的其他bean就是它的依赖
+    private final ThreadLocal<Deque<String>> currentlyCreatedBeans = new ThreadLocal<>();
+    //存放扫描时的类加载器与最近一次热加载的类加载器的关系
+    private final Map<ClassLoader, ReloadClassLoader> reloadClassLoaderMap = new ConcurrentHashMap<>(2);
     private final Map<Class, AbstractBeanFactory> beanFactoryMap = new LinkedHashMap<>(8);
     private final AbstractBeanFactory defaultBeanFactory = new DefaultBeanFactory();
     private final Scanner scanner = new Scanner();
@@ -83,6 +132,36 @@ public class ApplicationX {
     private BiPredicate<ClassLoader, URL> resourceLoaderUrlFilter = (classLoader, url) -> !isJavaLib(url);
     private Supplier<ClassLoader> resourceLoader;
     private Function<BeanDefinition, String> beanNameGenerator = new DefaultBeanNameGenerator(this);
+    //扫描的并行度, 小于等于1时在调用线程中串行扫描
+    private int scannerParallelism = 1;
+    //并行扫描时, 读取类名与加载类之间的队列长度
+    private int scannerQueueCapacity = 1024;
+    //扫描时先读取class文件的字节码判断是否有注解, 没有注解的类不会被加载
+    private boolean scannerMetadataFilter = true;
+    //如果存在编译时生成的bean索引, 则只读取索引, 不再扫描目录与jar包. 需要手动开启, 因为类路径上任何一个索引都会让所有jar包不再扫描
+    private boolean scannerIndexEnabled = false;
+    //如果存在提前编译生成的初始化类(AotInitializer), 则直接注册生成的bean定义, 不再扫描. 需要手动开启
+    private boolean aotInitializerEnabled = false;
+    //扫描缓存的目录, 为null时不缓存
+    private File scannerCacheDirectory;
+    //扫描时只处理匹配的类, 为空时处理所有的类
+    private volatile ClassNameMatcher includeClassNameMatcher = new ClassNameMatcher(Collections.emptyList());
+    //扫描时跳过匹配的类
+    private volatile ClassNameMatcher excludeClassNameMatcher = new ClassNameMatcher(Collections.emptyList());
+    //是否记录scanner(...).inject()期间加载的类, 用于生成AppCDS的类列表
+    private boolean classListRecording = false;
+    //正在记录的类列表, scanner开始时创建, inject结束时清除
+    private volatile ClassListRecorder classListRecorder;
+    //inject时创建单例的并行度, 小于等于1时在调用线程中按顺序创建
+    private int injectParallelism = 1;
+    //存放bean名称与对象池的关系, 用于池化(pooled)的bean
+    private final Map<String, BeanPool> beanPoolMap = new ConcurrentHashMap<>(8);
+    //存放bean名称与池化(pooled)的bean的代理, 注入与按类型获取时共用, 每次调用方法时借出与归还
+    private final Map<String, Object> pooledProxyMap = new ConcurrentHashMap<>(8);
+    //存放作用域名称与作用域的关系, 单例,原型,池化以外的作用域
+    private final Map<String, BeanScope> beanScopeMap = new ConcurrentHashMap<>(4);
+    //请求作用域, beginRequest与endRequest直接使用, 不能被registerScope替换
+    private final RequestBeanScope requestScope = new RequestBeanScope();
 
     public ApplicationX() {
         this(ApplicationX.class::getClassLoader);
@@ -109,6 +188,8 @@ public class ApplicationX {
         addSingletonBean(this);
         addBeanPostProcessor(new RegisteredBeanPostProcessor(this));
         addBeanPostProcessor(new AutowiredConstructorPostProcessor(this));
+        beanScopeMap.put(BeanDefinition.SCOPE_THREAD, new ThreadBeanScope());
+        beanScopeMap.put(BeanDefinition.SCOPE_REQUEST, requestScope);
         Runtime.getRuntime().addShutdownHook(new Thread(this::shutdownHook, "app.shutdownHook-" + SHUTDOWN_HOOK_ID_INCR.getAndIncrement()));
     }
 
@@ -241,6 +322,21 @@ public class ApplicationX {
         return interfaceList;
     }
 
+    /**
+     * 值是否可以作为这个类型的参数, 基本类型按包装类型判断
+     *
+     * @param type  参数类型
+     * @param value 值
+     * @return true=可以
+     */
+    private static boolean isAssignableValue(Class<?> type, Object value) {
+        if (value == null) {
+            return !type.isPrimitive();
+        }
+        Class<?> wrapType = type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type;
+        return wrapType.isInstance(value);
+    }
+
     private static boolean isSimpleProperty(Class<?> clazz) {
         return isSimpleValueType(clazz) || (clazz.isArray() && isSimpleValueType(clazz.getComponentType()));
     }
@@ -306,7 +402,7 @@ public class ApplicationX {
                 //skip
             }
         }
-        return new ConcurrentHashMap<>(initialCapacity);
+        return new ReferenceCacheMap<>(initialCapacity);
     }
 
     private static Method[] getDeclaredMethods(Class<?> clazz) {
@@ -380,6 +476,18 @@ public class ApplicationX {
         return timestamp;
     }
 
+    private static String getJavaHomeUrl() {
+        String javaHome = System.getProperty("java.home");
+        if (javaHome == null) {
+            return null;
+        }
+        try {
+            return new File(javaHome).getCanonicalFile().toURI().toURL().toString();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     private void addClasses(Collection annotationList, String... classNames) {
         ClassLoader classLoader = resourceLoader.get();
         for (String className : classNames) {
@@ -487,6 +595,16 @@ public class ApplicationX {
         this.singletonObjects.put(beanName, singletonObject);
     }
 
+    /**
+     * 提前暴露正在创建的单例, 用于解决循环依赖. 创建完后删除
+     *
+     * @param beanName        bean名称
+     * @param singletonObject 还没有注入与初始化的实例
+     */
+    protected void addEarlySingleton(String beanName, Object singletonObject) {
+        this.earlySingletonObjects.put(beanName, singletonObject);
+    }
+
     /**
      * 确定原始名称，解析别名规范名称。
      *
@@ -526,27 +644,259 @@ public class ApplicationX {
     }
 
     protected BiConsumer<URL, String> newScannerConsumer(ClassLoader classLoader, ScannerResult result) {
-        return (url, className) -> {
+        Set<String> scannerAnnotationNames = getScannerAnnotationNames();
+        return (url, className) -> scanClass(classLoader, url, className, scannerAnnotationNames, result);
+    }
+
+    /**
+     * 处理扫描到的一个类, 如果类上有扫描注解, 则生成BeanDefinition放入扫描结果
+     *
+     * @param classLoader            用于加载类
+     * @param url                    类所在的类路径, 用于统计, 可以为null
+     * @param className              类名
+     * @param scannerAnnotationNames 扫描注解的类名 {@link #getScannerAnnotationNames()}
+     * @param result                 扫描结果
+     * @return true=生成了BeanDefinition
+     */
+    protected boolean scanClass(ClassLoader classLoader, URL url, String className, Set<String> scannerAnnotationNames, ScannerResult result) {
+        return scanClass(classLoader, url, className, scannerAnnotationNames, result, result.getStatistics(url));
+    }
+
+    /**
+     * 处理扫描到的一个类. 统计数据由调用方按类路径获取一次后传入, 不用每个类都去查找
+     *
+     * @param classLoader            用于加载类
+     * @param url                    类所在的类路径, 可以为null
+     * @param className              类名
+     * @param scannerAnnotationNames 扫描注解的类名 {@link #getScannerAnnotationNames()}
+     * @param result                 扫描结果
+     * @param statistics             类路径的统计数据 {@link ScannerResult#getStatistics(URL)}
+     * @return true=生成了BeanDefinition
+     */
+    protected boolean scanClass(ClassLoader classLoader, URL url, String className, Set<String> scannerAnnotationNames,
+                                ScannerResult result, ScanStatistics statistics) {
+        return scanClass(classLoader, url, className, scannerAnnotationNames, result, statistics, null);
+    }
+
+    /**
+     * 处理扫描到的一个类, 字节码从正在扫描的jar包或目录中读取
+     *
+     * @param classLoader            用于加载类
+     * @param url                    类所在的类路径, 可以为null
+     * @param className              类名
+     * @param scannerAnnotationNames 扫描注解的类名 {@link #getScannerAnnotationNames()}
+     * @param result                 扫描结果
+     * @param statistics             类路径的统计数据 {@link ScannerResult#getStatistics(URL)}
+     * @param classFile              class文件, 为null时通过类加载器读取
+     * @return true=生成了BeanDefinition
+     */
+    protected boolean scanClass(ClassLoader classLoader, URL url, String className, Set<String> scannerAnnotationNames,
+                                ScannerResult result, ScanStatistics statistics, ClassFile classFile) {
+        if (!isIncludeClass(className)) {
+            return false;
+        }
+        try {
+            result.classCount.incrementAndGet();
+            statistics.addClassCount();
+            //先看字节码, 没有扫描注解的类直接跳过, 不去加载它
+            if (scannerMetadataFilter && !isCandidateClass(classLoader, className, classFile, scannerAnnotationNames, result.scannerAnnotationNameCacheMap, statistics)) {
+                result.skipClassCount.incrementAndGet();
+                return false;
+            }
+            Class<?> clazz;
+            long loadBeginNanos = System.nanoTime();
             try {
-                result.classCount.incrementAndGet();
-                Class clazz = Class.forName(className, false, classLoader);
-                if (clazz.isAnnotation()) {
-                    return;
-                }
-                // TODO: 1月27日 027  doScan skip interface impl by BeanPostProcessor
-                if (clazz.isInterface()) {
-                    return;
+                clazz = Class.forName(className, false, classLoader);
+            } finally {
+                statistics.addLoad(System.nanoTime() - loadBeginNanos);
+            }
+            if (result.classListRecorder != null) {
+                result.classListRecorder.record(clazz);
+            }
+            if (clazz.isAnnotation()) {
+                return false;
+            }
+            // TODO: 1月27日 027  doScan skip interface impl by BeanPostProcessor
+            if (clazz.isInterface()) {
+                return false;
+            }
+            if (!isExistAnnotation(clazz, scannerAnnotations, result.scannerAnnotationCacheMap)) {
+                return false;
+            }
+            BeanDefinition definition = newBeanDefinition(clazz);
+            String beanName = beanNameGenerator.apply(definition);
+            result.beanDefinitionMap.put(beanName, definition);
+            statistics.addCandidateCount();
+            return true;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            //skip
+            return false;
+        }
+    }
+
+    public Set<String> getScannerAnnotationNames() {
+        Set<String> scannerAnnotationNames = new LinkedHashSet<>();
+        for (Class<? extends Annotation> scannerAnnotation : scannerAnnotations) {
+            scannerAnnotationNames.add(scannerAnnotation.getName());
+        }
+        return scannerAnnotationNames;
+    }
+
+    /**
+     * 根据class文件的字节码判断是否是候选的类(类上直接或间接打了扫描注解), 不会加载这个类.
+     *
+     * @param classLoader            用于读取class文件
+     * @param className              类名
+     * @param scannerAnnotationNames 扫描注解的类名
+     * @param cacheMap               注解类名是否是扫描注解的缓存
+     * @param statistics             记录读取的字节数与读取时间, 可以为null
+     * @return true=需要加载这个类. 如果读不到字节码, 也会返回true
+     */
+    protected boolean isCandidateClass(ClassLoader classLoader, String className, Set<String> scannerAnnotationNames,
+                                       Map<String, Boolean> cacheMap, ScanStatistics statistics) {
+        return isCandidateClass(classLoader, className, null, scannerAnnotationNames, cacheMap, statistics);
+    }
+
+    /**
+     * 根据class文件的字节码判断是否是候选的类, class文件从正在扫描的jar包或目录中读取.
+     * 类上的注解可能在其他类路径中, 仍然通过类加载器读取
+     *
+     * @param classLoader            用于读取注解的class文件
+     * @param className              类名
+     * @param classFile              class文件, 为null时通过类加载器读取
+     * @param scannerAnnotationNames 扫描注解的类名
+     * @param cacheMap               注解类名是否是扫描注解的缓存
+     * @param statistics             记录读取的字节数与读取时间, 可以为null
+     * @return true=需要加载这个类. 如果读不到字节码, 也会返回true
+     */
+    protected boolean isCandidateClass(ClassLoader classLoader, String className, ClassFile classFile, Set<String> scannerAnnotationNames,
+                                       Map<String, Boolean> cacheMap, ScanStatistics statistics) {
+        ClassMetadata metadata = classFile == null ?
+                readClassMetadata(classLoader, className, statistics)
+                : readClassMetadata(classFile, statistics);
+        if (metadata == null) {
+            return true;
+        }
+        if (metadata.isAnnotation() || metadata.isInterface()) {
+            return false;
+        }
+        for (String annotationName : metadata.getAnnotationNames()) {
+            if (isScannerAnnotationName(classLoader, annotationName, scannerAnnotationNames, cacheMap, statistics)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isScannerAnnotationName(ClassLoader classLoader, String annotationName, Set<String> scannerAnnotationNames,
+                                            Map<String, Boolean> cacheMap, ScanStatistics statistics) {
+        if (scannerAnnotationNames.contains(annotationName)) {
+            return true;
+        }
+        if (annotationName.startsWith("java.lang.annotation.")) {
+            return false;
+        }
+        Boolean exist = cacheMap.get(annotationName);
+        if (exist != null) {
+            return exist;
+        }
+        //先在局部map中解析, 解析完再放入缓存. 并行扫描时, 其他线程不会读到解析中的结果
+        Map<String, Boolean> tempCacheMap = new HashMap<>(8);
+        exist = resolveScannerAnnotationName(classLoader, annotationName, scannerAnnotationNames, cacheMap, tempCacheMap, statistics);
+        if (exist) {
+            //注解互相标注时, 解析中的注解会暂时当作false, 所以只有true是确定的结果
+            tempCacheMap.forEach((name, value) -> {
+                if (value) {
+                    cacheMap.put(name, Boolean.TRUE);
                 }
-                if (!isExistAnnotation(clazz, scannerAnnotations, result.scannerAnnotationCacheMap)) {
-                    return;
+            });
+        } else {
+            cacheMap.putAll(tempCacheMap);
+        }
+        return exist;
+    }
+
+    private boolean resolveScannerAnnotationName(ClassLoader classLoader, String annotationName, Set<String> scannerAnnotationNames,
+                                                 Map<String, Boolean> cacheMap, Map<String, Boolean> tempCacheMap, ScanStatistics statistics) {
+        if (scannerAnnotationNames.contains(annotationName)) {
+            return true;
+        }
+        if (annotationName.startsWith("java.lang.annotation.")) {
+            return false;
+        }
+        Boolean exist = cacheMap.get(annotationName);
+        if (exist == null) {
+            exist = tempCacheMap.get(annotationName);
+        }
+        if (exist != null) {
+            return exist;
+        }
+        //先放入false, 防止注解互相标注时死循环
+        tempCacheMap.put(annotationName, Boolean.FALSE);
+        exist = Boolean.FALSE;
+        ClassMetadata metadata = readClassMetadata(classLoader, annotationName, statistics);
+        if (metadata != null) {
+            for (String metaAnnotationName : metadata.getAnnotationNames()) {
+                if (!metaAnnotationName.equals(annotationName)
+                        && resolveScannerAnnotationName(classLoader, metaAnnotationName, scannerAnnotationNames, cacheMap, tempCacheMap, statistics)) {
+                    exist = Boolean.TRUE;
+                    break;
                 }
-                BeanDefinition definition = newBeanDefinition(clazz);
-                String beanName = beanNameGenerator.apply(definition);
-                result.beanDefinitionMap.put(beanName, definition);
-            } catch (ReflectiveOperationException | LinkageError e) {
+            }
+        }
+        tempCacheMap.put(annotationName, exist);
+        return exist;
+    }
+
+    protected ClassMetadata readClassMetadata(ClassLoader classLoader, String className, ScanStatistics statistics) {
+        long ioBeginNanos = System.nanoTime();
+        InputStream in = classLoader == null ?
+                ClassLoader.getSystemResourceAsStream(className.replace('.', '/') + ".class")
+                : classLoader.getResourceAsStream(className.replace('.', '/') + ".class");
+        if (in == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = readAllBytes(in);
+            if (statistics != null) {
+                statistics.addIo(bytes.length, System.nanoTime() - ioBeginNanos);
+            }
+            return ClassMetadata.read(bytes);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
                 //skip
             }
-        };
+        }
+    }
+
+    protected ClassMetadata readClassMetadata(ClassFile classFile, ScanStatistics statistics) {
+        long ioBeginNanos = System.nanoTime();
+        try {
+            byte[] bytes = classFile.read();
+            if (statistics != null) {
+                statistics.addIo(bytes.length, System.nanoTime() - ioBeginNanos);
+            }
+            return ClassMetadata.read(bytes);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readAllBytes(InputStream in) throws IOException {
+        byte[] buffer = new byte[Math.max(in.available(), 4096)];
+        int length = 0;
+        int read;
+        while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length << 1);
+            }
+        }
+        return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
     }
 
     public ScannerResult scanner(ClassLoader classLoader, boolean onlyInMyProject) {
@@ -554,19 +904,33 @@ public class ApplicationX {
     }
 
     public ScannerResult scanner(ClassLoader classLoader, boolean onlyInMyProject, ScannerResult result) {
-        result.scannerBeginTimestamp = System.currentTimeMillis();
+        result.scannerBeginTimestamp = System.nanoTime();
+        if (classListRecording) {
+            result.loadedClassCountBegin = ManagementFactory.getClassLoadingMXBean().getTotalLoadedClassCount();
+            result.classListRecorder = new ClassListRecorder();
+            classListRecorder = result.classListRecorder;
+        }
         try {
+            //有提前编译生成的初始化类, 就不需要扫描与分析了
+            if (aotInitializerEnabled && scanAotInitializer(classLoader, result)) {
+                return result;
+            }
+            //有编译时生成的索引, 就不需要扫描了
+            if (scannerIndexEnabled && scanIndex(classLoader, result)) {
+                return result;
+            }
+            if (scannerCacheDirectory != null) {
+                result.scanCache = ScanCache.load(new File(scannerCacheDirectory, ScanCache.FILE_NAME), getScanCacheKey());
+            }
             ClassLoader systemClassLoader = ClassLoader.getSystemClassLoader();
             //只在我的项目中搜索类
             if (onlyInMyProject) {
                 result.classLoaders.add(classLoader);
-                BiConsumer<URL, String> consumer = newScannerConsumer(classLoader, result);
-                try {
-                    for (String rootPackage : scanner.getRootPackages()) {
-                        scanner.doScan(rootPackage, classLoader, consumer);
-                    }
-                } catch (IOException e) {
-                    throw new IllegalStateException("scanner classLoader=" + classLoader + ",error=" + e, e);
+                addPackageClassUrls(classLoader, result);
+                scanUrls(result.tempUrls, classLoader, result);
+                result.tempUrls.clear();
+                if (result.scanCache != null) {
+                    result.scanCache.save();
                 }
                 return result;
             }
@@ -586,16 +950,7 @@ public class ApplicationX {
             }
 
             //扫描所有用户自定义加载器jar包路径
-            for (URL url : result.tempUrls) {
-                BiConsumer<URL, String> consumer = newScannerConsumer(classLoader, result);
-                try {
-                    for (String rootPackage : scanner.getRootPackages()) {
-                        scanner.doScan(rootPackage, null, url, consumer);
-                    }
-                } catch (IOException e) {
-                    throw new IllegalStateException("scanner userClassLoader error. url=" + url + ",error=" + e, e);
-                }
-            }
+            scanUrls(result.tempUrls, classLoader, result);
             result.tempUrls.clear();
 
             //扫描系统类加载器的jar包路径
@@ -614,72 +969,480 @@ public class ApplicationX {
                     }
                     cp = cp.substring(pathSepIdx + 1);
                 }
-                for (URL url : result.tempUrls) {
-                    BiConsumer<URL, String> consumer = newScannerConsumer(systemClassLoader, result);
-                    try {
-                        for (String rootPackage : scanner.getRootPackages()) {
-                            scanner.doScan(rootPackage, null, url, consumer);
-                        }
-                    } catch (IOException e) {
-                        throw new IllegalStateException("scanner systemClassLoader error. url=" + url + ",error=" + e, e);
-                    }
-                }
+                scanUrls(result.tempUrls, systemClassLoader, result);
                 result.tempUrls.clear();
             }
+
+            //扫描JDK9以上模块路径中的模块
+            scanModules(result);
+            if (result.scanCache != null) {
+                result.scanCache.save();
+            }
         } finally {
-            result.scannerEndTimestamp = System.currentTimeMillis();
+            result.scannerEndTimestamp = System.nanoTime();
         }
         return result;
     }
 
-    protected void addClassURL(ScannerResult result, ClassLoader loader, String path) {
+    /**
+     * 扫描多个类路径. 如果并行度大于1, 则交给{@link ParallelScanner}在ForkJoinPool中并行扫描
+     *
+     * @param urls        类路径(jar包或目录)
+     * @param classLoader 用于加载扫描到的类
+     * @param result      扫描结果
+     */
+    protected void scanUrls(Collection<URL> urls, ClassLoader classLoader, ScannerResult result) {
+        if (urls.isEmpty()) {
+            return;
+        }
+        Set<String> scannerAnnotationNames = getScannerAnnotationNames();
+        ScanCache scanCache = result.scanCache;
+        //所有扫描包放在一个前缀树中, 每个jar包或目录只需要读取一次
+        PackageTrie packageTrie = new PackageTrie(scanner.getRootPackages());
+        UrlScanner urlScanner = (url, classConsumer) -> scanUrl(url, packageTrie, classConsumer, result);
+        //每个类路径只获取一次统计数据
+        Function<URL, BiConsumer<URL, String>> consumerFactory = url -> {
+            ScanStatistics statistics = result.getStatistics(url);
+            ClassFileConsumer consumer;
+            if (scanCache == null) {
+                consumer = (classUrl, className, classFile) -> scanClass(classLoader, url, className, scannerAnnotationNames, result, statistics, classFile);
+            } else {
+                consumer = (classUrl, className, classFile) -> {
+                    //只缓存生成了BeanDefinition的类
+                    if (scanClass(classLoader, url, className, scannerAnnotationNames, result, statistics, classFile)) {
+                        scanCache.addClassName(url, className);
+                    }
+                };
+            }
+            //不看字节码时, 不需要class文件
+            return scannerMetadataFilter ? consumer : (BiConsumer<URL, String>) consumer::accept;
+        };
+        for (URL url : urls) {
+            result.urlClassLoaderMap.put(url, classLoader);
+        }
+        //同一个jar包中的多个内层jar包只打开一次外层jar包
+        result.archiveCache = new Scanner.ArchiveCache();
         try {
-            URL url = new File(path).getCanonicalFile().toURI().toURL();
-            result.addClassUrl(loader, url);
-        } catch (IOException e) {
-            e.printStackTrace();
+            if (scannerParallelism > 1 && urls.size() > 1) {
+                new ParallelScanner(scannerParallelism, scannerQueueCapacity).scan(urls, urlScanner, consumerFactory);
+                return;
+            }
+            for (URL url : urls) {
+                try {
+                    urlScanner.scan(url, consumerFactory.apply(url));
+                } catch (IOException e) {
+                    throw new IllegalStateException("scanner error. url=" + url + ",classLoader=" + classLoader + ",error=" + e, e);
+                }
+            }
+        } finally {
+            result.archiveCache.close();
+            result.archiveCache = null;
         }
     }
 
-    public BiPredicate<ClassLoader, URL> getResourceLoaderUrlFilter() {
-        return resourceLoaderUrlFilter;
+    /**
+     * 扫描JDK9以上启动模块层中的命名模块(--module-path). JDK自带的模块(jrt:)不会扫描,
+     * 模块的包中没有扫描包的模块也不会打开.
+     * 模块位置是jar包或目录的, 与类路径一样扫描(可以使用缓存与并行); 其他位置的模块通过ModuleReader列出类.
+     *
+     * @param result 扫描结果
+     */
+    protected void scanModules(ScannerResult result) {
+        if (!ModuleScanner.isSupported()) {
+            return;
+        }
+        Collection<String> rootPackages = scanner.getRootPackages();
+        PackageTrie packageTrie = new PackageTrie(rootPackages);
+        Map<ClassLoader, List<URL>> classLoaderUrlMap = new LinkedHashMap<>();
+        for (ModuleScanner.NamedModule module : ModuleScanner.getBootModules()) {
+            if (module.isJdkModule() || !module.containsPackage(rootPackages)) {
+                continue;
+            }
+            ClassLoader classLoader = module.getClassLoader();
+            if (classLoader == null) {
+                classLoader = ClassLoader.getSystemClassLoader();
+            }
+            URL url = module.getLocationUrl();
+            if (url != null && "file".equals(url.getProtocol())) {
+                classLoaderUrlMap.computeIfAbsent(classLoader, k -> new ArrayList<>()).add(url);
+            } else {
+                result.classLoaders.add(classLoader);
+                try {
+                    module.list(packageTrie, newScannerConsumer(classLoader, result));
+                } catch (IOException e) {
+                    throw new IllegalStateException("scanner module error. module=" + module + ",error=" + e, e);
+                }
+            }
+        }
+        for (Map.Entry<ClassLoader, List<URL>> entry : classLoaderUrlMap.entrySet()) {
+            for (URL url : entry.getValue()) {
+                result.addClassUrl(entry.getKey(), url);
+            }
+            scanUrls(result.tempUrls, entry.getKey(), result);
+            result.tempUrls.clear();
+        }
     }
 
-    public void setResourceLoaderUrlFilter(BiPredicate<ClassLoader, URL> resourceLoaderUrlFilter) {
-        this.resourceLoaderUrlFilter = resourceLoaderUrlFilter;
+    /**
+     * 读取一个类路径(jar包或目录)中的类名. 如果开启了扫描缓存, 并且类路径没有变化, 则直接使用缓存中的类名.
+     *
+     * @param url           类路径
+     * @param packageTrie   需要扫描的包
+     * @param classConsumer 接收类名
+     * @param result        扫描结果
+     * @throws IOException 读取异常
+     */
+    protected void scanUrl(URL url, PackageTrie packageTrie, BiConsumer<URL, String> classConsumer, ScannerResult result) throws IOException {
+        ScanCache scanCache = result.scanCache;
+        if (scanCache != null) {
+            String[] classNames = scanCache.getClassNames(url);
+            if (classNames != null) {
+                result.cacheHitCount.incrementAndGet();
+                for (String className : classNames) {
+                    classConsumer.accept(url, className);
+                }
+                return;
+            }
+            result.cacheMissCount.incrementAndGet();
+        }
+        //读取类名的时间 = 总时间 - 处理类名的时间(串行时加载类, 并行时放入队列)
+        ScanStatistics statistics = result.getStatistics(url);
+        LongAdder consumerNanos = new LongAdder();
+        long beginNanos = System.nanoTime();
+        try {
+            scanner.scan(url, packageTrie, (ClassFileConsumer) (classUrl, className, classFile) -> {
+                long consumerBeginNanos = System.nanoTime();
+                try {
+                    ClassFileConsumer.accept(classConsumer, classUrl, className, classFile);
+                } finally {
+                    consumerNanos.add(System.nanoTime() - consumerBeginNanos);
+                }
+            }, statistics, result.archiveCache);
+        } finally {
+            statistics.addIo(0, System.nanoTime() - beginNanos - consumerNanos.sum());
+        }
     }
 
-    protected boolean isJavaLib(URL url) {
-        String urlStr = url.toString();
-        String[] javaPaths = {"/jre/lib/"};
-        for (String javaPath : javaPaths) {
-            if (urlStr.contains(javaPath)) {
+    /**
+     * 用ServiceLoader查找提前编译生成的初始化类 {@link AotInitializer}, 扫描配置一致时用它注册bean定义
+     *
+     * @param classLoader 用于查找初始化类
+     * @param result      扫描结果
+     * @return true=使用了初始化类. false=没有可用的初始化类, 需要扫描
+     */
+    protected boolean scanAotInitializer(ClassLoader classLoader, ScannerResult result) {
+        String scanKey = getScanCacheKey();
+        try {
+            for (AotInitializer initializer : ServiceLoader.load(AotInitializer.class, classLoader)) {
+                if (!scanKey.equals(initializer.getScanKey())) {
+                    continue;
+                }
+                result.classLoaders.add(classLoader);
+                initializer.initialize(this, result);
                 return true;
             }
+        } catch (ServiceConfigurationError e) {
+            throw new IllegalStateException("scanner aot initializer error. classLoader=" + classLoader + ",error=" + e, e);
         }
         return false;
     }
 
-    public ScannerResult scanner(String... rootPackage) {
-        return scanner(false, rootPackage);
+    /**
+     * 读取编译时生成的bean索引 {@link #INDEX_RESOURCE_LOCATION}, 只处理索引中属于扫描包的类.
+     * 注: 使用索引时不会再扫描目录与jar包, 所以所有包含bean的模块都需要生成索引. 默认不开启 {@link #setScannerIndexEnabled(boolean)}
+     *
+     * @param classLoader 用于读取索引与加载类
+     * @param result      扫描结果
+     * @return true=存在索引. false=不存在索引, 需要扫描
+     */
+    protected boolean scanIndex(ClassLoader classLoader, ScannerResult result) {
+        Enumeration<URL> indexUrls;
+        try {
+            indexUrls = classLoader.getResources(INDEX_RESOURCE_LOCATION);
+        } catch (IOException e) {
+            throw new IllegalStateException("scanner index error. classLoader=" + classLoader + ",error=" + e, e);
+        }
+        if (!indexUrls.hasMoreElements()) {
+            return false;
+        }
+        result.classLoaders.add(classLoader);
+        BiConsumer<URL, String> consumer = newScannerConsumer(classLoader, result);
+        Collection<String> rootPackages = scanner.getRootPackages();
+        while (indexUrls.hasMoreElements()) {
+            URL indexUrl = indexUrls.nextElement();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(indexUrl.openStream(), StandardCharsets.UTF_8))) {
+                String className;
+                while ((className = reader.readLine()) != null) {
+                    className = className.trim();
+                    if (className.isEmpty() || className.startsWith("#")) {
+                        continue;
+                    }
+                    for (String rootPackage : rootPackages) {
+                        if (className.startsWith(rootPackage)
+                                && (className.length() == rootPackage.length() || className.charAt(rootPackage.length()) == '.')) {
+                            consumer.accept(indexUrl, className);
+                            break;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("scanner index error. url=" + indexUrl + ",error=" + e, e);
+            }
+        }
+        return true;
     }
 
-    public ScannerResult scanner(boolean onlyInMyProject, String... rootPackage) {
-        addScanPackage(rootPackage);
-        ClassLoader loader = resourceLoader.get();
-        return scanner(loader, onlyInMyProject);
+    /**
+     * 扫描配置变了, 缓存中的类名就不能用了
+     *
+     * @return 扫描缓存的配置
+     */
+    protected String getScanCacheKey() {
+        return "rootPackages=" + scanner.getRootPackages()
+                + ",excludes=" + scanner.getExcludes()
+                + ",includeFilters=" + includeClassNameMatcher.getPatterns()
+                + ",excludeFilters=" + excludeClassNameMatcher.getPatterns()
+                + ",scannerAnnotations=" + getScannerAnnotationNames();
     }
 
-    public ApplicationX addExcludesPackage(String... excludesPackages) {
-        if (excludesPackages != null) {
-            scanner.getExcludes().addAll(Arrays.asList(excludesPackages));
+    /**
+     * 只找包含扫描包的类路径, 例: 扫描包是com.example, 资源是jar:file:/app.jar!/com/example, 类路径就是jar:file:/app.jar!/
+     *
+     * @param classLoader 用于查找扫描包
+     * @param result      扫描结果
+     */
+    protected void addPackageClassUrls(ClassLoader classLoader, ScannerResult result) {
+        for (String rootPackage : scanner.getRootPackages()) {
+            String packagePath = rootPackage.replace('.', '/');
+            Enumeration<URL> packageUrls;
+            try {
+                packageUrls = classLoader.getResources(packagePath);
+            } catch (IOException e) {
+                throw new IllegalStateException("scanner classLoader=" + classLoader + ",error=" + e, e);
+            }
+            while (packageUrls.hasMoreElements()) {
+                String packageUrl = packageUrls.nextElement().toString();
+                if (packageUrl.endsWith("/")) {
+                    packageUrl = packageUrl.substring(0, packageUrl.length() - 1);
+                }
+                if (!packageUrl.endsWith(packagePath)) {
+                    continue;
+                }
+                try {
+                    result.addClassUrl(classLoader, new URL(packageUrl.substring(0, packageUrl.length() - packagePath.length())));
+                } catch (MalformedURLException e) {
+                    //skip
+                }
+            }
         }
-        return this;
     }
 
-    public ApplicationX addScanPackage(String... rootPackages) {
-        if (rootPackages != null) {
-            scanner.getRootPackages().addAll(Arrays.asList(rootPackages));
+    protected void addClassURL(ScannerResult result, ClassLoader loader, String path) {
+        try {
+            URL url = new File(path).getCanonicalFile().toURI().toURL();
+            result.addClassUrl(loader, url);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int getScannerParallelism() {
+        return scannerParallelism;
+    }
+
+    /**
+     * 设置扫描的并行度
+     *
+     * @param scannerParallelism 小于等于1时串行扫描, 否则在ForkJoinPool中并行扫描jar包与目录
+     */
+    public void setScannerParallelism(int scannerParallelism) {
+        this.scannerParallelism = scannerParallelism;
+    }
+
+    public boolean isScannerMetadataFilter() {
+        return scannerMetadataFilter;
+    }
+
+    /**
+     * 扫描时是否先读取字节码过滤
+     *
+     * @param scannerMetadataFilter true=先读取class文件中的注解, 只加载打了扫描注解的类. false=加载所有扫描到的类
+     */
+    public void setScannerMetadataFilter(boolean scannerMetadataFilter) {
+        this.scannerMetadataFilter = scannerMetadataFilter;
+    }
+
+    public boolean isScannerIndexEnabled() {
+        return scannerIndexEnabled;
+    }
+
+    /**
+     * 是否使用编译时生成的bean索引 {@link #INDEX_RESOURCE_LOCATION}. 默认false.
+     * 开启后只要类路径上有一个索引文件, 就不再扫描任何目录与jar包, 没有生成索引的模块中的bean不会被注册
+     *
+     * @param scannerIndexEnabled true=存在索引时只读取索引, 不扫描目录与jar包
+     */
+    public void setScannerIndexEnabled(boolean scannerIndexEnabled) {
+        this.scannerIndexEnabled = scannerIndexEnabled;
+    }
+
+    public boolean isAotInitializerEnabled() {
+        return aotInitializerEnabled;
+    }
+
+    /**
+     * 是否使用提前编译生成的初始化类 {@link AotGenerator}, 默认不使用.
+     * 初始化类只按扫描配置匹配, 不检查类是否变化, 类有增删改后需要重新生成, 否则注册的还是旧的bean定义
+     *
+     * @param aotInitializerEnabled true=存在扫描配置一致的初始化类时, 不扫描类路径
+     */
+    public void setAotInitializerEnabled(boolean aotInitializerEnabled) {
+        this.aotInitializerEnabled = aotInitializerEnabled;
+    }
+
+    public File getScannerCacheDirectory() {
+        return scannerCacheDirectory;
+    }
+
+    /**
+     * 设置扫描缓存的目录. 缓存中记录每个jar包或目录的大小,修改时间,内容hash与扫描到的bean类名,
+     * 下次启动时没有变化的jar包或目录不再扫描.
+     *
+     * @param scannerCacheDirectory 缓存目录, null=不缓存
+     */
+    public void setScannerCacheDirectory(File scannerCacheDirectory) {
+        this.scannerCacheDirectory = scannerCacheDirectory;
+    }
+
+    public boolean isClassListRecording() {
+        return classListRecording;
+    }
+
+    /**
+     * 是否记录scanner(...).inject()期间加载的类. 记录后可以用{@link ScannerResult#writeClassList(File)}
+     * 生成-XX:SharedClassListFile的类列表, 再用-Xshare:dump生成AppCDS归档, 加快下次启动时的类加载.
+     *
+     * @param classListRecording true=记录
+     */
+    public void setClassListRecording(boolean classListRecording) {
+        this.classListRecording = classListRecording;
+    }
+
+    public int getInjectParallelism() {
+        return injectParallelism;
+    }
+
+    /**
+     * 设置inject时创建单例的并行度. 先创建BeanPostProcessor, 再根据构造器,字段,setter与@Bean方法参数分析出依赖关系,
+     * 依赖的bean都创建完后在ForkJoinPool中创建, 互不依赖的bean同时创建.
+     * 注意: 在@PostConstruct等生命周期方法中直接getBean的依赖分析不出来, 不保证顺序.
+     *
+     * @param injectParallelism 小于等于1时按顺序创建
+     */
+    public void setInjectParallelism(int injectParallelism) {
+        this.injectParallelism = injectParallelism;
+    }
+
+    public int getScannerQueueCapacity() {
+        return scannerQueueCapacity;
+    }
+
+    public void setScannerQueueCapacity(int scannerQueueCapacity) {
+        if (scannerQueueCapacity <= 0) {
+            throw new IllegalArgumentException("scannerQueueCapacity must be greater than 0. scannerQueueCapacity=" + scannerQueueCapacity);
+        }
+        this.scannerQueueCapacity = scannerQueueCapacity;
+    }
+
+    public BiPredicate<ClassLoader, URL> getResourceLoaderUrlFilter() {
+        return resourceLoaderUrlFilter;
+    }
+
+    public void setResourceLoaderUrlFilter(BiPredicate<ClassLoader, URL> resourceLoaderUrlFilter) {
+        this.resourceLoaderUrlFilter = resourceLoaderUrlFilter;
+    }
+
+    protected boolean isJavaLib(URL url) {
+        //JDK9以上的JDK模块
+        if ("jrt".equals(url.getProtocol())) {
+            return true;
+        }
+        String urlStr = url.toString();
+        String[] javaPaths = {"/jre/lib/"};
+        for (String javaPath : javaPaths) {
+            if (urlStr.contains(javaPath)) {
+                return true;
+            }
+        }
+        //JDK9以上没有jre目录
+        return JAVA_HOME_URL != null && urlStr.startsWith(JAVA_HOME_URL);
+    }
+
+    public ScannerResult scanner(String... rootPackage) {
+        return scanner(false, rootPackage);
+    }
+
+    public ScannerResult scanner(boolean onlyInMyProject, String... rootPackage) {
+        addScanPackage(rootPackage);
+        ClassLoader loader = resourceLoader.get();
+        return scanner(loader, onlyInMyProject);
+    }
+
+    public ApplicationX addExcludesPackage(String... excludesPackages) {
+        if (excludesPackages != null) {
+            scanner.getExcludes().addAll(Arrays.asList(excludesPackages));
+        }
+        return this;
+    }
+
+    /**
+     * 添加扫描类的过滤规则, 添加后只扫描匹配的类.
+     * 规则匹配完整的类名, '*'匹配一段包名或类名中的任意字符, '?'匹配一个字符, '**'匹配任意段包名.
+     * 例: com.example.**.service.*Impl
+     *
+     * @param patterns 规则
+     * @return ApplicationX
+     */
+    public ApplicationX addIncludeFilter(String... patterns) {
+        if (patterns != null) {
+            Set<String> patternSet = new LinkedHashSet<>(includeClassNameMatcher.getPatterns());
+            patternSet.addAll(Arrays.asList(patterns));
+            includeClassNameMatcher = new ClassNameMatcher(patternSet);
+        }
+        return this;
+    }
+
+    /**
+     * 添加扫描时跳过的类的规则, 规则同{@link #addIncludeFilter(String...)}.
+     * 例: com.example.**.internal.*
+     *
+     * @param patterns 规则
+     * @return ApplicationX
+     */
+    public ApplicationX addExcludeFilter(String... patterns) {
+        if (patterns != null) {
+            Set<String> patternSet = new LinkedHashSet<>(excludeClassNameMatcher.getPatterns());
+            patternSet.addAll(Arrays.asList(patterns));
+            excludeClassNameMatcher = new ClassNameMatcher(patternSet);
+        }
+        return this;
+    }
+
+    /**
+     * 是否需要扫描这个类
+     *
+     * @param className 类名
+     * @return true=需要扫描
+     */
+    public boolean isIncludeClass(String className) {
+        ClassNameMatcher includeMatcher = includeClassNameMatcher;
+        return (includeMatcher.isEmpty() || includeMatcher.matches(className))
+                && !excludeClassNameMatcher.matches(className);
+    }
+
+    public ApplicationX addScanPackage(String... rootPackages) {
+        if (rootPackages != null) {
+            scanner.getRootPackages().addAll(Arrays.asList(rootPackages));
         }
         return this;
     }
@@ -696,6 +1459,42 @@ public class ApplicationX {
         return this;
     }
 
+    /**
+     * 注册作用域, 之后@Scope(scopeName)的bean从这个作用域中获取. 内置的作用域不能替换
+     *
+     * @param scopeName 作用域名称
+     * @param scope     作用域
+     * @return this
+     * @throws IllegalArgumentException 替换内置的作用域singleton,prototype,pooled,thread,request
+     */
+    public ApplicationX registerScope(String scopeName, BeanScope scope) throws IllegalArgumentException {
+        if (BeanDefinition.SCOPE_SINGLETON.equals(scopeName) || BeanDefinition.SCOPE_PROTOTYPE.equals(scopeName)
+                || BeanDefinition.SCOPE_POOLED.equals(scopeName) || BeanDefinition.SCOPE_THREAD.equals(scopeName)
+                || BeanDefinition.SCOPE_REQUEST.equals(scopeName)) {
+            throw new IllegalArgumentException("Cannot replace existing scopes 'singleton', 'prototype', 'pooled', 'thread' and 'request'");
+        }
+        beanScopeMap.put(scopeName, Objects.requireNonNull(scope));
+        return this;
+    }
+
+    public BeanScope getRegisteredScope(String scopeName) {
+        return beanScopeMap.get(scopeName);
+    }
+
+    /**
+     * 开始当前线程的请求, 之后request作用域的bean在这个请求中只创建一次
+     */
+    public void beginRequest() {
+        requestScope.begin();
+    }
+
+    /**
+     * 结束当前线程的请求, 销毁这个请求中创建的所有request作用域的bean
+     */
+    public void endRequest() {
+        requestScope.end();
+    }
+
     public ApplicationX addBeanFactory(Class type, AbstractBeanFactory beanFactory) {
         addSingletonBean(beanFactory);
         beanFactoryMap.put(type, beanFactory);
@@ -717,15 +1516,8 @@ public class ApplicationX {
     }
 
     public String[] getBeanNamesForType(Class clazz) {
-        Collection<String> result = new ArrayList<>();
-        for (Map.Entry<String, BeanDefinition> entry : beanDefinitionMap.entrySet()) {
-            BeanDefinition definition = entry.getValue();
-            if (clazz.isAssignableFrom(definition.getBeanClassIfResolve(resourceLoader))) {
-                String beanName = entry.getKey();
-                result.add(beanName);
-            }
-        }
-        return result.toArray(new String[0]);
+        String[] beanNames = beanTypeIndexMap.get(clazz);
+        return beanNames == null ? new String[0] : beanNames.clone();
     }
 
     public <T> T getBean(Class<T> clazz) {
@@ -733,14 +1525,34 @@ public class ApplicationX {
     }
 
     public <T> T getBean(Class<T> clazz, Object[] args, boolean required) {
-        String[] beanNames = getBeanNamesForType(clazz);
-        String beanName;
-        if (beanNames.length == 0) {
-            if (required) {
-                throw new IllegalStateException("Not found bean. by type=" + clazz);
-            } else {
-                return null;
+        String beanName = beanTypeResolvedMap.get(clazz);
+        if (beanName == null) {
+            beanName = resolveBeanName(clazz);
+            if (beanName == null) {
+                if (required) {
+                    throw new IllegalStateException("Not found bean. by type=" + clazz);
+                } else {
+                    return null;
+                }
             }
+        }
+        return getBean(beanName, args, required);
+    }
+
+    /**
+     * 按类型解析出唯一的bean名称, 多个时取@Primary. 解析成功的结果会缓存, 下次直接命中
+     *
+     * @param clazz 类型
+     * @return bean名称, 没有时返回null
+     * @throws IllegalStateException 找到多个bean并且无法用@Primary确定时
+     */
+    private String resolveBeanName(Class<?> clazz) {
+        //先记录版本, 解析期间如果bean定义变化了, 就不缓存这次的结果
+        int version = beanDefinitionVersion;
+        String[] beanNames = beanTypeIndexMap.get(clazz);
+        String beanName;
+        if (beanNames == null || beanNames.length == 0) {
+            return null;
         } else if (beanNames.length == 1) {
             beanName = beanNames[0];
         } else {
@@ -748,6 +1560,9 @@ public class ApplicationX {
             List<String> nonPrimaryBeanNameList = new ArrayList<>(beanNames.length);
             for (String eachBeanName : beanNames) {
                 BeanDefinition definition = getBeanDefinition(eachBeanName);
+                if (definition == null) {
+                    continue;
+                }
                 if (definition.isPrimary()) {
                     primaryBeanNameList.add(eachBeanName);
                 } else {
@@ -757,6 +1572,8 @@ public class ApplicationX {
             if (primaryBeanNameList.isEmpty()) {
                 if (nonPrimaryBeanNameList.size() == 1) {
                     beanName = nonPrimaryBeanNameList.get(0);
+                } else if (nonPrimaryBeanNameList.isEmpty()) {
+                    return null;
                 } else {
                     throw new IllegalStateException("Found more bean. you can Annotation @Primary. beanNames=" + nonPrimaryBeanNameList);
                 }
@@ -766,7 +1583,22 @@ public class ApplicationX {
                 throw new IllegalStateException("Found more primary bean. beanNames=" + primaryBeanNameList);
             }
         }
-        return getBean(beanName, args, required);
+        synchronized (beanTypeResolvedMap) {
+            if (version == beanDefinitionVersion) {
+                beanTypeResolvedMap.put(clazz, beanName);
+            }
+        }
+        return beanName;
+    }
+
+    /**
+     * bean定义变化了(新增,覆盖,删除), 按类型解析的缓存失效
+     */
+    private void clearBeanTypeResolvedCache() {
+        synchronized (beanTypeResolvedMap) {
+            beanDefinitionVersion++;
+            beanTypeResolvedMap.clear();
+        }
     }
 
     public <T> T getBean(String beanNameOrAlias, Object[] args, boolean required) {
@@ -780,111 +1612,713 @@ public class ApplicationX {
             }
         }
 
-        boolean isSingleton = definition.isSingleton();
-        Object instance = null;
-        if (isSingleton) {
-            instance = singletonObjects.get(beanName);
+        Deque<String> creatingBeans = currentlyCreatedBeans.get();
+        if (dependentBeanRecordingCount.get() > 0 && creatingBeans != null && !creatingBeans.isEmpty()) {
+            registerDependentBean(beanName, creatingBeans.peek());
         }
-        if (instance == null) {
-            if (isSingleton) {
-                beforeSingletonCreation(beanName);
-            }
-            try {
-                Class beanClass = definition.getBeanClassIfResolve(resourceLoader);
-                AbstractBeanFactory beanFactory = getBeanFactory(beanClass);
-                instance = beanFactory.createBean(beanName, definition, args);
-                if (isSingleton) {
-                    addSingleton(beanName, instance);
-                }
-            } finally {
-                if (isSingleton) {
-                    afterSingletonCreation(beanName);
-                }
+
+        Object instance;
+        if (definition.isSingleton()) {
+            //已经创建完的单例不加锁
+            instance = singletonObjects.get(beanName);
+            if (instance == null) {
+                instance = getSingleton(beanName, definition, args, creatingBeans);
+            }
+        } else if (definition.isPooled()) {
+            Deque<String> currentCreatingBeans = creatingBeans;
+            BeanPool pool = beanPoolMap.computeIfAbsent(beanName, k -> new BeanPool(k, definition,
+                    bean -> destroyBeanQuietly(k, bean, definition)));
+            instance = pool.borrow(() -> createBean(beanName, definition, args, currentCreatingBeans));
+        } else {
+            BeanScope scope = definition.isPrototype() ? null : beanScopeMap.get(definition.getScope());
+            //没有注册的作用域与原型一样, 每次都创建
+            if (scope == null) {
+                instance = createBean(beanName, definition, args, creatingBeans);
+            } else {
+                Deque<String> currentCreatingBeans = creatingBeans;
+                instance = scope.get(beanName, () -> {
+                    Object bean = createBean(beanName, definition, args, currentCreatingBeans);
+                    scope.registerDestructionCallback(beanName, () -> destroyBeanQuietly(beanName, bean, definition));
+                    return bean;
+                });
             }
         }
         return (T) instance;
     }
 
-    public <T> T getBean(String beanName) {
-        return (T) getBean(beanName, null, true);
+    /**
+     * 归还池化(pooled)的bean, 之后的getBean可以复用
+     *
+     * @param beanNameOrAlias bean名称
+     * @param bean            从getBean获取的实例
+     * @return true=归还成功. false=不是从这个池中借出的, 或者已经归还过
+     */
+    public boolean returnBean(String beanNameOrAlias, Object bean) {
+        BeanPool pool = beanPoolMap.get(getBeanName(beanNameOrAlias));
+        return pool != null && pool.giveBack(bean);
     }
 
-    public <T> T getBean(String beanName, Object[] args) {
-        return (T) getBean(beanName, args, true);
+    /**
+     * 获取池化(pooled)的bean的对象池, 可以查看命中,未命中,等待的次数
+     *
+     * @param beanNameOrAlias bean名称
+     * @return 对象池, 还没有获取过这个bean时返回null
+     */
+    public BeanPool getBeanPool(String beanNameOrAlias) {
+        return beanPoolMap.get(getBeanName(beanNameOrAlias));
     }
 
-    public <T> List<T> getBeanForAnnotation(Class<? extends Annotation>... annotationType) {
-        List<T> result = new ArrayList<>();
-        for (Map.Entry<String, BeanDefinition> entry : beanDefinitionMap.entrySet()) {
-            String beanName = entry.getKey();
-            BeanDefinition definition = entry.getValue();
-            Class beanClass = definition.getBeanClassIfResolve(resourceLoader);
-            Annotation annotation = findAnnotation(beanClass, Arrays.asList(annotationType));
-            if (annotation != null) {
-                T bean = getBean(beanName, null, false);
-                if (bean != null) {
-                    result.add(bean);
-                }
-            }
+    /**
+     * 销毁所有对象池中空闲超时的实例. 借出与归还时也会检查
+     */
+    public void evictIdleBeans() {
+        for (BeanPool pool : beanPoolMap.values()) {
+            pool.evictIdle();
         }
-        return result;
     }
 
-    public <T> List<T> getBeanForType(Class<T> clazz) {
-        List<T> result = new ArrayList<>();
-        for (String beanName : getBeanNamesForType(clazz)) {
-            T bean = getBean(beanName, null, false);
-            if (bean != null) {
-                result.add(bean);
-            }
+    /**
+     * 获取注入用的bean. 池化(pooled)的bean返回代理, 每次调用方法时借出一个实例, 调用完归还,
+     * 这样注入的bean不会一直占用池中的实例. 其他作用域与{@link #getBean(String, Object[], boolean)}一样
+     *
+     * @param beanNameOrAlias bean名称
+     * @param requiredType    需要的类型, 为null时不检查
+     * @param required        是否是必须的
+     * @return bean或代理
+     * @throws IllegalStateException 池化的bean没有接口, 或者需要的类型不是代理实现的接口
+     */
+    private <T> T getInjectBean(String beanNameOrAlias, Class<?> requiredType, boolean required) throws IllegalStateException {
+        String beanName = getBeanName(beanNameOrAlias);
+        BeanDefinition definition = beanDefinitionMap.get(beanName);
+        if (definition == null || !definition.isPooled()) {
+            return getBean(beanName, null, required);
         }
-        return result;
+        Deque<String> creatingBeans = currentlyCreatedBeans.get();
+        if (dependentBeanRecordingCount.get() > 0 && creatingBeans != null && !creatingBeans.isEmpty()) {
+            registerDependentBean(beanName, creatingBeans.peek());
+        }
+        Object proxy = pooledProxyMap.computeIfAbsent(beanName, k -> newPooledProxy(k, definition));
+        if (requiredType != null && !requiredType.isInstance(proxy)) {
+            throw new IllegalStateException("Pooled bean can only be injected as an interface, or use getBean() and returnBean(). beanName=" + beanName + ",type=" + requiredType);
+        }
+        return (T) proxy;
     }
 
-    public boolean containsBean(String name) {
-        String beanName = getBeanName(name);
-        return singletonObjects.containsKey(beanName) || beanDefinitionMap.containsKey(beanName);
+    private <T> T getInjectBean(Class<T> clazz, boolean required) throws IllegalStateException {
+        String beanName = beanTypeResolvedMap.get(clazz);
+        if (beanName == null) {
+            beanName = resolveBeanName(clazz);
+            if (beanName == null) {
+                if (required) {
+                    throw new IllegalStateException("Not found bean. by type=" + clazz);
+                } else {
+                    return null;
+                }
+            }
+        }
+        return getInjectBean(beanName, clazz, required);
     }
 
-    public boolean containsInstance(String name) {
-        String beanName = getBeanName(name);
-        return singletonObjects.containsKey(beanName);
+    private Object newPooledProxy(String beanName, BeanDefinition definition) {
+        Class<?> beanClass = definition.getBeanClassIfResolve(resourceLoader);
+        Class<?>[] interfaces = getInterfaces(beanClass).toArray(new Class<?>[0]);
+        if (interfaces.length == 0) {
+            throw new IllegalStateException("Pooled bean has no interface, cannot be injected. use getBean() and returnBean(). beanName=" + beanName);
+        }
+        return Proxy.newProxyInstance(beanClass.getClassLoader(), interfaces, new PooledBeanHandler(this, beanName));
     }
 
-    public BeanDefinition newBeanDefinition(Class beanType) {
-        return newBeanDefinition(beanType, beanType);
+    private void closeBeanPool(String beanName) {
+        pooledProxyMap.remove(beanName);
+        BeanPool pool = beanPoolMap.remove(beanName);
+        if (pool != null) {
+            pool.close();
+        }
     }
 
-    public BeanDefinition newBeanDefinition(Class beanType, AnnotatedElement annotatedElement) {
-        Lazy lazyAnnotation = annotatedElement.getAnnotation(Lazy.class);
-        Scope scopeAnnotation = annotatedElement.getAnnotation(Scope.class);
-        Primary primaryAnnotation = annotatedElement.getAnnotation(Primary.class);
-
-        BeanDefinition definition = new BeanDefinition();
-        definition.setBeanClass(beanType);
-        definition.setBeanClassName(beanType.getName());
-        definition.setScope(scopeAnnotation == null ? BeanDefinition.SCOPE_SINGLETON : scopeAnnotation.value());
-        definition.setLazyInit(lazyAnnotation != null && lazyAnnotation.value());
-        definition.setInitMethodName(findMethodNameByNoArgs(beanType, initMethodAnnotations));
-        definition.setDestroyMethodName(findMethodNameByNoArgs(beanType, destroyMethodAnnotations));
-        definition.setPrimary(primaryAnnotation != null);
-        return definition;
+    private void destroyBeanQuietly(String beanName, Object bean, BeanDefinition definition) {
+        if (isLifecycle(beanName)) {
+            try {
+                invokeBeanDestroy(beanName, bean, definition);
+            } catch (Exception e) {
+                //skip
+            }
+        }
     }
 
-    public BeanDefinition addBeanDefinition(String beanName, BeanDefinition definition) {
-        return addBeanDefinition(beanName, definition, beanNameMap, beanDefinitionMap);
-    }
+    /**
+     * 创建单例. 同一个bean同时只有一个线程创建, 其他线程等待创建完后直接返回.
+     * 循环依赖按线程检查: 当前线程正在创建的bean返回提前暴露的实例.
+     * 两个线程互相等待对方正在创建的bean时, 也返回提前暴露的实例, 都没有提前暴露的实例时抛出异常
+     *
+     * @param beanName      bean名称
+     * @param definition    bean描述
+     * @param args          构造参数
+     * @param creatingBeans 当前线程正在创建的bean
+     * @return 单例
+     * @throws IllegalStateException 创建失败或不能解决的循环依赖
+     */
+    private Object getSingleton(String beanName, BeanDefinition definition, Object[] args, Deque<String> creatingBeans) throws IllegalStateException {
+        if (creatingBeans != null && creatingBeans.contains(beanName)) {
+            Object earlySingleton = earlySingletonObjects.get(beanName);
+            if (earlySingleton == null) {
+                throw new IllegalStateException("BeanCurrentlyInCreationException " + beanName);
+            }
+            return earlySingleton;
+        }
+        while (true) {
+            SingletonLock lock = singletonLockMap.computeIfAbsent(beanName, SingletonLock::new);
+            if (!lock.tryLock()) {
+                Object earlySingleton = awaitSingletonLock(lock);
+                if (earlySingleton != null) {
+                    return earlySingleton;
+                }
+            }
+            try {
+                //创建完后锁会删除, 等待的是删除了的锁时重新获取
+                if (singletonLockMap.get(beanName) != lock) {
+                    Object instance = singletonObjects.get(beanName);
+                    if (instance != null) {
+                        return instance;
+                    }
+                    continue;
+                }
+                Object instance = singletonObjects.get(beanName);
+                if (instance != null) {
+                    return instance;
+                }
+                beforeSingletonCreation(beanName);
+                try {
+                    instance = createBean(beanName, definition, args, creatingBeans);
+                    addSingleton(beanName, instance);
+                } finally {
+                    earlySingletonObjects.remove(beanName);
+                    afterSingletonCreation(beanName);
+                }
+                singletonLockMap.remove(beanName, lock);
+                return instance;
+            } finally {
+                releaseSingletonLock(lock);
+            }
+        }
+    }
+
+    /**
+     * 等待其他线程创建完单例. 等待期间检查线程之间是否互相等待(死锁).
+     * 当前线程开始等待时唤醒其他等待的线程, 它们等待的锁可能正是当前线程持有的, 需要重新检查
+     *
+     * @param lock 单例的锁
+     * @return null=获取到了锁. 不是null=出现了互相等待, 返回提前暴露的实例, 没有获取锁
+     * @throws IllegalStateException 互相等待并且都没有提前暴露的实例, 或者等待时被中断
+     */
+    private Object awaitSingletonLock(SingletonLock lock) throws IllegalStateException {
+        Thread currentThread = Thread.currentThread();
+        synchronized (singletonLockMonitor) {
+            singletonLockWaitingMap.put(currentThread, lock);
+            singletonLockMonitor.notifyAll();
+            try {
+                while (true) {
+                    //沿着 锁 -> 持有锁的线程 -> 这个线程等待的锁 寻找, 回到当前线程就是互相等待
+                    List<SingletonLock> waitingLocks = new ArrayList<>();
+                    for (SingletonLock each = lock; each != null; each = singletonLockWaitingMap.get(each.getOwnerThread())) {
+                        Thread owner = each.getOwnerThread();
+                        if (owner == null || waitingLocks.contains(each)) {
+                            break;
+                        }
+                        waitingLocks.add(each);
+                        if (owner == currentThread) {
+                            Object earlySingleton = earlySingletonObjects.get(lock.beanName);
+                            if (earlySingleton != null) {
+                                return earlySingleton;
+                            }
+                            //其他线程等待的bean有提前暴露的实例时, 由那个线程解开
+                            boolean resolvable = false;
+                            for (SingletonLock waitingLock : waitingLocks) {
+                                if (earlySingletonObjects.containsKey(waitingLock.beanName)) {
+                                    resolvable = true;
+                                    break;
+                                }
+                            }
+                            if (!resolvable) {
+                                throw new IllegalStateException("BeanCurrentlyInCreationException " + lock.beanName
+                                        + ". circular reference between threads. " + singletonsCurrentlyInCreation);
+                            }
+                            break;
+                        }
+                    }
+                    if (lock.tryLock()) {
+                        return null;
+                    }
+                    singletonLockMonitor.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("getBean interrupted. beanName=" + lock.beanName, e);
+            } finally {
+                singletonLockWaitingMap.remove(currentThread);
+            }
+        }
+    }
+
+    /**
+     * 释放单例的锁, 有线程在等待时唤醒它们.
+     * 等待的线程是先登记再尝试获取锁的, 所以这里没看到登记的线程一定能获取到锁
+     *
+     * @param lock 单例的锁
+     */
+    private void releaseSingletonLock(SingletonLock lock) {
+        lock.unlock();
+        if (!singletonLockWaitingMap.isEmpty()) {
+            synchronized (singletonLockMonitor) {
+                singletonLockMonitor.notifyAll();
+            }
+        }
+    }
+
+    private Object createBean(String beanName, BeanDefinition definition, Object[] args, Deque<String> creatingBeans) {
+        if (creatingBeans == null) {
+            creatingBeans = new ArrayDeque<>();
+            currentlyCreatedBeans.set(creatingBeans);
+        }
+        creatingBeans.push(beanName);
+        try {
+            Class beanClass = definition.getBeanClassIfResolve(resourceLoader);
+            AbstractBeanFactory beanFactory = getBeanFactory(beanClass);
+            Object instance = beanFactory.createBean(beanName, definition, args);
+            ClassListRecorder recorder = classListRecorder;
+            if (recorder != null && instance != null) {
+                recorder.recordBean(beanClass);
+                recorder.recordBean(instance.getClass());
+            }
+            return instance;
+        } finally {
+            creatingBeans.pop();
+        }
+    }
+
+    public <T> T getBean(String beanName) {
+        return (T) getBean(beanName, null, true);
+    }
+
+    public <T> T getBean(String beanName, Object[] args) {
+        return (T) getBean(beanName, args, true);
+    }
+
+    /**
+     * 获取有这些注解的bean. 池化(pooled)的bean返回代理, 见{@link #getInjectBean(String, Class, boolean)}
+     *
+     * @param annotationType 注解
+     * @param <T>            类型
+     * @return bean
+     */
+    public <T> List<T> getBeanForAnnotation(Class<? extends Annotation>... annotationType) {
+        List<T> result = new ArrayList<>();
+        for (Map.Entry<String, BeanDefinition> entry : beanDefinitionMap.entrySet()) {
+            String beanName = entry.getKey();
+            BeanDefinition definition = entry.getValue();
+            Class beanClass = definition.getBeanClassIfResolve(resourceLoader);
+            Annotation annotation = findAnnotation(beanClass, Arrays.asList(annotationType));
+            if (annotation != null) {
+                T bean = getInjectBean(beanName, null, false);
+                if (bean != null) {
+                    result.add(bean);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取这个类型的所有bean. 池化(pooled)的bean返回代理, 见{@link #getInjectBean(String, Class, boolean)}
+     *
+     * @param clazz 类型
+     * @param <T>   类型
+     * @return bean
+     * @throws IllegalStateException 有池化的bean, 并且类型不是接口
+     */
+    public <T> List<T> getBeanForType(Class<T> clazz) throws IllegalStateException {
+        List<T> result = new ArrayList<>();
+        for (String beanName : getBeanNamesForType(clazz)) {
+            T bean = getInjectBean(beanName, clazz, false);
+            if (bean != null) {
+                result.add(bean);
+            }
+        }
+        return result;
+    }
+
+    public boolean containsBean(String name) {
+        String beanName = getBeanName(name);
+        return singletonObjects.containsKey(beanName) || beanDefinitionMap.containsKey(beanName);
+    }
+
+    public boolean containsInstance(String name) {
+        String beanName = getBeanName(name);
+        return singletonObjects.containsKey(beanName);
+    }
+
+    public BeanDefinition newBeanDefinition(Class beanType) {
+        return newBeanDefinition(beanType, beanType);
+    }
+
+    public BeanDefinition newBeanDefinition(Class beanType, AnnotatedElement annotatedElement) {
+        Lazy lazyAnnotation = annotatedElement.getAnnotation(Lazy.class);
+        Scope scopeAnnotation = annotatedElement.getAnnotation(Scope.class);
+        Primary primaryAnnotation = annotatedElement.getAnnotation(Primary.class);
+
+        BeanDefinition definition = new BeanDefinition();
+        definition.setBeanClass(beanType);
+        definition.setBeanClassName(beanType.getName());
+        definition.setScope(scopeAnnotation == null ? BeanDefinition.SCOPE_SINGLETON : scopeAnnotation.value());
+        definition.setLazyInit(lazyAnnotation != null && lazyAnnotation.value());
+        definition.setInitMethodName(findMethodNameByNoArgs(beanType, initMethodAnnotations));
+        definition.setDestroyMethodName(findMethodNameByNoArgs(beanType, destroyMethodAnnotations));
+        definition.setPrimary(primaryAnnotation != null);
+        return definition;
+    }
+
+    public BeanDefinition addBeanDefinition(String beanName, BeanDefinition definition) {
+        return addBeanDefinition(beanName, definition, beanNameMap, beanDefinitionMap);
+    }
 
     public BeanDefinition addBeanDefinition(String beanName, BeanDefinition definition,
                                             Map<Class, String[]> beanNameMap,
-                                            Map<String, BeanDefinition> beanDefinitionMap) {
-        Class beanClass = definition.getBeanClassIfResolve(resourceLoader);
+                                            Map<String, BeanDefinition> beanDefinitionMap) throws IllegalStateException {
+        Class<?> beanClass = definition.getBeanClassIfResolve(resourceLoader);
+        //池化的bean注入的是接口代理, 没有接口时在注册时就报错, 不等到第一次注入
+        if (definition.isPooled() && beanClass != null && getInterfaces(beanClass).isEmpty()) {
+            throw new IllegalStateException("Pooled bean must implement an interface. beanName=" + beanName + ",class=" + beanClass);
+        }
         String[] oldBeanNames = beanNameMap.get(beanClass);
         Set<String> nameSet = oldBeanNames != null ? new LinkedHashSet<>(Arrays.asList(oldBeanNames)) : new LinkedHashSet<>(1);
         nameSet.add(beanName);
 
         beanNameMap.put(beanClass, nameSet.toArray(new String[0]));
-        return beanDefinitionMap.put(beanName, definition);
+        BeanDefinition oldDefinition = beanDefinitionMap.put(beanName, definition);
+        if (beanDefinitionMap == this.beanDefinitionMap) {
+            if (oldDefinition != null) {
+                removeBeanTypeIndex(beanName, oldDefinition.getBeanClassIfResolve(resourceLoader));
+                closeBeanPool(beanName);
+            }
+            addBeanTypeIndex(beanName, beanClass);
+        }
+        return oldDefinition;
+    }
+
+    private void addBeanTypeIndex(String beanName, Class<?> beanClass) {
+        synchronized (beanTypeIndexMap) {
+            for (Class<?> type : getSuperTypes(beanClass)) {
+                String[] beanNames = beanTypeIndexMap.get(type);
+                if (beanNames == null) {
+                    beanTypeIndexMap.put(type, new String[]{beanName});
+                } else if (!Arrays.asList(beanNames).contains(beanName)) {
+                    String[] newBeanNames = Arrays.copyOf(beanNames, beanNames.length + 1);
+                    newBeanNames[beanNames.length] = beanName;
+                    beanTypeIndexMap.put(type, newBeanNames);
+                }
+            }
+        }
+        clearBeanTypeResolvedCache();
+    }
+
+    private void removeBeanTypeIndex(String beanName, Class<?> beanClass) {
+        synchronized (beanTypeIndexMap) {
+            for (Class<?> type : getSuperTypes(beanClass)) {
+                String[] beanNames = beanTypeIndexMap.get(type);
+                if (beanNames == null) {
+                    continue;
+                }
+                List<String> beanNameList = new ArrayList<>(Arrays.asList(beanNames));
+                if (!beanNameList.remove(beanName)) {
+                    continue;
+                }
+                if (beanNameList.isEmpty()) {
+                    beanTypeIndexMap.remove(type);
+                } else {
+                    beanTypeIndexMap.put(type, beanNameList.toArray(new String[0]));
+                }
+            }
+        }
+        clearBeanTypeResolvedCache();
+    }
+
+    /**
+     * 获取类的所有父类与接口(包括自己与Object), 也就是所有isAssignableFrom(clazz)为true的类型
+     *
+     * @param clazz 类
+     * @return 所有父类与接口
+     */
+    private static Set<Class<?>> getSuperTypes(Class<?> clazz) {
+        Set<Class<?>> result = new LinkedHashSet<>();
+        collectSuperTypes(clazz, result);
+        result.add(Object.class);
+        return result;
+    }
+
+    private static void collectSuperTypes(Class<?> clazz, Set<Class<?>> result) {
+        if (clazz == null || !result.add(clazz)) {
+            return;
+        }
+        collectSuperTypes(clazz.getSuperclass(), result);
+        for (Class<?> interfaceClass : clazz.getInterfaces()) {
+            collectSuperTypes(interfaceClass, result);
+        }
+    }
+
+    public BeanDefinition removeBeanDefinition(String beanName) {
+        BeanDefinition definition = beanDefinitionMap.remove(beanName);
+        if (definition == null) {
+            return null;
+        }
+        Class<?> beanClass = definition.getBeanClassIfResolve(resourceLoader);
+        removeBeanTypeIndex(beanName, beanClass);
+        lifecycleMetadataCacheMap.remove(beanClass);
+        closeBeanPool(beanName);
+        beanNameMap.computeIfPresent(beanClass, (k, beanNames) -> {
+            Set<String> nameSet = new LinkedHashSet<>(Arrays.asList(beanNames));
+            nameSet.remove(beanName);
+            return nameSet.isEmpty() ? null : nameSet.toArray(new String[0]);
+        });
+        return definition;
+    }
+
+    /**
+     * 注册依赖关系, 销毁bean时会先销毁依赖它的bean
+     *
+     * @param beanName          被依赖的bean名称
+     * @param dependentBeanName 依赖它的bean名称
+     */
+    public void registerDependentBean(String beanName, String dependentBeanName) {
+        if (beanName.equals(dependentBeanName)) {
+            return;
+        }
+        dependentBeanMap.computeIfAbsent(beanName, k -> ConcurrentHashMap.newKeySet()).add(dependentBeanName);
+        dependenciesForBeanMap.computeIfAbsent(dependentBeanName, k -> ConcurrentHashMap.newKeySet()).add(beanName);
+    }
+
+    /**
+     * 获取依赖这个bean的bean名称, 只包括直接依赖的. 只在热加载监听期间记录 {@link #watch(ScannerResult)}
+     *
+     * @param beanName bean名称
+     * @return 依赖它的bean名称
+     */
+    public String[] getDependentBeans(String beanName) {
+        Set<String> dependentBeanNames = dependentBeanMap.get(beanName);
+        return dependentBeanNames == null ? new String[0] : dependentBeanNames.toArray(new String[0]);
+    }
+
+    /**
+     * 销毁单例bean, 会先销毁依赖它的bean. bean的描述不会删除, 下次获取时会重新创建
+     *
+     * @param beanName bean名称
+     */
+    public void destroySingleton(String beanName) {
+        Set<String> dependentBeanNames = dependentBeanMap.remove(beanName);
+        if (dependentBeanNames != null) {
+            for (String dependentBeanName : dependentBeanNames.toArray(new String[0])) {
+                destroySingleton(dependentBeanName);
+            }
+        }
+        Object bean = singletonObjects.remove(beanName);
+        BeanDefinition definition = beanDefinitionMap.get(beanName);
+        if (bean != null && definition != null && isLifecycle(beanName)) {
+            try {
+                invokeBeanDestroy(beanName, bean, definition);
+            } catch (Exception e) {
+                //skip
+            }
+        }
+        if (bean instanceof BeanPostProcessor) {
+            beanPostProcessors.removeIf(processor -> processor == bean);
+        }
+        Set<String> dependencies = dependenciesForBeanMap.remove(beanName);
+        if (dependencies != null) {
+            for (String dependency : dependencies) {
+                Set<String> dependents = dependentBeanMap.get(dependency);
+                if (dependents != null) {
+                    dependents.remove(beanName);
+                }
+            }
+        }
+    }
+
+    /**
+     * 监听扫描结果中的目录, class文件变化时热加载 {@link #reload(ClassLoader, Collection, Collection, Collection)}
+     *
+     * @param result 扫描结果
+     * @return 监听器, 关闭后停止监听
+     * @throws IOException 注册监听失败
+     */
+    public ClassWatcher watch(ScannerResult result) throws IOException {
+        ClassWatcher watcher = new ClassWatcher(this, new PackageTrie(scanner.getRootPackages()));
+        List<URL> classUrls;
+        synchronized (result.getClassUrls()) {
+            classUrls = new ArrayList<>(result.getClassUrls());
+        }
+        try {
+            for (URL url : classUrls) {
+                ClassLoader classLoader = result.getClassLoader(url);
+                if (classLoader != null && "file".equals(url.getProtocol())) {
+                    Path directory = Paths.get(URLDecoder.decode(url.getFile(), "UTF-8"));
+                    if (Files.isDirectory(directory)) {
+                        watcher.register(url, directory, classLoader);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            watcher.close();
+            throw e;
+        }
+        watcher.start();
+        return watcher;
+    }
+
+    /**
+     * 热加载变化的类. 只会重新扫描变化的类, 与现有的bean描述比较,
+     * 只销毁并重新创建类变化了的单例bean与依赖它们的bean, 其他的单例bean不变.
+     * <p>
+     * 变化的类与依赖它们的bean的类, 用一个新的{@link ReloadClassLoader}加载, 其他的类仍然由原来的类加载器加载.
+     * 注: 没有重新创建的bean如果直接引用了变化的类(不是bean), 仍然使用旧的类.
+     *
+     * @param classLoader       扫描时的类加载器
+     * @param urls              变化的类所在的目录
+     * @param changedClassNames 新增或修改的类
+     * @param deletedClassNames 删除的类
+     * @return 重新创建的bean名称
+     */
+    public synchronized Set<String> reload(ClassLoader classLoader, Collection<URL> urls,
+                                           Collection<String> changedClassNames, Collection<String> deletedClassNames) {
+        //类变化了的bean, 只处理扫描出来的bean
+        Set<String> oldBeanNames = new LinkedHashSet<>();
+        for (Map.Entry<String, BeanDefinition> entry : beanDefinitionMap.entrySet()) {
+            BeanDefinition definition = entry.getValue();
+            String className = definition.getBeanClassName();
+            if (definition.getBeanSupplier() == null && definition.getFactoryBeanName() == null
+                    && (changedClassNames.contains(className) || deletedClassNames.contains(className))) {
+                oldBeanNames.add(entry.getKey());
+            }
+        }
+        //依赖它们的bean也需要重新创建
+        Set<String> affectedBeanNames = new LinkedHashSet<>();
+        for (String beanName : oldBeanNames) {
+            collectDependentBeans(beanName, affectedBeanNames);
+        }
+        //依赖它们的bean的类也需要重新加载, 否则注入不了新的类的实例
+        Set<String> reloadClassNames = new LinkedHashSet<>(changedClassNames);
+        for (String beanName : affectedBeanNames) {
+            BeanDefinition definition = beanDefinitionMap.get(beanName);
+            if (definition != null && definition.getBeanSupplier() == null && definition.getFactoryBeanName() == null) {
+                reloadClassNames.add(definition.getBeanClassName());
+                oldBeanNames.add(beanName);
+            }
+        }
+        reloadClassNames.removeAll(deletedClassNames);
+
+        ReloadClassLoader parent = reloadClassLoaderMap.get(classLoader);
+        ReloadClassLoader reloadClassLoader = new ReloadClassLoader(urls.toArray(new URL[0]), reloadClassNames,
+                parent == null ? classLoader : parent);
+        ScannerResult result = new ScannerResult();
+        Set<String> scannerAnnotationNames = getScannerAnnotationNames();
+        PackageTrie packageTrie = new PackageTrie(scanner.getRootPackages());
+        for (String className : reloadClassNames) {
+            if (packageTrie.matches(className, '.')) {
+                scanClass(reloadClassLoader, null, className, scannerAnnotationNames, result);
+            }
+        }
+        Map<String, BeanDefinition> newDefinitionMap = result.beanDefinitionMap;
+
+        //销毁旧的bean, 记住销毁前有实例的bean, 之后重新创建
+        Set<String> destroyBeanNames = new LinkedHashSet<>(oldBeanNames);
+        destroyBeanNames.addAll(affectedBeanNames);
+        for (String beanName : newDefinitionMap.keySet()) {
+            if (beanDefinitionMap.containsKey(beanName)) {
+                destroyBeanNames.add(beanName);
+            }
+        }
+        Set<String> recreateBeanNames = new LinkedHashSet<>();
+        for (String beanName : destroyBeanNames) {
+            if (singletonObjects.containsKey(beanName)) {
+                recreateBeanNames.add(beanName);
+            }
+        }
+        for (String beanName : destroyBeanNames) {
+            destroySingleton(beanName);
+        }
+
+        //替换bean描述. 旧的类的工厂方法(@Bean)生成的bean描述也删除, 创建新的工厂bean时会重新生成
+        Set<String> removeBeanNames = new LinkedHashSet<>(oldBeanNames);
+        removeBeanNames.addAll(newDefinitionMap.keySet());
+        for (Map.Entry<String, BeanDefinition> entry : beanDefinitionMap.entrySet()) {
+            if (removeBeanNames.contains(entry.getValue().getFactoryBeanName())) {
+                removeBeanNames.add(entry.getKey());
+            }
+        }
+        for (String beanName : removeBeanNames) {
+            removeBeanDefinition(beanName);
+        }
+        List<String> beanNameList = new LinkedList<>();
+        for (Map.Entry<String, BeanDefinition> entry : newDefinitionMap.entrySet()) {
+            String beanName = entry.getKey();
+            BeanDefinition definition = entry.getValue();
+            addBeanDefinition(beanName, definition);
+            if (definition.isSingleton() && !definition.isLazyInit() && !recreateBeanNames.contains(beanName)) {
+                beanNameList.add(beanName);
+            }
+        }
+        reloadClassLoaderMap.put(classLoader, reloadClassLoader);
+
+        //重新创建. 先创建新的bean(包括工厂bean), 再创建其他依赖它们的bean
+        beanNameList.addAll(0, recreateBeanNames);
+        beanNameList.sort(Comparator.comparing(beanName -> !newDefinitionMap.containsKey(beanName)));
+        Set<String> createdBeanNames = new LinkedHashSet<>();
+        for (String beanName : beanNameList) {
+            BeanDefinition definition = beanDefinitionMap.get(beanName);
+            if (definition != null && definition.isSingleton() && getBean(beanName, null, false) != null) {
+                createdBeanNames.add(beanName);
+            }
+        }
+        return createdBeanNames;
+    }
+
+    /**
+     * 开始记录bean之间的依赖关系, 热加载时用它找出需要重新创建的bean.
+     * 第一个监听开始时, 根据注入元数据补上已经创建的bean的依赖关系 {@link #findDependencies(String)}
+     */
+    private void startDependentBeanRecording() {
+        if (dependentBeanRecordingCount.getAndIncrement() != 0) {
+            return;
+        }
+        for (String beanName : new ArrayList<>(beanDefinitionMap.keySet())) {
+            try {
+                for (String dependency : findDependencies(beanName)) {
+                    registerDependentBean(dependency, beanName);
+                }
+            } catch (RuntimeException | LinkageError e) {
+                //skip
+            }
+        }
+    }
+
+    /**
+     * 最后一个监听关闭时, 停止记录并清空依赖关系
+     */
+    private void stopDependentBeanRecording() {
+        if (dependentBeanRecordingCount.decrementAndGet() == 0) {
+            dependentBeanMap.clear();
+            dependenciesForBeanMap.clear();
+        }
+    }
+
+    private void collectDependentBeans(String beanName, Set<String> result) {
+        Set<String> dependentBeanNames = dependentBeanMap.get(beanName);
+        if (dependentBeanNames == null) {
+            return;
+        }
+        for (String dependentBeanName : dependentBeanNames) {
+            if (result.add(dependentBeanName)) {
+                collectDependentBeans(dependentBeanName, result);
+            }
+        }
     }
 
     /**
@@ -985,15 +2419,170 @@ public class ApplicationX {
         return result;
     }
 
-    private AbstractBeanFactory getBeanFactory(Class beanType) {
-        AbstractBeanFactory beanFactory = null;
-        if (beanFactoryMap.size() > 0) {
-            for (Class type = beanType; type != null; type = type.getSuperclass()) {
-                beanFactory = beanFactoryMap.get(type);
-                if (beanFactory != null) {
-                    break;
-                }
-            }
+    /**
+     * 按依赖关系并行创建单例. 先按顺序创建BeanPostProcessor, 再分析依赖关系, 用{@link ParallelInstantiator}创建.
+     * 依赖关系只在需要创建的单例之间, 与按顺序创建的是同一批bean. 懒加载的单例与@Bean注册的单例不在图中, 注入时才创建,
+     * 否则类型匹配的所有候选bean(包括没有被选中的)都会被提前创建
+     *
+     * @param beanNameList 需要创建的单例, BeanPostProcessor在前面
+     * @param parallelism  并行度
+     */
+    private void preInstantiateSingletons(List<String> beanNameList, int parallelism) {
+        List<String> singletonNameList = new ArrayList<>(beanNameList.size());
+        for (String beanName : beanNameList) {
+            BeanDefinition definition = getBeanDefinition(beanName);
+            if (BeanPostProcessor.class.isAssignableFrom(definition.getBeanClass())) {
+                getBean(beanName, null, true);
+            } else {
+                singletonNameList.add(beanName);
+            }
+        }
+        //提前通知定义合并bean, 让@Bean方法的bean定义在分析依赖前注册
+        for (String beanName : singletonNameList) {
+            preApplyMergedBeanDefinitionPostProcessors(beanName);
+        }
+
+        Set<String> singletonNameSet = new HashSet<>(singletonNameList);
+        Map<String, Set<String>> dependencyGraph = new LinkedHashMap<>();
+        for (String beanName : singletonNameList) {
+            Set<String> dependencies = new LinkedHashSet<>();
+            //原型bean每次都创建, 依赖的单例算作使用者的依赖
+            Set<String> visited = new HashSet<>();
+            Deque<String> prototypeQueue = new ArrayDeque<>();
+            prototypeQueue.add(beanName);
+            while (!prototypeQueue.isEmpty()) {
+                String each = prototypeQueue.poll();
+                if (!visited.add(each)) {
+                    continue;
+                }
+                for (String dependency : findDependencies(each)) {
+                    BeanDefinition definition = getBeanDefinition(dependency);
+                    if (definition == null) {
+                        continue;
+                    }
+                    if (definition.isSingleton()) {
+                        if (singletonNameSet.contains(dependency)) {
+                            dependencies.add(dependency);
+                        }
+                    } else if (!definition.isPooled()) {
+                        prototypeQueue.add(dependency);
+                    }
+                }
+            }
+            dependencyGraph.put(beanName, dependencies);
+        }
+        new ParallelInstantiator(parallelism).instantiate(dependencyGraph, beanName -> getBean(beanName, null, true));
+    }
+
+    /**
+     * 在创建前通知定义合并bean, 与{@link DefaultBeanFactory#doCreateBean}中一样每个bean定义只通知一次.
+     * 只处理没有Supplier的bean定义, 因为Supplier创建的实例类型可能不是定义的类型
+     *
+     * @param beanName bean名称
+     */
+    private void preApplyMergedBeanDefinitionPostProcessors(String beanName) {
+        BeanDefinition definition = getBeanDefinition(beanName);
+        if (definition == null || definition.getBeanSupplier() != null || !isLifecycle(beanName)) {
+            return;
+        }
+        Class<?> beanClass = definition.getBeanClassIfResolve(resourceLoader);
+        if (isAbstract(beanClass) || getBeanFactory(beanClass) != defaultBeanFactory) {
+            return;
+        }
+        synchronized (definition.postProcessingLock) {
+            if (!definition.postProcessed) {
+                try {
+                    ((DefaultBeanFactory) defaultBeanFactory).applyMergedBeanDefinitionPostProcessors(definition, beanClass, beanName);
+                } catch (Throwable ex) {
+                    throw new IllegalStateException("Post-processing of merged bean definition failed. beanName=" + beanName, ex);
+                }
+                definition.postProcessed = true;
+            }
+        }
+    }
+
+    /**
+     * 根据注入元数据(构造器,字段,setter,@Bean方法参数)找出一个bean依赖的bean名称
+     *
+     * @param beanName bean名称
+     * @return 依赖的bean名称, 依赖自己表示分析不出来
+     */
+    private Set<String> findDependencies(String beanName) {
+        Set<String> dependencies = new LinkedHashSet<>();
+        BeanDefinition definition = getBeanDefinition(beanName);
+        if (definition == null) {
+            return dependencies;
+        }
+        Class<?> beanClass = definition.getBeanClassIfResolve(resourceLoader);
+        String factoryBeanName = definition.getFactoryBeanName();
+        if (factoryBeanName != null) {
+            Method factoryMethod = definition.getFactoryMethod();
+            if (factoryMethod == null) {
+                //提前编译注册的@Bean没有工厂方法, 分析不出参数的依赖
+                dependencies.add(beanName);
+                return dependencies;
+            }
+            dependencies.add(getBeanName(factoryBeanName));
+            Class<?> factoryBeanClass = getBeanDefinitionClass(factoryBeanName);
+            new InjectElement<>(factoryMethod, this).collectDependencies(
+                    factoryBeanClass != null ? factoryBeanClass : factoryMethod.getDeclaringClass(), dependencies);
+        } else if (!isAbstract(beanClass)) {
+            for (BeanPostProcessor bp : new ArrayList<>(beanPostProcessors)) {
+                if (bp instanceof SmartInstantiationAwareBeanPostProcessor) {
+                    Constructor<?>[] ctors;
+                    try {
+                        ctors = ((SmartInstantiationAwareBeanPostProcessor) bp).determineCandidateConstructors(beanClass, beanName);
+                    } catch (RuntimeException e) {
+                        //skip 创建时会再抛出
+                        continue;
+                    }
+                    if (ctors != null) {
+                        //多个候选构造器时创建时会依次尝试, 所以都算作依赖
+                        for (Constructor<?> constructor : ctors) {
+                            new InjectElement<>(constructor, this).collectDependencies(beanClass, dependencies);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        AutowiredConstructorPostProcessor postProcessor = getAutowiredConstructorPostProcessor();
+        if (postProcessor != null && !isAbstract(beanClass)) {
+            InjectionMetadata metadata = postProcessor.findInjectionMetadata(beanClass);
+            for (InjectElement<Field> element : metadata.getInjectFields()) {
+                element.collectDependencies(beanClass, dependencies);
+            }
+            for (InjectElement<Method> element : metadata.getInjectMethods()) {
+                element.collectDependencies(beanClass, dependencies);
+            }
+        }
+        dependencies.remove(null);
+        return dependencies;
+    }
+
+    private Class<?> getBeanDefinitionClass(String beanName) {
+        BeanDefinition definition = getBeanDefinition(getBeanName(beanName));
+        return definition == null ? null : definition.getBeanClassIfResolve(resourceLoader);
+    }
+
+    AutowiredConstructorPostProcessor getAutowiredConstructorPostProcessor() {
+        for (BeanPostProcessor beanPostProcessor : beanPostProcessors) {
+            if (beanPostProcessor instanceof AutowiredConstructorPostProcessor) {
+                return (AutowiredConstructorPostProcessor) beanPostProcessor;
+            }
+        }
+        return null;
+    }
+
+    private AbstractBeanFactory getBeanFactory(Class beanType) {
+        AbstractBeanFactory beanFactory = null;
+        if (beanFactoryMap.size() > 0) {
+            for (Class type = beanType; type != null; type = type.getSuperclass()) {
+                beanFactory = beanFactoryMap.get(type);
+                if (beanFactory != null) {
+                    break;
+                }
+            }
         }
         if (beanFactory == null) {
             beanFactory = defaultBeanFactory;
@@ -1022,6 +2611,17 @@ public class ApplicationX {
                 //skip
             }
         }
+        for (String beanName : new ArrayList<>(beanPoolMap.keySet())) {
+            closeBeanPool(beanName);
+        }
+        pooledProxyMap.clear();
+        for (BeanScope scope : beanScopeMap.values()) {
+            try {
+                scope.close();
+            } catch (Exception e) {
+                //skip
+            }
+        }
     }
 
     private void invokeBeanDestroy(String beanName, Object bean, BeanDefinition definition) throws IllegalStateException {
@@ -1036,9 +2636,8 @@ public class ApplicationX {
         String destroyMethodName = definition.getDestroyMethodName();
         if (destroyMethodName != null && destroyMethodName.length() > 0 &&
                 !(isDisposableBean && "destroy".equals(destroyMethodName))) {
-            Class<?> beanClass = definition.getBeanClassIfResolve(resourceLoader);
             try {
-                beanClass.getMethod(destroyMethodName).invoke(bean);
+                getLifecycleMetadata(definition).getDestroyMethod().invoke(bean);
             } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
                 throw new IllegalStateException("invokeBeanDestroy destroyMethodName beanName=" + beanName + ",destroyMethodName" + destroyMethodName + ",error=" + e, e);
             }
@@ -1057,15 +2656,32 @@ public class ApplicationX {
         String initMethodName = definition.getInitMethodName();
         if (initMethodName != null && initMethodName.length() > 0 &&
                 !(isInitializingBean && "afterPropertiesSet".equals(initMethodName))) {
-            Class<?> beanClass = definition.getBeanClassIfResolve(resourceLoader);
             try {
-                beanClass.getMethod(initMethodName).invoke(bean);
+                getLifecycleMetadata(definition).getInitMethod().invoke(bean);
             } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
                 throw new IllegalStateException("invokeBeanInitialization initMethodName beanName=" + beanName + ",initMethodName" + initMethodName + ",error=" + e, e);
             }
         }
     }
 
+    /**
+     * 获取类的初始化与销毁方法, 每个类只解析一次
+     *
+     * @param definition bean定义
+     * @return 初始化与销毁方法
+     */
+    private LifecycleMetadata getLifecycleMetadata(BeanDefinition definition) {
+        Class<?> beanClass = definition.getBeanClassIfResolve(resourceLoader);
+        String initMethodName = definition.getInitMethodName();
+        String destroyMethodName = definition.getDestroyMethodName();
+        LifecycleMetadata metadata = lifecycleMetadataCacheMap.get(beanClass);
+        if (metadata == null || !metadata.isMatch(initMethodName, destroyMethodName)) {
+            metadata = new LifecycleMetadata(beanClass, initMethodName, destroyMethodName);
+            lifecycleMetadataCacheMap.put(beanClass, metadata);
+        }
+        return metadata;
+    }
+
     public String[] getBeanNames() {
         return beanDefinitionMap.keySet().toArray(new String[0]);
     }
@@ -1134,6 +2750,87 @@ public class ApplicationX {
         Object createBean(String beanName, BeanDefinition definition, Object[] args) throws RuntimeException;
     }
 
+    /**
+     * 作用域. 参考 org.springframework.beans.factory.config.Scope, 为了不与@Scope注解重名叫BeanScope.
+     * 用{@link ApplicationX#registerScope(String, BeanScope)}注册, 单例,原型,池化以外的作用域从这里获取bean
+     */
+    public interface BeanScope {
+        /**
+         * 从作用域中获取bean, 没有时用objectFactory创建并放入作用域
+         *
+         * @param beanName      bean名称
+         * @param objectFactory 创建bean
+         * @return bean
+         */
+        Object get(String beanName, Supplier<Object> objectFactory);
+
+        /**
+         * 从作用域中删除bean, 不会调用销毁方法
+         *
+         * @param beanName bean名称
+         * @return 删除的bean, 没有时返回null
+         */
+        Object remove(String beanName);
+
+        /**
+         * 注册作用域结束时的销毁回调(例如@PreDestroy)
+         *
+         * @param beanName bean名称
+         * @param callback 销毁回调
+         */
+        default void registerDestructionCallback(String beanName, Runnable callback) {
+        }
+
+        /**
+         * 容器关闭时调用, 销毁作用域中还存在的bean
+         */
+        default void close() {
+        }
+    }
+
+    /**
+     * 读取一个类路径(jar包或目录)中的类名
+     */
+    @FunctionalInterface
+    public interface UrlScanner {
+        void scan(URL url, BiConsumer<URL, String> classConsumer) throws IOException;
+    }
+
+    /**
+     * 扫描到的class文件, 从正在扫描的jar包或目录中读取
+     */
+    @FunctionalInterface
+    public interface ClassFile {
+        byte[] read() throws IOException;
+    }
+
+    /**
+     * 接收扫描到的类名与class文件. 读取字节码时直接用正在扫描的jar包或目录, 不再通过类加载器查找,
+     * 这样不会重复打开jar包, 多个类路径有同名的类时读到的也是正在扫描的这个
+     */
+    @FunctionalInterface
+    public interface ClassFileConsumer extends BiConsumer<URL, String> {
+        /**
+         * @param url       类路径
+         * @param className 类名
+         * @param classFile class文件, 为null时通过类加载器读取
+         */
+        void accept(URL url, String className, ClassFile classFile);
+
+        @Override
+        default void accept(URL url, String className) {
+            accept(url, className, null);
+        }
+
+        static void accept(BiConsumer<URL, String> consumer, URL url, String className, ClassFile classFile) {
+            if (consumer instanceof ClassFileConsumer) {
+                ((ClassFileConsumer) consumer).accept(url, className, classFile);
+            } else {
+                consumer.accept(url, className);
+            }
+        }
+    }
+
     public interface Aware {
     }
 
@@ -1301,7 +2998,11 @@ public class ApplicationX {
         String value() default BeanDefinition.SCOPE_SINGLETON;
     }
 
-    @Target({TYPE, METHOD})
+    /**
+     * 打在类或@Bean方法上: 启动时不创建, 第一次获取时创建.
+     * 打在注入的字段,参数,构造器,setter方法上: 注入一个代理(只支持接口), 第一次调用方法时才从容器中获取
+     */
+    @Target({TYPE, METHOD, FIELD, PARAMETER, CONSTRUCTOR})
     @Retention(RetentionPolicy.RUNTIME)
     public @interface Lazy {
         boolean value() default true;
@@ -1343,6 +3044,7 @@ public class ApplicationX {
     public static class Scanner {
         private final Collection<String> rootPackages = new ArrayList<>(6);
         private final Collection<String> excludes = new LinkedHashSet<>(6);
+        private boolean directorySplit = true;
 
         public Collection<String> getRootPackages() {
             return rootPackages;
@@ -1352,109 +3054,349 @@ public class ApplicationX {
             return this.excludes;
         }
 
-        public void doScan(String basePackage, String currentPackage, URL url, BiConsumer<URL, String> classConsumer) throws IOException {
-            StringBuilder buffer = new StringBuilder();
-            String splashPath = dotToSplash(basePackage);
-            if (url == null || existContains(url)) {
+        /**
+         * 一次读取jar包或目录, 找出所有扫描包下的类
+         *
+         * @param url           类路径(jar包或目录)
+         * @param packageTrie   需要扫描的包
+         * @param classConsumer 接收类名
+         * @param statistics    记录读取的字节数与条目数
+         * @throws IOException 读取异常
+         */
+        public void scan(URL url, PackageTrie packageTrie, BiConsumer<URL, String> classConsumer, ScanStatistics statistics) throws IOException {
+            try (ArchiveCache archiveCache = new ArchiveCache()) {
+                scan(url, packageTrie, classConsumer, statistics, archiveCache);
+            }
+        }
+
+        /**
+         * 一次读取jar包或目录, 找出所有扫描包下的类. 外层jar包从archiveCache中获取, 多个内层jar包共用
+         *
+         * @param url           类路径(jar包或目录)
+         * @param packageTrie   需要扫描的包
+         * @param classConsumer 接收类名
+         * @param statistics    记录读取的字节数与条目数
+         * @param archiveCache  打开的外层jar包, 为null时每次都重新打开
+         * @throws IOException 读取异常
+         */
+        public void scan(URL url, PackageTrie packageTrie, BiConsumer<URL, String> classConsumer, ScanStatistics statistics,
+                         ArchiveCache archiveCache) throws IOException {
+            if (archiveCache == null) {
+                scan(url, packageTrie, classConsumer, statistics);
+                return;
+            }
+            if (url == null || packageTrie.isEmpty() || existContains(url)) {
                 return;
             }
-            String filePath = getRootPath(URLDecoder.decode(url.getFile(), "UTF-8"));
-            List<String> names;
-            if (isJarFile(filePath)) {
-                names = readFromJarFile(filePath, splashPath);
+            String file = URLDecoder.decode(url.getFile(), "UTF-8");
+            String filePath = getRootPath(file);
+            //jar包中的jar包或目录, 例: jar:file:/app.jar!/BOOT-INF/lib/foo.jar!/ 或 jar:file:/app.jar!/BOOT-INF/classes!/
+            int nestedIndex = file.indexOf("!/");
+            String nestedPath = nestedIndex == -1 ? "" : file.substring(nestedIndex + 2);
+            if (isJarFile(filePath) && !nestedPath.replace("!/", "").isEmpty()) {
+                scanNestedJar(url, archiveCache.open(new File(filePath), statistics), nestedPath, packageTrie, classConsumer, statistics);
+            } else if (isJarFile(filePath)) {
+                scanJarFile(url, filePath, packageTrie, classConsumer, statistics);
             } else {
-                names = readFromDirectory(filePath);
+                Path directory = Paths.get(filePath);
+                if (Files.isDirectory(directory)) {
+                    scanDirectory(url, directory, packageTrie.getRoot(), "", classConsumer, statistics);
+                }
             }
-            for (String name : names) {
-                if (isClassFile(name)) {
-                    String className = toClassName(buffer, name, currentPackage);
-                    classConsumer.accept(url, className);
-                } else {
-                    String nextPackage;
-                    if (currentPackage == null || currentPackage.isEmpty()) {
-                        nextPackage = name;
-                    } else {
-                        nextPackage = currentPackage + "." + name;
+        }
+
+        private void scanJarFile(URL url, String jarPath, PackageTrie packageTrie, BiConsumer<URL, String> classConsumer, ScanStatistics statistics) throws IOException {
+            //只读取zip文件的中央目录, 不会解压任何文件
+            try (ZipFile zipFile = new ZipFile(jarPath)) {
+                boolean checkDirectoryEntry = true;
+                for (String packagePath : packageTrie.getPackagePaths()) {
+                    if (packagePath.isEmpty() || zipFile.getEntry(packagePath + "/") != null) {
+                        checkDirectoryEntry = false;
+                        break;
+                    }
+                }
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    String name = entry.getName();
+                    statistics.addEntryCount();
+                    //中央目录中每个条目的大小, 固定46字节 + 文件名 + 扩展字段 + 注释, 文件名与注释是UTF-8编码
+                    byte[] extra = entry.getExtra();
+                    String comment = entry.getComment();
+                    statistics.addIo(46 + utf8Length(name) + (extra == null ? 0 : extra.length) + (comment == null ? 0 : utf8Length(comment)), 0);
+                    if (entry.isDirectory() || !isClassFile(name)) {
+                        continue;
+                    }
+                    if (packageTrie.matches(name, '/')) {
+                        ClassFileConsumer.accept(classConsumer, url, name.substring(0, name.length() - ".class".length()).replace('/', '.'), () -> {
+                            try (InputStream in = zipFile.getInputStream(entry)) {
+                                return readAllBytes(in);
+                            }
+                        });
+                    } else if (checkDirectoryEntry) {
+                        //如果jar包里记录了class文件所在的目录, 却没有扫描包的目录, 说明jar包里没有扫描包, 直接跳过
+                        checkDirectoryEntry = false;
+                        int index = name.lastIndexOf('/');
+                        if (index != -1 && zipFile.getEntry(name.substring(0, index + 1)) != null) {
+                            return;
+                        }
                     }
-                    doScan(basePackage, nextPackage, new URL(url + "/" + name), classConsumer);
                 }
             }
         }
 
-        public void doScan(String basePackage, ClassLoader loader, BiConsumer<URL, String> classConsumer) throws IOException {
-            StringBuilder buffer = new StringBuilder();
-            String splashPath = dotToSplash(basePackage);
-            URL url = loader.getResource(splashPath);
-            if (url == null || existContains(url)) {
-                return;
-            }
-            String filePath = getRootPath(url.getFile());
-            List<String> names;
-            if (isJarFile(filePath)) {
-                names = readFromJarFile(filePath, splashPath);
-            } else {
-                names = readFromDirectory(filePath);
+        private static int utf8Length(String string) {
+            int length = string.length();
+            for (int i = 0, size = string.length(); i < size; i++) {
+                char c = string.charAt(i);
+                if (c >= 0x800) {
+                    //代理对是2个char, 编码后是4个字节
+                    length += Character.isSurrogate(c) ? 1 : 2;
+                } else if (c >= 0x80) {
+                    length++;
+                }
             }
-            for (String name : names) {
-                if (isClassFile(name)) {
-                    String className = toClassName(buffer, name, basePackage);
-                    classConsumer.accept(url, className);
+            return length;
+        }
+
+        /**
+         * 扫描jar包中的jar包(例: BOOT-INF/lib/*.jar)或目录(例: BOOT-INF/classes), 不解压到磁盘.
+         * 外层jar包通过内存映射读取, 存储(STORED)的内层jar包直接使用映射的切片, 只有压缩(DEFLATED)的才需要解压到内存.
+         *
+         * @param url           类路径
+         * @param archive       外层jar包
+         * @param nestedPath    外层jar包中的路径, 例: BOOT-INF/lib/foo.jar!/
+         * @param packageTrie   需要扫描的包
+         * @param classConsumer 接收类名
+         * @param statistics    记录读取的字节数与条目数
+         * @throws IOException 读取异常
+         */
+        private void scanNestedJar(URL url, ZipArchive archive, String nestedPath, PackageTrie packageTrie,
+                                   BiConsumer<URL, String> classConsumer, ScanStatistics statistics) throws IOException {
+            String prefix = "";
+            for (String path : nestedPath.split("!/")) {
+                if (path.startsWith("/")) {
+                    path = path.substring(1);
+                }
+                if (path.isEmpty()) {
+                    continue;
+                }
+                if (isJarFile(path)) {
+                    ZipArchive.Entry entry = archive.getEntry(prefix + path);
+                    if (entry == null) {
+                        return;
+                    }
+                    archive = archive.openNested(entry);
+                    statistics.addIo((entry.isStored() ? 0 : entry.getSize()) + archive.getCentralDirectorySize(), 0);
+                    prefix = "";
                 } else {
-                    doScan(basePackage + "." + name, loader, classConsumer);
+                    prefix = prefix + (path.endsWith("/") ? path : path + "/");
                 }
             }
+            String classPrefix = prefix;
+            ZipArchive classArchive = archive;
+            archive.forEachEntry(entry -> {
+                statistics.addEntryCount();
+                String name = entry.getName();
+                if (!isClassFile(name) || !name.startsWith(classPrefix)) {
+                    return;
+                }
+                String path = classPrefix.isEmpty() ? name : name.substring(classPrefix.length());
+                if (packageTrie.matches(path, '/')) {
+                    ClassFileConsumer.accept(classConsumer, url, path.substring(0, path.length() - ".class".length()).replace('/', '.'), () -> {
+                        ByteBuffer data = classArchive.getData(entry);
+                        byte[] bytes = new byte[data.remaining()];
+                        data.get(bytes);
+                        return bytes;
+                    });
+                }
+            });
         }
 
-        private boolean existContains(URL url) {
-            if (excludes.isEmpty()) {
-                return false;
-            }
-            String[] urlStr = url.getPath().split("/");
-            for (String s : excludes) {
-                for (String u : urlStr) {
-                    if (u.equals(s)) {
-                        return true;
+        /**
+         * 按照前缀树遍历目录, 不在扫描包路径上的目录不会进入.
+         * 类名由相对路径得出, 不会创建中间的URL.
+         * 如果在并行扫描的线程池中执行, 并且线程池有空闲, 会把子目录拆分给其他线程. 在其他ForkJoinPool(例: commonPool)中不拆分.
+         *
+         * @param url           类路径
+         * @param directory     目录
+         * @param node          目录对应的前缀树节点, 如果节点是扫描包, 则下面所有的目录都需要扫描
+         * @param packageName   目录的包名, 例: "com.example."
+         * @param classConsumer 接收类名
+         * @param statistics    记录条目数
+         * @throws IOException 读取异常
+         */
+        private void scanDirectory(URL url, Path directory, PackageTrie.Node node, String packageName,
+                                   BiConsumer<URL, String> classConsumer, ScanStatistics statistics) throws IOException {
+            DirectoryScanVisitor visitor = new DirectoryScanVisitor(url, directory, node, packageName, classConsumer, statistics);
+            Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, visitor);
+            for (ForkJoinTask<?> fork : visitor.forks) {
+                try {
+                    fork.join();
+                } catch (RuntimeException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
                     }
+                    throw e;
                 }
             }
-            return false;
         }
 
-        private String toClassName(StringBuilder buffer, String shortName, String basePackage) {
-            buffer.setLength(0);
-            shortName = trimExtension(shortName);
-            if (shortName.contains(basePackage)) {
-                buffer.append(shortName);
-            } else {
-                buffer.append(basePackage).append('.').append(shortName);
+        public boolean isDirectorySplit() {
+            return directorySplit;
+        }
+
+        /**
+         * 并行扫描时, 是否把大的目录拆分给多个线程扫描
+         *
+         * @param directorySplit true=拆分
+         */
+        public void setDirectorySplit(boolean directorySplit) {
+            this.directorySplit = directorySplit;
+        }
+
+        /**
+         * 一次扫描中打开的外层jar包. spring-boot的jar包中每个内层jar包是一个类路径(例: BOOT-INF/lib/*.jar),
+         * 共用外层jar包的映射与中央目录, 不用每个类路径都重新映射与遍历. 关闭时释放映射
+         */
+        public static class ArchiveCache implements Closeable {
+            private final Map<String, ZipArchive> archiveMap = new ConcurrentHashMap<>();
+
+            /**
+             * @param file       外层jar包
+             * @param statistics 第一次打开时记录读取的中央目录大小
+             * @return 外层jar包
+             * @throws IOException 读取异常
+             */
+            public ZipArchive open(File file, ScanStatistics statistics) throws IOException {
+                String path = file.getAbsolutePath();
+                ZipArchive archive = archiveMap.get(path);
+                if (archive == null) {
+                    synchronized (archiveMap) {
+                        archive = archiveMap.get(path);
+                        if (archive == null) {
+                            archive = ZipArchive.open(file);
+                            archiveMap.put(path, archive);
+                            statistics.addIo(archive.getCentralDirectorySize(), 0);
+                        }
+                    }
+                }
+                return archive;
+            }
+
+            @Override
+            public void close() {
+                synchronized (archiveMap) {
+                    for (ZipArchive archive : archiveMap.values()) {
+                        archive.close();
+                    }
+                    archiveMap.clear();
+                }
             }
-            return buffer.toString();
         }
 
-        //        if(jarPath.equals("/git/api/erp.jar"))
-//        jarPath = "git/api/erp.jar";
-        private List<String> readFromJarFile(String jarPath, String splashedPackageName) throws IOException {
-            JarInputStream jarIn = new JarInputStream(new FileInputStream(jarPath));
-            JarEntry entry = jarIn.getNextJarEntry();
+        private class DirectoryScanVisitor extends SimpleFileVisitor<Path> {
+            private final URL url;
+            private final Path root;
+            private final BiConsumer<URL, String> classConsumer;
+            private final ScanStatistics statistics;
+            private final StringBuilder packageName;
+            private final Deque<PackageTrie.Node> nodeStack = new ArrayDeque<>();
+            private final Deque<Integer> packageNameLengthStack = new ArrayDeque<>();
+            private final List<ForkJoinTask<?>> forks = new ArrayList<>();
+            //只在自己的线程池中拆分, 不占用调用方的ForkJoinPool
+            private final boolean split = directorySplit && ForkJoinTask.getPool() instanceof ParallelScanner.ScannerPool;
+
+            private DirectoryScanVisitor(URL url, Path root, PackageTrie.Node node, String packageName,
+                                         BiConsumer<URL, String> classConsumer, ScanStatistics statistics) {
+                this.url = url;
+                this.root = root;
+                this.packageName = new StringBuilder(packageName);
+                this.classConsumer = classConsumer;
+                this.statistics = statistics;
+                this.nodeStack.push(node);
+            }
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.equals(root)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                statistics.addEntryCount();
+                String name = dir.getFileName().toString();
+                PackageTrie.Node parent = nodeStack.peek();
+                PackageTrie.Node node = parent.isPackage() ? parent : parent.getChild(name, 0, name.length());
+                if (node == null || excludes.contains(name)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                //线程池有空闲时, 把这个子目录交给其他线程
+                if (split && ForkJoinTask.getSurplusQueuedTaskCount() <= 0) {
+                    String childPackageName = packageName + name + ".";
+                    forks.add(ForkJoinTask.adapt(() -> {
+                        scanDirectory(url, dir, node, childPackageName, classConsumer, statistics);
+                        return null;
+                    }).fork());
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                nodeStack.push(node);
+                packageNameLengthStack.push(packageName.length());
+                packageName.append(name).append('.');
+                return FileVisitResult.CONTINUE;
+            }
 
-            List<String> nameList = new ArrayList<>();
-            while (null != entry) {
-                String name = entry.getName();
-                if (!entry.isDirectory() && name.startsWith(splashedPackageName) && isClassFile(name)) {
-                    nameList.add(name);
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                statistics.addEntryCount();
+                if (!nodeStack.peek().isPackage()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String name = file.getFileName().toString();
+                if (isClassFile(name)) {
+                    int packageNameLength = packageName.length();
+                    packageName.append(name, 0, name.length() - ".class".length());
+                    ClassFileConsumer.accept(classConsumer, url, packageName.toString(), () -> Files.readAllBytes(file));
+                    packageName.setLength(packageNameLength);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                //没有权限或者循环的链接, 跳过
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                if (!dir.equals(root)) {
+                    nodeStack.pop();
+                    packageName.setLength(packageNameLengthStack.pop());
                 }
-                entry = jarIn.getNextJarEntry();
+                return FileVisitResult.CONTINUE;
             }
-            return nameList;
         }
 
-        private List<String> readFromDirectory(String path) {
-            File file = new File(path);
-            String[] names = file.list();
-            if (null == names) {
-                return Collections.emptyList();
+        private boolean existContains(URL url) {
+            if (excludes.isEmpty()) {
+                return false;
             }
-            return Arrays.asList(names);
+            //逐段比较路径, 不分割字符串
+            String path = url.getPath();
+            int length = path.length();
+            for (int begin = 0; begin <= length; ) {
+                int end = path.indexOf('/', begin);
+                if (end == -1) {
+                    end = length;
+                }
+                int segmentLength = end - begin;
+                for (String exclude : excludes) {
+                    if (exclude.length() == segmentLength && path.regionMatches(begin, exclude, 0, segmentLength)) {
+                        return true;
+                    }
+                }
+                begin = end + 1;
+            }
+            return false;
         }
 
         private boolean isClassFile(String name) {
@@ -1473,24 +3415,6 @@ public class ApplicationX {
             return fileUrl.substring(5, pos);
         }
 
-        /**
-         * "cn.fh.lightning" -> "cn/fh/lightning"
-         */
-        private String dotToSplash(String name) {
-            return name.replaceAll("\\.", "/");
-        }
-
-        /**
-         * "com/git/Apple.class" -> "com.git.Apple"
-         */
-        private String trimExtension(String name) {
-            int pos = name.indexOf('.');
-            if (-1 != pos) {
-                name = name.substring(0, pos);
-            }
-            return name.replace("/", ".");
-        }
-
         /**
          * /application/home -> /home
          */
@@ -1510,330 +3434,3723 @@ public class ApplicationX {
     }
 
     /**
-     * 参考 org.springframework.beans.factory.annotation.InjectionMetadata.InjectedElement
-     *
-     * @param <T> 成员
+     * 扫描包的前缀树. 节点是包名的一段, 例: com.example -> [com] -> [example].
+     * 匹配时不需要分割字符串, 也不会创建对象.
      */
-    public static class InjectElement<T extends Member> {
-        private static final String[] QUALIFIER_FIELDS = new String[]{"value", "name"};
-        /**
-         * 成员有[构造器,方法,字段] {@link Constructor,Method,Field}
-         */
-        private final T member;
-        /**
-         * 用于获取注入参数
-         */
-        private final ApplicationX applicationX;
+    public static class PackageTrie {
+        private final Node root = new Node("");
+        private final List<String> packagePaths = new ArrayList<>();
+
+        public PackageTrie(Collection<String> packageNames) {
+            for (String packageName : packageNames) {
+                add(packageName);
+            }
+        }
+
+        public void add(String packageName) {
+            Node node = root;
+            if (!packageName.isEmpty()) {
+                for (String segment : packageName.split("\\.")) {
+                    Node child = node.getChild(segment, 0, segment.length());
+                    if (child == null) {
+                        child = new Node(segment);
+                        node.children = Arrays.copyOf(node.children, node.children.length + 1);
+                        node.children[node.children.length - 1] = child;
+                    }
+                    node = child;
+                }
+            }
+            if (!node.isPackage) {
+                node.isPackage = true;
+                packagePaths.add(packageName.replace('.', '/'));
+            }
+        }
+
         /**
-         * 自动注入标记的注解
+         * 是否在扫描包下
+         *
+         * @param path      类的路径, 例: com/example/Foo.class
+         * @param separator 路径分隔符, 例: '/' 或 '.'
+         * @return true=在扫描包下
+         */
+        public boolean matches(String path, char separator) {
+            Node node = root;
+            int begin = 0;
+            while (!node.isPackage) {
+                int end = path.indexOf(separator, begin);
+                if (end == -1) {
+                    return false;
+                }
+                node = node.getChild(path, begin, end);
+                if (node == null) {
+                    return false;
+                }
+                begin = end + 1;
+            }
+            return true;
+        }
+
+        public boolean isEmpty() {
+            return packagePaths.isEmpty();
+        }
+
+        public Node getRoot() {
+            return root;
+        }
+
+        /**
+         * @return 扫描包的路径, 例: com/example
+         */
+        public List<String> getPackagePaths() {
+            return packagePaths;
+        }
+
+        @Override
+        public String toString() {
+            return "PackageTrie" + packagePaths;
+        }
+
+        public static class Node {
+            private static final Node[] EMPTY = {};
+            private final String segment;
+            private Node[] children = EMPTY;
+            private boolean isPackage;
+
+            private Node(String segment) {
+                this.segment = segment;
+            }
+
+            public Node getChild(String path, int begin, int end) {
+                int length = end - begin;
+                for (Node child : children) {
+                    if (child.segment.length() == length && path.regionMatches(begin, child.segment, 0, length)) {
+                        return child;
+                    }
+                }
+                return null;
+            }
+
+            /**
+             * @return true=这个节点是扫描包, 下面所有的类都需要扫描
+             */
+            public boolean isPackage() {
+                return isPackage;
+            }
+
+            @Override
+            public String toString() {
+                return segment;
+            }
+        }
+    }
+
+    /**
+     * 按照加载顺序记录类, 用于生成AppCDS的类列表(-XX:SharedClassListFile).
+     * 记录扫描加载的类, 创建的bean的类与它的字段和构造参数的类型, 父类与接口排在子类前面.
+     * 只记录启动类加载器, 扩展类加载器与系统类加载器加载的类, 自定义类加载器的类不能放在类列表中.
+     */
+    public static class ClassListRecorder {
+        private final Set<Class<?>> classes = new LinkedHashSet<>();
+        private final Set<ClassLoader> builtinClassLoaders = new HashSet<>();
+
+        public ClassListRecorder() {
+            for (ClassLoader loader = ClassLoader.getSystemClassLoader(); loader != null; loader = loader.getParent()) {
+                builtinClassLoaders.add(loader);
+            }
+        }
+
+        public synchronized void record(Class<?> clazz) {
+            while (clazz.isArray()) {
+                clazz = clazz.getComponentType();
+            }
+            if (clazz.isPrimitive() || classes.contains(clazz) || !isBuiltinClass(clazz)) {
+                return;
+            }
+            Class<?> superclass = clazz.getSuperclass();
+            if (superclass != null) {
+                record(superclass);
+            }
+            for (Class<?> interfaceClass : clazz.getInterfaces()) {
+                record(interfaceClass);
+            }
+            classes.add(clazz);
+        }
+
+        /**
+         * 记录bean的类, 与反射注入时会加载的字段和构造参数的类型
+         *
+         * @param beanClass bean的类
+         */
+        public void recordBean(Class<?> beanClass) {
+            record(beanClass);
+            try {
+                for (Class<?> clazz = beanClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+                    for (Field field : clazz.getDeclaredFields()) {
+                        record(field.getType());
+                    }
+                    for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+                        for (Class<?> parameterType : constructor.getParameterTypes()) {
+                            record(parameterType);
+                        }
+                    }
+                }
+            } catch (LinkageError e) {
+                //skip 缺少依赖的类
+            }
+        }
+
+        private boolean isBuiltinClass(Class<?> clazz) {
+            ClassLoader classLoader = clazz.getClassLoader();
+            if (classLoader != null && !builtinClassLoaders.contains(classLoader)) {
+                return false;
+            }
+            //lambda与动态代理的类不能放在类列表中
+            String name = clazz.getName();
+            return !name.contains("$$Lambda") && !name.startsWith("com.sun.proxy.") && !name.contains("$Proxy");
+        }
+
+        /**
+         * @return 按照加载顺序的类名, 例: com/example/Foo
+         */
+        public synchronized List<String> getClassList() {
+            List<String> classList = new ArrayList<>(classes.size());
+            for (Class<?> clazz : classes) {
+                classList.add(clazz.getName().replace('.', '/'));
+            }
+            return classList;
+        }
+    }
+
+    /**
+     * JDK9以上的模块. 源码需要兼容JDK8, 所以通过反射调用ModuleLayer, ModuleReference与ModuleReader.
+     */
+    public static class ModuleScanner {
+        private static final Method BOOT_LAYER = getMethod("java.lang.ModuleLayer", "boot");
+        private static final Method LAYER_CONFIGURATION = getMethod("java.lang.ModuleLayer", "configuration");
+        private static final Method LAYER_FIND_LOADER = getMethod("java.lang.ModuleLayer", "findLoader", String.class);
+        private static final Method CONFIGURATION_MODULES = getMethod("java.lang.module.Configuration", "modules");
+        private static final Method RESOLVED_MODULE_NAME = getMethod("java.lang.module.ResolvedModule", "name");
+        private static final Method RESOLVED_MODULE_REFERENCE = getMethod("java.lang.module.ResolvedModule", "reference");
+        private static final Method REFERENCE_LOCATION = getMethod("java.lang.module.ModuleReference", "location");
+        private static final Method REFERENCE_DESCRIPTOR = getMethod("java.lang.module.ModuleReference", "descriptor");
+        private static final Method REFERENCE_OPEN = getMethod("java.lang.module.ModuleReference", "open");
+        private static final Method DESCRIPTOR_PACKAGES = getMethod("java.lang.module.ModuleDescriptor", "packages");
+        private static final Method READER_LIST = getMethod("java.lang.module.ModuleReader", "list");
+        private static final boolean SUPPORTED = BOOT_LAYER != null && LAYER_CONFIGURATION != null && LAYER_FIND_LOADER != null
+                && CONFIGURATION_MODULES != null && RESOLVED_MODULE_NAME != null && RESOLVED_MODULE_REFERENCE != null
+                && REFERENCE_LOCATION != null && REFERENCE_DESCRIPTOR != null && REFERENCE_OPEN != null
+                && DESCRIPTOR_PACKAGES != null && READER_LIST != null;
+
+        private static Method getMethod(String className, String methodName, Class<?>... parameterTypes) {
+            try {
+                return Class.forName(className).getMethod(methodName, parameterTypes);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return true=JDK9以上, 支持模块
+         */
+        public static boolean isSupported() {
+            return SUPPORTED;
+        }
+
+        /**
+         * @return 启动模块层中的所有模块, 包括JDK自带的模块
+         */
+        public static List<NamedModule> getBootModules() {
+            if (!SUPPORTED) {
+                return Collections.emptyList();
+            }
+            try {
+                Object layer = BOOT_LAYER.invoke(null);
+                Set<?> resolvedModules = (Set<?>) CONFIGURATION_MODULES.invoke(LAYER_CONFIGURATION.invoke(layer));
+                List<NamedModule> modules = new ArrayList<>(resolvedModules.size());
+                for (Object resolvedModule : resolvedModules) {
+                    String name = (String) RESOLVED_MODULE_NAME.invoke(resolvedModule);
+                    modules.add(new NamedModule(name, RESOLVED_MODULE_REFERENCE.invoke(resolvedModule), layer));
+                }
+                return modules;
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("read boot module layer error=" + e, e);
+            }
+        }
+
+        public static class NamedModule {
+            private final String name;
+            private final Object reference;
+            private final Object layer;
+            private final URI location;
+
+            private NamedModule(String name, Object reference, Object layer) throws IllegalAccessException, InvocationTargetException {
+                this.name = name;
+                this.reference = reference;
+                this.layer = layer;
+                this.location = (URI) ((Optional<?>) REFERENCE_LOCATION.invoke(reference)).orElse(null);
+            }
+
+            public String getName() {
+                return name;
+            }
+
+            public URI getLocation() {
+                return location;
+            }
+
+            public URL getLocationUrl() {
+                try {
+                    return location == null ? null : location.toURL();
+                } catch (MalformedURLException | IllegalArgumentException e) {
+                    return null;
+                }
+            }
+
+            /**
+             * @return true=JDK自带的模块
+             */
+            public boolean isJdkModule() {
+                return location != null && "jrt".equals(location.getScheme());
+            }
+
+            /**
+             * 根据模块描述中的包判断模块中是否有扫描包下的类, 不需要打开模块
+             *
+             * @param rootPackages 扫描包
+             * @return true=有
+             */
+            public boolean containsPackage(Collection<String> rootPackages) {
+                Set<?> packages;
+                try {
+                    packages = (Set<?>) DESCRIPTOR_PACKAGES.invoke(REFERENCE_DESCRIPTOR.invoke(reference));
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    return true;
+                }
+                for (Object each : packages) {
+                    String packageName = (String) each;
+                    for (String rootPackage : rootPackages) {
+                        if (rootPackage.isEmpty() || packageName.equals(rootPackage)
+                                || (packageName.startsWith(rootPackage) && packageName.charAt(rootPackage.length()) == '.')) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+
+            /**
+             * @return 定义这个模块的类加载器, null=启动类加载器
+             */
+            public ClassLoader getClassLoader() {
+                try {
+                    return (ClassLoader) LAYER_FIND_LOADER.invoke(layer, name);
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    return null;
+                }
+            }
+
+            /**
+             * 通过ModuleReader列出模块中扫描包下的类
+             *
+             * @param packageTrie   需要扫描的包
+             * @param classConsumer 接收类名, url是null
+             * @throws IOException 读取异常
+             */
+            public void list(PackageTrie packageTrie, BiConsumer<URL, String> classConsumer) throws IOException {
+                try (Closeable reader = openReader();
+                     Stream<?> stream = (Stream<?>) READER_LIST.invoke(reader)) {
+                    stream.map(String.class::cast)
+                            .filter(resource -> resource.endsWith(".class") && !resource.endsWith("module-info.class")
+                                    && packageTrie.matches(resource, '/'))
+                            .forEach(resource -> classConsumer.accept(null, resource.substring(0, resource.length() - ".class".length()).replace('/', '.')));
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    throw new IOException("list module error. module=" + name + ",error=" + e, e);
+                }
+            }
+
+            private Closeable openReader() throws IOException {
+                try {
+                    return (Closeable) REFERENCE_OPEN.invoke(reference);
+                } catch (IllegalAccessException e) {
+                    throw new IOException("open module error. module=" + name + ",error=" + e, e);
+                } catch (InvocationTargetException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException ? (IOException) cause : new IOException("open module error. module=" + name + ",error=" + cause, cause);
+                }
+            }
+
+            @Override
+            public String toString() {
+                return name + (location == null ? "" : " @ " + location);
+            }
+        }
+    }
+
+    /**
+     * 直接读取内存中的zip文件, 可以是内存映射的文件, 也可以是jar包中的jar包的切片.
+     * 只解析中央目录, 读取条目数据时, 存储(STORED)的条目返回切片不复制, 压缩(DEFLATED)的条目解压.
+     * 支持zip64, 单个zip文件不能超过2GB.
+     */
+    public static class ZipArchive implements Closeable {
+        private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+        private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+        private static final int END_SIGNATURE = 0x06054b50;
+        private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+        private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+        private static final int METHOD_STORED = 0;
+        private static final int METHOD_DEFLATED = 8;
+        private final ByteBuffer buffer;
+        private final int centralDirectoryOffset;
+        private final int centralDirectorySize;
+        private final int entryCount;
+        //内层jar包的数据在外层jar包的映射中, 外层关闭后都不能再读取
+        private final ZipArchive root;
+        //open(File)映射的原始buffer, 关闭时释放. 只有原始buffer可以释放, duplicate与slice不行
+        private final ByteBuffer mappedBuffer;
+        private volatile Map<String, Entry> entryMap;
+        private volatile boolean closed;
+
+        public ZipArchive(ByteBuffer buffer) throws IOException {
+            this(buffer, null, null);
+        }
+
+        private ZipArchive(ByteBuffer buffer, ZipArchive root, ByteBuffer mappedBuffer) throws IOException {
+            this.root = root == null ? this : root;
+            this.mappedBuffer = mappedBuffer;
+            this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int end = findEnd();
+            long entryCount = this.buffer.getShort(end + 10) & 0xFFFF;
+            long centralDirectorySize = this.buffer.getInt(end + 12) & 0xFFFFFFFFL;
+            long centralDirectoryOffset = this.buffer.getInt(end + 16) & 0xFFFFFFFFL;
+            //zip64的中央目录结束标记在定位器中
+            if ((entryCount == 0xFFFF || centralDirectoryOffset == 0xFFFFFFFFL || centralDirectorySize == 0xFFFFFFFFL)
+                    && end >= 20 && this.buffer.getInt(end - 20) == ZIP64_LOCATOR_SIGNATURE) {
+                long zip64End = this.buffer.getLong(end - 20 + 8);
+                if (zip64End < 0 || zip64End > this.buffer.limit() - 56 || this.buffer.getInt((int) zip64End) != ZIP64_END_SIGNATURE) {
+                    throw new IOException("invalid zip64 end of central directory");
+                }
+                entryCount = this.buffer.getLong((int) zip64End + 32);
+                centralDirectorySize = this.buffer.getLong((int) zip64End + 40);
+                centralDirectoryOffset = this.buffer.getLong((int) zip64End + 48);
+            }
+            if (centralDirectoryOffset + centralDirectorySize > this.buffer.limit() || entryCount > Integer.MAX_VALUE) {
+                throw new IOException("invalid zip central directory. offset=" + centralDirectoryOffset + ",size=" + centralDirectorySize);
+            }
+            this.centralDirectoryOffset = (int) centralDirectoryOffset;
+            this.centralDirectorySize = (int) centralDirectorySize;
+            this.entryCount = (int) entryCount;
+        }
+
+        public static ZipArchive open(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("zip file is too large. file=" + file + ",size=" + size);
+                }
+                //关闭channel后映射仍然有效, 映射在close()或buffer被回收时释放
+                MappedByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                return new ZipArchive(mappedBuffer, null, mappedBuffer);
+            }
+        }
+
+        /**
+         * 释放open(File)的映射, 之后这个jar包与其中打开的内层jar包都不能再读取. 释放不了时等待buffer被回收
+         */
+        @Override
+        public void close() {
+            if (root != this) {
+                return;
+            }
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            if (mappedBuffer != null) {
+                unmap(mappedBuffer);
+            }
+        }
+
+        public boolean isClosed() {
+            return root.closed;
+        }
+
+        private void ensureOpen() throws IOException {
+            //释放映射后再访问会使JVM崩溃, 所以要先检查
+            if (root.closed) {
+                throw new IOException("zip archive is closed");
+            }
+        }
+
+        private static void unmap(ByteBuffer buffer) {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner;
+                try {
+                    invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                } catch (NoSuchMethodException e) {
+                    //JDK8
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    }
+                    return;
+                }
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                //skip 释放不了时等待buffer被回收
+            }
+        }
+
+        private int findEnd() throws IOException {
+            //中央目录结束标记(22字节) + 注释(最多65535字节)
+            int limit = buffer.limit();
+            for (int i = limit - 22, min = Math.max(0, limit - 22 - 0xFFFF); i >= min; i--) {
+                if (buffer.getInt(i) == END_SIGNATURE) {
+                    return i;
+                }
+            }
+            throw new IOException("not a zip file. end of central directory not found");
+        }
+
+        public int getCentralDirectorySize() {
+            return centralDirectorySize;
+        }
+
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        public void forEachEntry(Consumer<Entry> consumer) throws IOException {
+            ensureOpen();
+            byte[] nameBuffer = new byte[256];
+            int position = centralDirectoryOffset;
+            for (int i = 0; i < entryCount; i++) {
+                if (buffer.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                    throw new IOException("invalid zip central directory header. position=" + position);
+                }
+                int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+                int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+                int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+                if (nameBuffer.length < nameLength) {
+                    nameBuffer = new byte[nameLength];
+                }
+                ByteBuffer nameSlice = buffer.duplicate();
+                nameSlice.position(position + 46);
+                nameSlice.get(nameBuffer, 0, nameLength);
+                String name = new String(nameBuffer, 0, nameLength, StandardCharsets.UTF_8);
+
+                long compressedSize = buffer.getInt(position + 20) & 0xFFFFFFFFL;
+                long size = buffer.getInt(position + 24) & 0xFFFFFFFFL;
+                long localHeaderOffset = buffer.getInt(position + 42) & 0xFFFFFFFFL;
+                //zip64扩展字段, 只包含值为0xFFFFFFFF的字段, 顺序是: 原始大小, 压缩大小, 本地头偏移
+                for (int extra = position + 46 + nameLength, extraEnd = extra + extraLength; extra + 4 <= extraEnd; ) {
+                    int headerId = buffer.getShort(extra) & 0xFFFF;
+                    int dataSize = buffer.getShort(extra + 2) & 0xFFFF;
+                    if (headerId == 0x0001) {
+                        int field = extra + 4;
+                        if (size == 0xFFFFFFFFL) {
+                            size = buffer.getLong(field);
+                            field += 8;
+                        }
+                        if (compressedSize == 0xFFFFFFFFL) {
+                            compressedSize = buffer.getLong(field);
+                            field += 8;
+                        }
+                        if (localHeaderOffset == 0xFFFFFFFFL) {
+                            localHeaderOffset = buffer.getLong(field);
+                        }
+                        break;
+                    }
+                    extra += 4 + dataSize;
+                }
+                consumer.accept(new Entry(name, buffer.getShort(position + 10) & 0xFFFF, compressedSize, size, localHeaderOffset));
+                position += 46 + nameLength + extraLength + commentLength;
+            }
+        }
+
+        /**
+         * 按名称查找条目. 第一次查找时遍历一次中央目录, 建立名称与条目的映射, 之后直接查找
+         *
+         * @param name 条目名称
+         * @return 条目, 不存在时返回null
+         * @throws IOException 读取异常
+         */
+        public Entry getEntry(String name) throws IOException {
+            ensureOpen();
+            Map<String, Entry> entryMap = this.entryMap;
+            if (entryMap == null) {
+                synchronized (this) {
+                    entryMap = this.entryMap;
+                    if (entryMap == null) {
+                        Map<String, Entry> map = new HashMap<>((int) (entryCount / 0.75F) + 1);
+                        //名称重复时与遍历一致, 取第一个
+                        forEachEntry(entry -> map.putIfAbsent(entry.name, entry));
+                        this.entryMap = entryMap = map;
+                    }
+                }
+            }
+            return entryMap.get(name);
+        }
+
+        /**
+         * 获取条目的数据. 存储的条目返回切片, 压缩的条目解压到内存
+         *
+         * @param entry 条目
+         * @return 数据
+         * @throws IOException 不支持的压缩方法或数据损坏
+         */
+        public ByteBuffer getData(Entry entry) throws IOException {
+            ensureOpen();
+            int localHeader = (int) entry.localHeaderOffset;
+            if (entry.localHeaderOffset > buffer.limit() - 30 || buffer.getInt(localHeader) != LOCAL_HEADER_SIGNATURE) {
+                throw new IOException("invalid zip local header. entry=" + entry.name);
+            }
+            long dataOffset = localHeader + 30L + (buffer.getShort(localHeader + 26) & 0xFFFF) + (buffer.getShort(localHeader + 28) & 0xFFFF);
+            if (dataOffset + entry.compressedSize > buffer.limit()) {
+                throw new IOException("invalid zip entry size. entry=" + entry.name);
+            }
+            ByteBuffer data = buffer.duplicate();
+            data.position((int) dataOffset);
+            data.limit((int) (dataOffset + entry.compressedSize));
+            if (entry.method == METHOD_STORED) {
+                return data.slice();
+            }
+            if (entry.method != METHOD_DEFLATED || entry.size > Integer.MAX_VALUE) {
+                throw new IOException("unsupported zip entry. entry=" + entry.name + ",method=" + entry.method + ",size=" + entry.size);
+            }
+            byte[] input = new byte[(int) entry.compressedSize];
+            data.get(input);
+            byte[] output = new byte[(int) entry.size];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(input);
+                int length = 0;
+                while (length < output.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(output, length, output.length - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != output.length) {
+                    throw new IOException("invalid zip entry data. entry=" + entry.name);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("invalid zip entry data. entry=" + entry.name + ",error=" + e, e);
+            } finally {
+                inflater.end();
+            }
+            return ByteBuffer.wrap(output);
+        }
+
+        /**
+         * 打开jar包中的jar包
+         *
+         * @param entry 内层jar包的条目
+         * @return 内层jar包
+         * @throws IOException 读取异常
+         */
+        public ZipArchive openNested(Entry entry) throws IOException {
+            return new ZipArchive(getData(entry), root, null);
+        }
+
+        public static class Entry {
+            private final String name;
+            private final int method;
+            private final long compressedSize;
+            private final long size;
+            private final long localHeaderOffset;
+
+            private Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+                this.name = name;
+                this.method = method;
+                this.compressedSize = compressedSize;
+                this.size = size;
+                this.localHeaderOffset = localHeaderOffset;
+            }
+
+            public String getName() {
+                return name;
+            }
+
+            public boolean isStored() {
+                return method == METHOD_STORED;
+            }
+
+            public long getSize() {
+                return size;
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        }
+    }
+
+    /**
+     * 类名的匹配规则. 规则按包名分段编译成前缀树, 只编译一次, 匹配时不会创建对象.
+     * <p>
+     * '*'匹配一段中的任意字符(不包括'.'), '?'匹配一段中的一个字符, 单独一段'**'匹配任意段(包括0段).
+     * 例: com.example.**.internal.* 匹配 com.example.internal.Foo 与 com.example.a.b.internal.Foo
+     * 结尾的'**'也可以匹配0段, 所以 com.example.** 也匹配 com.example 本身.
+     */
+    public static class ClassNameMatcher {
+        private final Node root = new Node("");
+        private final List<String> patterns = new ArrayList<>();
+
+        public ClassNameMatcher(Collection<String> patterns) {
+            for (String pattern : patterns) {
+                add(pattern);
+            }
+        }
+
+        private void add(String pattern) {
+            Node node = root;
+            for (String segment : pattern.split("\\.")) {
+                Node child = null;
+                for (Node each : node.children) {
+                    if (each.segment.equals(segment)) {
+                        child = each;
+                        break;
+                    }
+                }
+                if (child == null) {
+                    child = new Node(segment);
+                    node.children = Arrays.copyOf(node.children, node.children.length + 1);
+                    node.children[node.children.length - 1] = child;
+                }
+                node = child;
+            }
+            node.terminal = true;
+            patterns.add(pattern);
+        }
+
+        public boolean isEmpty() {
+            return patterns.isEmpty();
+        }
+
+        public List<String> getPatterns() {
+            return Collections.unmodifiableList(patterns);
+        }
+
+        public boolean matches(String className) {
+            return !patterns.isEmpty() && matches(root, className, 0);
+        }
+
+        /**
+         * @param node      已经匹配的节点
+         * @param className 类名
+         * @param begin     下一段的开始位置, 大于类名长度时说明已经全部匹配
+         * @return true=匹配
+         */
+        private static boolean matches(Node node, String className, int begin) {
+            int length = className.length();
+            if (begin > length) {
+                if (node.terminal) {
+                    return true;
+                }
+                for (Node child : node.children) {
+                    if (child.anySegments && matches(child, className, begin)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            int end = className.indexOf('.', begin);
+            if (end == -1) {
+                end = length;
+            }
+            for (Node child : node.children) {
+                if (child.anySegments) {
+                    //依次尝试**匹配0段,1段,2段...
+                    for (int next = begin; ; ) {
+                        if (matches(child, className, next)) {
+                            return true;
+                        }
+                        if (next > length) {
+                            break;
+                        }
+                        int nextEnd = className.indexOf('.', next);
+                        next = nextEnd == -1 ? length + 1 : nextEnd + 1;
+                    }
+                } else if (child.wildcard) {
+                    if (matchesSegment(child.segment, className, begin, end) && matches(child, className, end + 1)) {
+                        return true;
+                    }
+                } else if (child.segment.length() == end - begin
+                        && className.regionMatches(begin, child.segment, 0, end - begin)
+                        && matches(child, className, end + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 一段的通配符匹配, 遇到'*'时记录位置, 不匹配时回退
+         */
+        private static boolean matchesSegment(String pattern, String className, int begin, int end) {
+            int p = 0;
+            int c = begin;
+            int starP = -1;
+            int starC = -1;
+            while (c < end) {
+                if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == className.charAt(c))) {
+                    p++;
+                    c++;
+                } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                    starP = p++;
+                    starC = c;
+                } else if (starP != -1) {
+                    p = starP + 1;
+                    c = ++starC;
+                } else {
+                    return false;
+                }
+            }
+            while (p < pattern.length() && pattern.charAt(p) == '*') {
+                p++;
+            }
+            return p == pattern.length();
+        }
+
+        @Override
+        public String toString() {
+            return "ClassNameMatcher" + patterns;
+        }
+
+        private static class Node {
+            private static final Node[] EMPTY = {};
+            private final String segment;
+            private final boolean anySegments;
+            private final boolean wildcard;
+            private Node[] children = EMPTY;
+            private boolean terminal;
+
+            private Node(String segment) {
+                this.segment = segment;
+                this.anySegments = "**".equals(segment);
+                this.wildcard = segment.indexOf('*') != -1 || segment.indexOf('?') != -1;
+            }
+        }
+    }
+
+    /**
+     * 扫描的统计数据. 每个类路径(jar包或目录)一份, 同时累加到汇总的统计数据中.
+     * 时间单位是纳秒, 并行扫描时是多个线程的时间之和.
+     */
+    public static class ScanStatistics {
+        private final URL url;
+        private final ScanStatistics parent;
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong entryCount = new AtomicLong();
+        private final AtomicLong classCount = new AtomicLong();
+        private final AtomicLong loadCount = new AtomicLong();
+        private final AtomicLong candidateCount = new AtomicLong();
+        private final AtomicLong ioNanos = new AtomicLong();
+        private final AtomicLong loadNanos = new AtomicLong();
+
+        public ScanStatistics() {
+            this(null, null);
+        }
+
+        public ScanStatistics(URL url, ScanStatistics parent) {
+            this.url = url;
+            this.parent = parent;
+        }
+
+        void addEntryCount() {
+            entryCount.incrementAndGet();
+            if (parent != null) {
+                parent.addEntryCount();
+            }
+        }
+
+        void addClassCount() {
+            classCount.incrementAndGet();
+            if (parent != null) {
+                parent.addClassCount();
+            }
+        }
+
+        void addCandidateCount() {
+            candidateCount.incrementAndGet();
+            if (parent != null) {
+                parent.addCandidateCount();
+            }
+        }
+
+        void addIo(long bytes, long nanos) {
+            bytesRead.addAndGet(bytes);
+            ioNanos.addAndGet(nanos);
+            if (parent != null) {
+                parent.addIo(bytes, nanos);
+            }
+        }
+
+        void addLoad(long nanos) {
+            loadCount.incrementAndGet();
+            loadNanos.addAndGet(nanos);
+            if (parent != null) {
+                parent.addLoad(nanos);
+            }
+        }
+
+        /**
+         * @return 类路径, 汇总的统计数据是null
+         */
+        public URL getUrl() {
+            return url;
+        }
+
+        public long getBytesRead() {
+            return bytesRead.get();
+        }
+
+        /**
+         * @return 访问的jar包条目与目录条目的数量
+         */
+        public long getEntryCount() {
+            return entryCount.get();
+        }
+
+        /**
+         * @return 扫描到的类的数量
+         */
+        public long getClassCount() {
+            return classCount.get();
+        }
+
+        /**
+         * @return 调用Class.forName加载的类的数量
+         */
+        public long getLoadCount() {
+            return loadCount.get();
+        }
+
+        /**
+         * @return 生成了BeanDefinition的类的数量
+         */
+        public long getCandidateCount() {
+            return candidateCount.get();
+        }
+
+        /**
+         * @return 读取jar包, 目录与class文件的时间
+         */
+        public long getIoNanos() {
+            return ioNanos.get();
+        }
+
+        /**
+         * @return Class.forName的时间
+         */
+        public long getLoadNanos() {
+            return loadNanos.get();
+        }
+
+        public String toJson() {
+            return "{\"url\":" + (url == null ? "null" : "\"" + escapeJson(url.toString()) + "\"") +
+                    ",\"entryCount\":" + entryCount +
+                    ",\"classCount\":" + classCount +
+                    ",\"loadCount\":" + loadCount +
+                    ",\"candidateCount\":" + candidateCount +
+                    ",\"bytesRead\":" + bytesRead +
+                    ",\"ioNanos\":" + ioNanos +
+                    ",\"loadNanos\":" + loadNanos +
+                    '}';
+        }
+
+        private static String escapeJson(String value) {
+            StringBuilder builder = new StringBuilder(value.length() + 8);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    builder.append('\\').append(c);
+                } else if (c < 0x20) {
+                    builder.append(String.format("\\u%04x", (int) c));
+                } else {
+                    builder.append(c);
+                }
+            }
+            return builder.toString();
+        }
+
+        @Override
+        public String toString() {
+            return "ScanStatistics{" +
+                    "url=" + url +
+                    ", entryCount=" + entryCount +
+                    ", classCount=" + classCount +
+                    ", loadCount=" + loadCount +
+                    ", candidateCount=" + candidateCount +
+                    ", bytesRead=" + bytesRead +
+                    ", ioNanos=" + ioNanos +
+                    ", loadNanos=" + loadNanos +
+                    '}';
+        }
+    }
+
+    /**
+     * 热加载的类加载器. 需要重新加载的类(包括它的内部类)先从自己的目录中加载, 其他的类交给父加载器.
+     * 每次热加载创建一个新的, 父加载器是上一次热加载的类加载器, 这样没有变化的类仍然使用上次加载的.
+     */
+    public static class ReloadClassLoader extends URLClassLoader {
+        private final Set<String> classNames;
+
+        public ReloadClassLoader(URL[] urls, Set<String> classNames, ClassLoader parent) {
+            super(urls, parent);
+            this.classNames = new HashSet<>(classNames);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!isReloadClass(name)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> clazz = findLoadedClass(name);
+                if (clazz == null) {
+                    try {
+                        clazz = findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        //不在监听的目录中, 例如jar包中的类
+                        return super.loadClass(name, resolve);
+                    }
+                }
+                if (resolve) {
+                    resolveClass(clazz);
+                }
+                return clazz;
+            }
+        }
+
+        public boolean isReloadClass(String className) {
+            if (classNames.contains(className)) {
+                return true;
+            }
+            int index = className.indexOf('$');
+            return index > 0 && classNames.contains(className.substring(0, index));
+        }
+
+        public Set<String> getClassNames() {
+            return Collections.unmodifiableSet(classNames);
+        }
+    }
+
+    /**
+     * 监听类路径中的目录, class文件变化后调用{@link #reload(ClassLoader, Collection, Collection, Collection)}.
+     * 只监听扫描包路径上的目录. 一次编译会修改很多文件, 所以收到通知后会等待一段时间({@link #setDelayMillis(long)})没有新的变化, 再一起热加载.
+     */
+    public static class ClassWatcher implements Closeable {
+        private static final AtomicInteger ID_INCR = new AtomicInteger();
+        private final ApplicationX applicationX;
+        private final PackageTrie packageTrie;
+        private final WatchService watchService;
+        private final Map<WatchKey, WatchDirectory> watchDirectoryMap = new ConcurrentHashMap<>();
+        private final Map<ClassLoader, Set<URL>> classLoaderUrlMap = new LinkedHashMap<>();
+        private final Thread thread;
+        private volatile long delayMillis = 200;
+        private volatile boolean started;
+        private volatile boolean closed;
+        private volatile Consumer<Set<String>> reloadListener;
+        private volatile Consumer<Throwable> errorListener;
+
+        public ClassWatcher(ApplicationX applicationX, PackageTrie packageTrie) throws IOException {
+            this.applicationX = Objects.requireNonNull(applicationX);
+            this.packageTrie = Objects.requireNonNull(packageTrie);
+            this.watchService = FileSystems.getDefault().newWatchService();
+            this.thread = new Thread(this::run, "app.classWatcher-" + ID_INCR.getAndIncrement());
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * 监听一个类路径目录
+         *
+         * @param url         类路径
+         * @param root        类路径的目录
+         * @param classLoader 扫描时的类加载器
+         * @throws IOException 注册失败
+         */
+        public void register(URL url, Path root, ClassLoader classLoader) throws IOException {
+            synchronized (classLoaderUrlMap) {
+                classLoaderUrlMap.computeIfAbsent(classLoader, k -> new LinkedHashSet<>()).add(url);
+            }
+            registerDirectory(new WatchDirectory(url, root, root, classLoader), null);
+        }
+
+        /**
+         * 开始监听. 监听期间容器会记录bean之间的依赖关系, 关闭后停止记录
+         */
+        public void start() {
+            applicationX.startDependentBeanRecording();
+            started = true;
+            thread.start();
+        }
+
+        public long getDelayMillis() {
+            return delayMillis;
+        }
+
+        /**
+         * 收到变化后, 等待多久没有新的变化再热加载
+         *
+         * @param delayMillis 毫秒
+         */
+        public void setDelayMillis(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        /**
+         * 每次热加载后通知重新创建的bean名称
+         *
+         * @param reloadListener 监听
+         */
+        public void setReloadListener(Consumer<Set<String>> reloadListener) {
+            this.reloadListener = reloadListener;
+        }
+
+        /**
+         * 热加载失败时通知异常, 之后继续监听. 没有设置时交给监听线程的{@link Thread.UncaughtExceptionHandler}
+         *
+         * @param errorListener 监听
+         */
+        public void setErrorListener(Consumer<Throwable> errorListener) {
+            this.errorListener = errorListener;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            if (started) {
+                applicationX.stopDependentBeanRecording();
+            }
+            thread.interrupt();
+            watchService.close();
+        }
+
+        private void run() {
+            while (!closed) {
+                Map<ClassLoader, ClassChanges> changesMap = new LinkedHashMap<>();
+                try {
+                    WatchKey key = watchService.take();
+                    do {
+                        handleKey(key, changesMap);
+                        key = watchService.poll(delayMillis, TimeUnit.MILLISECONDS);
+                    } while (key != null);
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    return;
+                }
+                for (Map.Entry<ClassLoader, ClassChanges> entry : changesMap.entrySet()) {
+                    ClassLoader classLoader = entry.getKey();
+                    ClassChanges changes = entry.getValue();
+                    if (changes.isEmpty()) {
+                        continue;
+                    }
+                    Set<URL> urls;
+                    synchronized (classLoaderUrlMap) {
+                        urls = new LinkedHashSet<>(classLoaderUrlMap.get(classLoader));
+                    }
+                    try {
+                        Set<String> beanNames = applicationX.reload(classLoader, urls, changes.changedClassNames, changes.deletedClassNames);
+                        Consumer<Set<String>> listener = reloadListener;
+                        if (listener != null) {
+                            listener.accept(beanNames);
+                        }
+                    } catch (RuntimeException | LinkageError e) {
+                        onError(e);
+                    }
+                }
+            }
+        }
+
+        private void onError(Throwable error) {
+            Consumer<Throwable> listener = errorListener;
+            try {
+                if (listener != null) {
+                    listener.accept(error);
+                } else {
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, error);
+                }
+            } catch (RuntimeException e) {
+                //skip 监听自己的异常不能停止监听
+            }
+        }
+
+        private void handleKey(WatchKey key, Map<ClassLoader, ClassChanges> changesMap) {
+            WatchDirectory directory = watchDirectoryMap.get(key);
+            if (directory == null) {
+                key.cancel();
+                return;
+            }
+            ClassChanges changes = changesMap.computeIfAbsent(directory.classLoader, k -> new ClassChanges());
+            for (WatchEvent<?> event : key.pollEvents()) {
+                WatchEvent.Kind<?> kind = event.kind();
+                if (kind == StandardWatchEventKinds.OVERFLOW) {
+                    //丢失了事件, 这个目录下的类都当做修改了
+                    addClassFiles(directory, directory.path, changes);
+                    continue;
+                }
+                Path path = directory.path.resolve((Path) event.context());
+                if (kind == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    try {
+                        registerDirectory(new WatchDirectory(directory.url, directory.root, path, directory.classLoader), changes);
+                    } catch (IOException e) {
+                        //skip 目录已经被删除
+                    }
+                    continue;
+                }
+                String className = toClassName(directory.root, path);
+                if (className == null) {
+                    continue;
+                }
+                if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                    changes.changedClassNames.remove(className);
+                    changes.deletedClassNames.add(className);
+                } else {
+                    changes.deletedClassNames.remove(className);
+                    changes.changedClassNames.add(className);
+                }
+            }
+            if (!key.reset()) {
+                watchDirectoryMap.remove(key);
+            }
+        }
+
+        /**
+         * 注册目录与它下面扫描包路径上的子目录
+         *
+         * @param directory 目录
+         * @param changes   不为null时, 目录中已有的类都当做新增的类
+         * @throws IOException 注册失败
+         */
+        private void registerDirectory(WatchDirectory directory, ClassChanges changes) throws IOException {
+            Files.walkFileTree(directory.path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (!isWatchDirectory(directory.root, dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                    watchDirectoryMap.put(key, new WatchDirectory(directory.url, directory.root, dir, directory.classLoader));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (changes != null) {
+                        String className = toClassName(directory.root, file);
+                        if (className != null) {
+                            changes.deletedClassNames.remove(className);
+                            changes.changedClassNames.add(className);
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        private void addClassFiles(WatchDirectory directory, Path dir, ClassChanges changes) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path path : stream) {
+                    String className = toClassName(directory.root, path);
+                    if (className != null) {
+                        changes.deletedClassNames.remove(className);
+                        changes.changedClassNames.add(className);
+                    }
+                }
+            } catch (IOException e) {
+                //skip
+            }
+        }
+
+        private boolean isWatchDirectory(Path root, Path dir) {
+            if (dir.equals(root)) {
+                return true;
+            }
+            PackageTrie.Node node = packageTrie.getRoot();
+            for (Path segment : root.relativize(dir)) {
+                if (node.isPackage()) {
+                    return true;
+                }
+                String name = segment.toString();
+                node = node.getChild(name, 0, name.length());
+                if (node == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String toClassName(Path root, Path file) {
+            String path = root.relativize(file).toString().replace(File.separatorChar, '/');
+            if (!path.endsWith(".class") || !packageTrie.matches(path, '/')) {
+                return null;
+            }
+            return path.substring(0, path.length() - ".class".length()).replace('/', '.');
+        }
+
+        private static class WatchDirectory {
+            private final URL url;
+            private final Path root;
+            private final Path path;
+            private final ClassLoader classLoader;
+
+            private WatchDirectory(URL url, Path root, Path path, ClassLoader classLoader) {
+                this.url = url;
+                this.root = root;
+                this.path = path;
+                this.classLoader = classLoader;
+            }
+        }
+
+        private static class ClassChanges {
+            private final Set<String> changedClassNames = new LinkedHashSet<>();
+            private final Set<String> deletedClassNames = new LinkedHashSet<>();
+
+            private boolean isEmpty() {
+                return changedClassNames.isEmpty() && deletedClassNames.isEmpty();
+            }
+        }
+    }
+
+    /**
+     * 并行扫描.
+     * 生产者: 每个jar包或目录是一个任务, 在ForkJoinPool中读取类名.
+     * 消费者: 从有界队列中取出类名, 交给这个jar包或目录的classConsumer加载类与生成BeanDefinition.
+     * 队列满时生产者阻塞, 队列空时消费者阻塞, 阻塞通过{@link ForkJoinPool#managedBlock}通知线程池补偿线程.
+     */
+    public static class ParallelScanner {
+        private static final AtomicInteger POOL_ID_INCR = new AtomicInteger();
+        private static final Runnable END = () -> {
+        };
+        private final int parallelism;
+        private final int queueCapacity;
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        public ParallelScanner(int parallelism, int queueCapacity) {
+            this.parallelism = Math.max(1, parallelism);
+            this.queueCapacity = Math.max(1, queueCapacity);
+        }
+
+        /**
+         * 并行扫描
+         *
+         * @param urls            类路径(jar包或目录)
+         * @param urlScanner      读取一个类路径中的类名
+         * @param consumerFactory 根据类路径创建处理类名的classConsumer
+         * @throws IllegalStateException 扫描异常
+         */
+        public void scan(Collection<URL> urls, UrlScanner urlScanner, Function<URL, BiConsumer<URL, String>> consumerFactory) throws IllegalStateException {
+            int poolId = POOL_ID_INCR.getAndIncrement();
+            AtomicInteger threadIdIncr = new AtomicInteger();
+            ForkJoinPool pool = new ScannerPool(parallelism, p -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                thread.setName("app.scanner-" + poolId + "-" + threadIdIncr.getAndIncrement());
+                return thread;
+            });
+            BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(queueCapacity);
+            try {
+                List<ForkJoinTask<?>> consumers = new ArrayList<>(parallelism);
+                for (int i = 0; i < parallelism; i++) {
+                    consumers.add(pool.submit(() -> consume(queue)));
+                }
+                List<ForkJoinTask<?>> producers = new ArrayList<>(urls.size());
+                for (URL url : urls) {
+                    producers.add(pool.submit(() -> produce(url, urlScanner, consumerFactory.apply(url), queue)));
+                }
+                for (ForkJoinTask<?> producer : producers) {
+                    producer.quietlyJoin();
+                }
+                for (int i = 0; i < parallelism; i++) {
+                    put(queue, END);
+                }
+                for (ForkJoinTask<?> consumer : consumers) {
+                    consumer.quietlyJoin();
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+            Throwable throwable = error.get();
+            if (throwable instanceof RuntimeException) {
+                throw (RuntimeException) throwable;
+            } else if (throwable instanceof Error) {
+                throw (Error) throwable;
+            } else if (throwable != null) {
+                throw new IllegalStateException("parallel scanner error=" + throwable, throwable);
+            }
+        }
+
+        private void produce(URL url, UrlScanner urlScanner, BiConsumer<URL, String> classConsumer, BlockingQueue<Runnable> queue) {
+            if (error.get() != null) {
+                return;
+            }
+            try {
+                boolean readClassFile = classConsumer instanceof ClassFileConsumer;
+                urlScanner.scan(url, (ClassFileConsumer) (classUrl, className, classFile) -> {
+                    if (error.get() == null) {
+                        //生产者扫描完后jar包会关闭, 所以在这里读取class文件
+                        ClassFile bytesClassFile = readClassFile && classFile != null ? readClassFile(classFile) : null;
+                        put(queue, () -> ClassFileConsumer.accept(classConsumer, classUrl, className, bytesClassFile));
+                    }
+                });
+            } catch (IOException e) {
+                error.compareAndSet(null, new IllegalStateException("scanner error. url=" + url + ",error=" + e, e));
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            }
+        }
+
+        /**
+         * 并行扫描的线程池, 扫描目录时只在这个线程池中拆分子目录
+         */
+        private static class ScannerPool extends ForkJoinPool {
+            private ScannerPool(int parallelism, ForkJoinWorkerThreadFactory factory) {
+                super(parallelism, factory, null, false);
+            }
+        }
+
+        private static ClassFile readClassFile(ClassFile classFile) {
+            byte[] bytes;
+            try {
+                bytes = classFile.read();
+            } catch (IOException e) {
+                //读不到时通过类加载器读取
+                return null;
+            }
+            return () -> bytes;
+        }
+
+        private void consume(BlockingQueue<Runnable> queue) {
+            Runnable task;
+            while ((task = take(queue)) != END) {
+                //出错后继续取出队列中的数据, 防止生产者一直阻塞
+                if (error.get() != null) {
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }
+        }
+
+        private static <E> void put(BlockingQueue<E> queue, E element) {
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    private boolean done;
+
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        if (!done) {
+                            queue.put(element);
+                            done = true;
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        return done || (done = queue.offer(element));
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("parallel scanner interrupted", e);
+            }
+        }
+
+        private static <E> E take(BlockingQueue<E> queue) {
+            AtomicReference<E> ref = new AtomicReference<>();
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        if (ref.get() == null) {
+                            ref.set(queue.take());
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        if (ref.get() == null) {
+                            ref.set(queue.poll());
+                        }
+                        return ref.get() != null;
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("parallel scanner interrupted", e);
+            }
+            return ref.get();
+        }
+    }
+
+    /**
+     * 按依赖关系并行创建单例.
+     * 依赖关系是一个有向图, 一个bean依赖的bean都创建完后, 才在ForkJoinPool中创建它. 互不依赖的bean同时创建,
+     * 总耗时接近依赖链上最长的那条路径, 而不是所有bean的耗时之和.
+     * 有循环依赖的bean(与依赖它们的bean), 在并行创建完后, 在调用线程中按顺序创建.
+     */
+    public static class ParallelInstantiator {
+        private static final AtomicInteger POOL_ID_INCR = new AtomicInteger();
+        private final int parallelism;
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        public ParallelInstantiator(int parallelism) {
+            this.parallelism = Math.max(1, parallelism);
+        }
+
+        /**
+         * 并行创建
+         *
+         * @param dependencyGraph bean名称与它依赖的bean名称的关系, 依赖的bean名称必须也是这个图的key
+         * @param creator         创建一个bean
+         * @throws IllegalStateException 创建异常
+         */
+        public void instantiate(Map<String, Set<String>> dependencyGraph, Consumer<String> creator) throws IllegalStateException {
+            //拓扑排序, 能排出来的可以并行创建, 排不出来的在循环依赖中
+            Map<String, AtomicInteger> pendingMap = new HashMap<>(dependencyGraph.size());
+            Map<String, List<String>> dependentMap = new HashMap<>(dependencyGraph.size());
+            Deque<String> roots = new ArrayDeque<>();
+            for (Map.Entry<String, Set<String>> entry : dependencyGraph.entrySet()) {
+                String beanName = entry.getKey();
+                pendingMap.put(beanName, new AtomicInteger(entry.getValue().size()));
+                for (String dependency : entry.getValue()) {
+                    dependentMap.computeIfAbsent(dependency, k -> new ArrayList<>()).add(beanName);
+                }
+                if (entry.getValue().isEmpty()) {
+                    roots.add(beanName);
+                }
+            }
+            Set<String> sortedSet = new LinkedHashSet<>(dependencyGraph.size());
+            Map<String, Integer> indegreeMap = new HashMap<>(dependencyGraph.size());
+            Deque<String> sortQueue = new ArrayDeque<>(roots);
+            while (!sortQueue.isEmpty()) {
+                String beanName = sortQueue.poll();
+                sortedSet.add(beanName);
+                for (String dependent : dependentMap.getOrDefault(beanName, Collections.emptyList())) {
+                    int indegree = indegreeMap.getOrDefault(dependent, dependencyGraph.get(dependent).size()) - 1;
+                    indegreeMap.put(dependent, indegree);
+                    if (indegree == 0) {
+                        sortQueue.add(dependent);
+                    }
+                }
+            }
+
+            if (!sortedSet.isEmpty()) {
+                int poolId = POOL_ID_INCR.getAndIncrement();
+                AtomicInteger threadIdIncr = new AtomicInteger();
+                ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, sortedSet.size()), p -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                    thread.setName("app.instantiator-" + poolId + "-" + threadIdIncr.getAndIncrement());
+                    return thread;
+                }, null, false);
+                CountDownLatch latch = new CountDownLatch(sortedSet.size());
+                try {
+                    for (String beanName : roots) {
+                        pool.execute(() -> create(pool, latch, beanName, creator, pendingMap, dependentMap));
+                    }
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    error.compareAndSet(null, new IllegalStateException("parallel instantiate interrupted", e));
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+            Throwable throwable = error.get();
+            if (throwable instanceof RuntimeException) {
+                throw (RuntimeException) throwable;
+            } else if (throwable instanceof Error) {
+                throw (Error) throwable;
+            } else if (throwable != null) {
+                throw new IllegalStateException("parallel instantiate error=" + throwable, throwable);
+            }
+
+            //循环依赖, 按原来的顺序串行创建
+            for (String beanName : dependencyGraph.keySet()) {
+                if (!sortedSet.contains(beanName)) {
+                    creator.accept(beanName);
+                }
+            }
+        }
+
+        private void create(ForkJoinPool pool, CountDownLatch latch, String beanName, Consumer<String> creator,
+                            Map<String, AtomicInteger> pendingMap, Map<String, List<String>> dependentMap) {
+            try {
+                //出错后不再创建, 但是继续通知依赖它的bean, 让latch能结束
+                if (error.get() == null) {
+                    creator.accept(beanName);
+                }
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            } finally {
+                for (String dependent : dependentMap.getOrDefault(beanName, Collections.emptyList())) {
+                    if (pendingMap.get(dependent).decrementAndGet() == 0) {
+                        pool.execute(() -> create(pool, latch, dependent, creator, pendingMap, dependentMap));
+                    }
+                }
+                latch.countDown();
+            }
+        }
+    }
+
+    /**
+     * 创建单例的锁. 等待的线程不在锁上排队, 而是挂起在{@code singletonLockMonitor}上,
+     * 锁释放或有线程开始等待时被唤醒, 重新尝试获取锁并检查是否与其他线程互相等待
+     */
+    private static class SingletonLock extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+        private final String beanName;
+
+        SingletonLock(String beanName) {
+            this.beanName = beanName;
+        }
+
+        Thread getOwnerThread() {
+            return getOwner();
+        }
+    }
+
+    /**
+     * 池化(pooled)的bean的对象池.
+     * 空闲的实例放在无锁的双端队列中, 后归还的先借出(更热), 空闲超时的从队尾销毁.
+     * 实例的总数(借出的与空闲的)由信号量限制, 都借出后借用的线程挂起等待归还.
+     */
+    public static class BeanPool {
+        private final String beanName;
+        private final int maxSize;
+        private final long maxIdleNanos;
+        private final long maxWaitMillis;
+        private final Predicate<Object> validator;
+        private final Consumer<Object> destroyer;
+        private final Semaphore permits;
+        private final ConcurrentLinkedDeque<IdleEntry> idleDeque = new ConcurrentLinkedDeque<>();
+        //借出的实例, 按对象地址比较
+        private final Set<IdentityKey> borrowedSet = ConcurrentHashMap.newKeySet();
+        private final LongAdder hitCount = new LongAdder();
+        private final LongAdder missCount = new LongAdder();
+        private final LongAdder waitCount = new LongAdder();
+        private final LongAdder evictCount = new LongAdder();
+        private final LongAdder invalidCount = new LongAdder();
+        private volatile boolean closed = false;
+
+        public BeanPool(String beanName, BeanDefinition definition, Consumer<Object> destroyer) {
+            this.beanName = beanName;
+            this.maxSize = definition.getPoolMaxSize();
+            this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(definition.getPoolMaxIdleMillis());
+            this.maxWaitMillis = definition.getPoolMaxWaitMillis();
+            this.validator = definition.getPoolValidator();
+            this.destroyer = destroyer;
+            //公平的信号量, 刚归还的线程不能插队, 否则等待的线程可能一直借不到
+            this.permits = new Semaphore(maxSize, true);
+        }
+
+        /**
+         * 借出一个实例, 没有空闲的实例时用factory创建
+         *
+         * @param factory 创建实例
+         * @return 实例
+         * @throws IllegalStateException 池已关闭, 或者等待超时
+         */
+        public Object borrow(Supplier<Object> factory) throws IllegalStateException {
+            if (closed) {
+                throw new IllegalStateException("bean pool is closed. beanName=" + beanName);
+            }
+            boolean acquired;
+            try {
+                //tryAcquire()会插队, 用超时为0的tryAcquire才遵守公平
+                acquired = permits.tryAcquire(0, TimeUnit.MILLISECONDS);
+                if (!acquired) {
+                    waitCount.increment();
+                    acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("bean pool borrow interrupted. beanName=" + beanName, e);
+            }
+            if (!acquired) {
+                throw new IllegalStateException("bean pool exhausted. beanName=" + beanName + ",maxSize=" + maxSize + ",maxWaitMillis=" + maxWaitMillis);
+            }
+            try {
+                evictIdle();
+                IdleEntry entry;
+                while ((entry = idleDeque.pollFirst()) != null) {
+                    if (validator == null || validator.test(entry.instance)) {
+                        hitCount.increment();
+                        borrowedSet.add(new IdentityKey(entry.instance));
+                        return entry.instance;
+                    }
+                    invalidCount.increment();
+                    destroyer.accept(entry.instance);
+                }
+                missCount.increment();
+                Object instance = factory.get();
+                borrowedSet.add(new IdentityKey(instance));
+                return instance;
+            } catch (Throwable e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        /**
+         * 归还实例
+         *
+         * @param instance 借出的实例
+         * @return true=归还成功. false=不是这个池借出的, 或者已经归还过
+         */
+        public boolean giveBack(Object instance) {
+            if (instance == null || !borrowedSet.remove(new IdentityKey(instance))) {
+                return false;
+            }
+            if (closed) {
+                destroyer.accept(instance);
+            } else {
+                idleDeque.offerFirst(new IdleEntry(instance, System.nanoTime()));
+            }
+            permits.release();
+            evictIdle();
+            return true;
+        }
+
+        /**
+         * 从队尾开始销毁空闲超时的实例
+         */
+        public void evictIdle() {
+            long now = System.nanoTime();
+            IdleEntry entry;
+            while ((entry = idleDeque.peekLast()) != null && now - entry.idleTimestamp > maxIdleNanos) {
+                //可能已经被其他线程借出或销毁了
+                if (idleDeque.removeLastOccurrence(entry)) {
+                    evictCount.increment();
+                    destroyer.accept(entry.instance);
+                }
+            }
+        }
+
+        /**
+         * 关闭后销毁所有空闲的实例, 之后归还的实例也直接销毁
+         */
+        public void close() {
+            closed = true;
+            IdleEntry entry;
+            while ((entry = idleDeque.pollFirst()) != null) {
+                destroyer.accept(entry.instance);
+            }
+        }
+
+        public String getBeanName() {
+            return beanName;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * @return 借出时复用了空闲实例的次数
+         */
+        public long getHitCount() {
+            return hitCount.sum();
+        }
+
+        /**
+         * @return 借出时创建了新实例的次数
+         */
+        public long getMissCount() {
+            return missCount.sum();
+        }
+
+        /**
+         * @return 借出时实例已达到上限, 需要等待归还的次数
+         */
+        public long getWaitCount() {
+            return waitCount.sum();
+        }
+
+        /**
+         * @return 空闲超时被销毁的实例数量
+         */
+        public long getEvictCount() {
+            return evictCount.sum();
+        }
+
+        /**
+         * @return 借出前检查不可用被销毁的实例数量
+         */
+        public long getInvalidCount() {
+            return invalidCount.sum();
+        }
+
+        public int getIdleCount() {
+            return idleDeque.size();
+        }
+
+        public int getActiveCount() {
+            return borrowedSet.size();
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public String toString() {
+            return "BeanPool{" + beanName +
+                    ", active=" + getActiveCount() +
+                    ", idle=" + getIdleCount() +
+                    ", hit=" + getHitCount() +
+                    ", miss=" + getMissCount() +
+                    ", wait=" + getWaitCount() +
+                    ", evict=" + getEvictCount() +
+                    '}';
+        }
+
+        private static class IdleEntry {
+            final Object instance;
+            final long idleTimestamp;
+
+            IdleEntry(Object instance, long idleTimestamp) {
+                this.instance = instance;
+                this.idleTimestamp = idleTimestamp;
+            }
+        }
+
+        private static class IdentityKey {
+            final Object instance;
+
+            IdentityKey(Object instance) {
+                this.instance = instance;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof IdentityKey && ((IdentityKey) o).instance == instance;
+            }
+
+            @Override
+            public int hashCode() {
+                return System.identityHashCode(instance);
+            }
+        }
+    }
+
+    /**
+     * 用ThreadLocal保存bean的作用域. 每个线程有自己的一份, 获取时不与其他线程竞争.
+     * 容器关闭时销毁还存活的线程的bean, 已经结束的线程的bean随线程释放, 不调用销毁回调
+     */
+    public abstract static class ThreadLocalBeanScope implements BeanScope {
+        private final ThreadLocal<ScopeContext> contextThreadLocal = new ThreadLocal<>();
+        //所有线程的上下文, 用于关闭时销毁. 线程结束后自动删除, 只在创建与销毁上下文时访问
+        private final Map<Thread, ScopeContext> contextMap = Collections.synchronizedMap(new WeakHashMap<>(16));
+
+        /**
+         * 获取当前线程的上下文
+         *
+         * @param create 没有时是否创建
+         * @return 上下文, create=false时可能为null
+         */
+        protected ScopeContext getContext(boolean create) {
+            ScopeContext context = contextThreadLocal.get();
+            if (context != null && context.destroyed) {
+                //已经被关闭销毁了
+                contextThreadLocal.remove();
+                context = null;
+            }
+            if (context == null && create) {
+                context = new ScopeContext();
+                contextThreadLocal.set(context);
+                contextMap.put(Thread.currentThread(), context);
+            }
+            return context;
+        }
+
+        /**
+         * 销毁当前线程的所有bean, 按创建的相反顺序调用销毁回调
+         */
+        protected void destroyContext() {
+            ScopeContext context = contextThreadLocal.get();
+            if (context != null) {
+                contextThreadLocal.remove();
+                contextMap.remove(Thread.currentThread());
+                context.destroy();
+            }
+        }
+
+        /**
+         * 销毁所有还存活的线程的bean. 其他线程这时可能还在使用这些bean, 之后再获取时会创建新的
+         */
+        @Override
+        public void close() {
+            List<ScopeContext> contexts;
+            synchronized (contextMap) {
+                contexts = new ArrayList<>(contextMap.values());
+                contextMap.clear();
+            }
+            for (ScopeContext context : contexts) {
+                context.destroy();
+            }
+        }
+
+        @Override
+        public Object get(String beanName, Supplier<Object> objectFactory) {
+            ScopeContext context = getContext(true);
+            Object bean = context.beanMap.get(beanName);
+            if (bean == null) {
+                //不用computeIfAbsent, 创建时可能会获取同一个作用域的其他bean
+                bean = objectFactory.get();
+                context.beanMap.put(beanName, bean);
+            }
+            return bean;
+        }
+
+        @Override
+        public Object remove(String beanName) {
+            ScopeContext context = getContext(false);
+            if (context == null) {
+                return null;
+            }
+            context.destructionCallbackMap.remove(beanName);
+            return context.beanMap.remove(beanName);
+        }
+
+        @Override
+        public void registerDestructionCallback(String beanName, Runnable callback) {
+            ScopeContext context = getContext(false);
+            if (context != null) {
+                context.destructionCallbackMap.put(beanName, callback);
+            }
+        }
+
+        protected static class ScopeContext {
+            //只有所属的线程访问(关闭时除外), 不需要并发的Map
+            private final Map<String, Object> beanMap = new HashMap<>(8);
+            private final LinkedHashMap<String, Runnable> destructionCallbackMap = new LinkedHashMap<>(8);
+            private volatile boolean destroyed;
+
+            void destroy() {
+                List<Runnable> callbacks;
+                //关闭容器的线程与所属的线程可能同时销毁, 只销毁一次
+                synchronized (this) {
+                    if (destroyed) {
+                        return;
+                    }
+                    destroyed = true;
+                    callbacks = new ArrayList<>(destructionCallbackMap.values());
+                    destructionCallbackMap.clear();
+                    beanMap.clear();
+                }
+                for (int i = callbacks.size() - 1; i >= 0; i--) {
+                    callbacks.get(i).run();
+                }
+            }
+        }
+    }
+
+    /**
+     * 线程作用域. 每个线程第一次获取时创建, 同一个线程之后获取的是同一个实例.
+     * 线程结束时没有回调, 需要销毁时调用{@link #destroy()}(例如线程池中的线程不再使用时).
+     * 容器关闭时销毁还存活的线程的实例, 已经结束又没有调用{@link #destroy()}的线程的实例不会调用销毁方法
+     */
+    public static class ThreadBeanScope extends ThreadLocalBeanScope {
+        /**
+         * 销毁当前线程的所有线程作用域的bean
+         */
+        public void destroy() {
+            destroyContext();
+        }
+    }
+
+    /**
+     * 请求作用域. 在{@link #begin()}与{@link #end()}之间, 同一个线程获取的是同一个实例, end时一起销毁
+     */
+    public static class RequestBeanScope extends ThreadLocalBeanScope {
+        /**
+         * 开始当前线程的请求
+         *
+         * @throws IllegalStateException 当前线程的上一个请求还没有结束
+         */
+        public void begin() throws IllegalStateException {
+            if (getContext(false) != null) {
+                throw new IllegalStateException("request already active on thread " + Thread.currentThread().getName());
+            }
+            getContext(true);
+        }
+
+        /**
+         * 结束当前线程的请求, 销毁这个请求中创建的bean
+         */
+        public void end() {
+            destroyContext();
+        }
+
+        public boolean isActive() {
+            return getContext(false) != null;
+        }
+
+        @Override
+        public Object get(String beanName, Supplier<Object> objectFactory) {
+            if (getContext(false) == null) {
+                throw new IllegalStateException("No request active on thread " + Thread.currentThread().getName()
+                        + ". beanName=" + beanName + ". see ApplicationX#beginRequest");
+            }
+            return super.get(beanName, objectFactory);
+        }
+    }
+
+    /**
+     * 扫描缓存. 保存在一个二进制文件中, 记录每个类路径(jar包或目录)的指纹与扫描到的bean类名.
+     * 指纹是大小, 修改时间与内容hash. jar包的内容hash是中央目录的CRC32(中央目录里有每个文件的CRC32),
+     * 目录的内容hash是所有class文件的路径,大小,修改时间的CRC32.
+     * <p>
+     * 文件格式: magic, version, key, 类路径数量, [类路径, 大小, 修改时间, hash, 类名数量, [与上个类名相同的前缀长度, 剩余部分]...]...
+     */
+    public static class ScanCache {
+        public static final String FILE_NAME = "applicationx-scan.cache";
+        private static final int MAGIC = 0x41505843;
+        private static final int VERSION = 1;
+        private static final String[] EMPTY = {};
+        private final File file;
+        private final String key;
+        //上次保存的
+        private final Map<String, Entry> oldEntryMap;
+        //本次扫描的
+        private final Map<String, Entry> entryMap = new ConcurrentHashMap<>();
+
+        private ScanCache(File file, String key, Map<String, Entry> oldEntryMap) {
+            this.file = file;
+            this.key = key;
+            this.oldEntryMap = oldEntryMap;
+        }
+
+        /**
+         * 读取缓存文件, 文件不存在或配置不一致时, 返回空的缓存
+         *
+         * @param file 缓存文件
+         * @param key  扫描配置
+         * @return 缓存
+         */
+        public static ScanCache load(File file, String key) {
+            Map<String, Entry> oldEntryMap = new HashMap<>();
+            if (file.isFile()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                    if (in.readInt() == MAGIC && in.readInt() == VERSION && key.equals(in.readUTF())) {
+                        int entryCount = in.readInt();
+                        for (int i = 0; i < entryCount; i++) {
+                            String url = in.readUTF();
+                            Entry entry = new Entry(in.readLong(), in.readLong(), in.readLong());
+                            String prev = "";
+                            int classNameCount = in.readInt();
+                            for (int j = 0; j < classNameCount; j++) {
+                                int prefixLength = in.readUnsignedShort();
+                                prev = prev.substring(0, prefixLength) + in.readUTF();
+                                entry.classNames.add(prev);
+                            }
+                            oldEntryMap.put(url, entry);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    //缓存损坏, 重新扫描
+                    oldEntryMap.clear();
+                }
+            }
+            return new ScanCache(file, key, oldEntryMap);
+        }
+
+        /**
+         * 获取缓存的类名. 同时会记录这个类路径本次的指纹
+         *
+         * @param url 类路径
+         * @return null=类路径有变化或不在缓存中, 需要重新扫描
+         */
+        public String[] getClassNames(URL url) {
+            File urlFile = toFile(url);
+            if (urlFile == null) {
+                return null;
+            }
+            String urlKey = url.toString();
+            Entry entry;
+            try {
+                entry = fingerprint(urlFile);
+            } catch (IOException e) {
+                return null;
+            }
+            Entry oldEntry = oldEntryMap.get(urlKey);
+            entryMap.put(urlKey, entry);
+            if (oldEntry != null && oldEntry.size == entry.size && oldEntry.hash == entry.hash) {
+                return oldEntry.classNames.toArray(EMPTY);
+            }
+            return null;
+        }
+
+        public void addClassName(URL url, String className) {
+            Entry entry = entryMap.get(url.toString());
+            if (entry != null) {
+                entry.classNames.add(className);
+            }
+        }
+
+        /**
+         * 保存本次扫描的结果, 先写临时文件再替换, 防止写一半时进程退出导致缓存损坏
+         */
+        public void save() {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                return;
+            }
+            File tempFile = new File(file.getPath() + ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeUTF(key);
+                    out.writeInt(entryMap.size());
+                    for (Map.Entry<String, Entry> mapEntry : entryMap.entrySet()) {
+                        Entry entry = mapEntry.getValue();
+                        out.writeUTF(mapEntry.getKey());
+                        out.writeLong(entry.size);
+                        out.writeLong(entry.lastModified);
+                        out.writeLong(entry.hash);
+                        List<String> classNames = new ArrayList<>(entry.classNames);
+                        Collections.sort(classNames);
+                        out.writeInt(classNames.size());
+                        String prev = "";
+                        for (String className : classNames) {
+                            int prefixLength = 0;
+                            int maxPrefixLength = Math.min(Math.min(prev.length(), className.length()), 0xFFFF);
+                            while (prefixLength < maxPrefixLength && prev.charAt(prefixLength) == className.charAt(prefixLength)) {
+                                prefixLength++;
+                            }
+                            out.writeShort(prefixLength);
+                            out.writeUTF(className.substring(prefixLength));
+                            prev = className;
+                        }
+                    }
+                }
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                //缓存写失败不影响启动
+                tempFile.delete();
+            }
+        }
+
+        private static File toFile(URL url) {
+            try {
+                String path = URLDecoder.decode(url.getFile(), "UTF-8");
+                if ("jar".equals(url.getProtocol())) {
+                    int pos = path.indexOf('!');
+                    if (pos != -1 && path.startsWith("file:")) {
+                        path = path.substring(5, pos);
+                    }
+                } else if (!"file".equals(url.getProtocol())) {
+                    return null;
+                }
+                File file = new File(path);
+                return file.exists() ? file : null;
+            } catch (UnsupportedEncodingException e) {
+                return null;
+            }
+        }
+
+        private static Entry fingerprint(File file) throws IOException {
+            if (file.isDirectory()) {
+                Entry entry = new Entry(0, 0, 0);
+                CRC32 crc32 = new CRC32();
+                fingerprintDirectory(file, "", entry, crc32);
+                entry.hash = crc32.getValue();
+                return entry;
+            }
+            return new Entry(file.length(), file.lastModified(), hashZipCentralDirectory(file));
+        }
+
+        private static void fingerprintDirectory(File directory, String path, Entry entry, CRC32 crc32) {
+            String[] names = directory.list();
+            if (names == null) {
+                return;
+            }
+            Arrays.sort(names);
+            for (String name : names) {
+                File child = new File(directory, name);
+                String childPath = path + "/" + name;
+                if (child.isDirectory()) {
+                    fingerprintDirectory(child, childPath, entry, crc32);
+                } else if (name.endsWith(".class")) {
+                    long length = child.length();
+                    long lastModified = child.lastModified();
+                    entry.size += length;
+                    entry.lastModified = Math.max(entry.lastModified, lastModified);
+                    crc32.update(childPath.getBytes(StandardCharsets.UTF_8));
+                    updateLong(crc32, length);
+                    updateLong(crc32, lastModified);
+                }
+            }
+        }
+
+        /**
+         * 只读取zip文件末尾的中央目录计算hash, 不读取整个文件
+         */
+        private static long hashZipCentralDirectory(File file) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                long length = raf.length();
+                //中央目录结束标记(22字节) + 注释(最多65535字节)
+                int tailLength = (int) Math.min(length, 22 + 0xFFFF);
+                byte[] tail = new byte[tailLength];
+                raf.seek(length - tailLength);
+                raf.readFully(tail);
+                for (int i = tailLength - 22; i >= 0; i--) {
+                    if (tail[i] == 0x50 && tail[i + 1] == 0x4b && tail[i + 2] == 0x05 && tail[i + 3] == 0x06) {
+                        long centralDirectorySize = readIntLE(tail, i + 12) & 0xFFFFFFFFL;
+                        long centralDirectoryOffset = readIntLE(tail, i + 16) & 0xFFFFFFFFL;
+                        if (centralDirectoryOffset + centralDirectorySize > length) {
+                            break;
+                        }
+                        CRC32 crc32 = new CRC32();
+                        byte[] buffer = new byte[8192];
+                        raf.seek(centralDirectoryOffset);
+                        for (long remaining = centralDirectorySize; remaining > 0; ) {
+                            int read = raf.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                            if (read == -1) {
+                                break;
+                            }
+                            crc32.update(buffer, 0, read);
+                            remaining -= read;
+                        }
+                        return crc32.getValue();
+                    }
+                }
+                //不是zip文件, 或是zip64, 计算整个文件的hash
+                CRC32 crc32 = new CRC32();
+                byte[] buffer = new byte[8192];
+                raf.seek(0);
+                int read;
+                while ((read = raf.read(buffer)) != -1) {
+                    crc32.update(buffer, 0, read);
+                }
+                return crc32.getValue();
+            }
+        }
+
+        private static int readIntLE(byte[] bytes, int index) {
+            return (bytes[index] & 0xFF) | ((bytes[index + 1] & 0xFF) << 8)
+                    | ((bytes[index + 2] & 0xFF) << 16) | ((bytes[index + 3] & 0xFF) << 24);
+        }
+
+        private static void updateLong(CRC32 crc32, long value) {
+            for (int i = 0; i < 8; i++) {
+                crc32.update((int) (value >>> (i * 8)));
+            }
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        private static class Entry {
+            private final Set<String> classNames = ConcurrentHashMap.newKeySet();
+            private long size;
+            private long lastModified;
+            private long hash;
+
+            private Entry(long size, long lastModified, long hash) {
+                this.size = size;
+                this.lastModified = lastModified;
+                this.hash = hash;
+            }
+        }
+    }
+
+    /**
+     * class文件的元数据. 只解析常量池与类上的RuntimeVisibleAnnotations, 不会加载类.
+     * 参考 https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html
+     */
+    public static class ClassMetadata {
+        private static final int MAGIC = 0xCAFEBABE;
+        private static final int ACC_INTERFACE = 0x0200;
+        private static final int ACC_ABSTRACT = 0x0400;
+        private static final int ACC_ANNOTATION = 0x2000;
+        private static final String[] EMPTY = {};
+        private final String className;
+        private final int access;
+        private final String superClassName;
+        private final String[] interfaceNames;
+        private final String[] annotationNames;
+
+        public ClassMetadata(String className, int access, String superClassName, String[] interfaceNames, String[] annotationNames) {
+            this.className = className;
+            this.access = access;
+            this.superClassName = superClassName;
+            this.interfaceNames = interfaceNames;
+            this.annotationNames = annotationNames;
+        }
+
+        /**
+         * 解析class文件
+         *
+         * @param bytes class文件的内容
+         * @return 元数据
+         * @throws IllegalArgumentException 不是class文件
+         */
+        public static ClassMetadata read(byte[] bytes) throws IllegalArgumentException {
+            if (bytes.length < 10 || readInt(bytes, 0) != MAGIC) {
+                throw new IllegalArgumentException("not class file");
+            }
+            //常量池, 只记录每个常量的位置
+            int constantPoolCount = readUnsignedShort(bytes, 8);
+            int[] offsets = new int[constantPoolCount];
+            int index = 10;
+            for (int i = 1; i < constantPoolCount; i++) {
+                offsets[i] = index + 1;
+                int tag = bytes[index];
+                switch (tag) {
+                    case 1://Utf8
+                        index += 3 + readUnsignedShort(bytes, index + 1);
+                        break;
+                    case 7://Class
+                    case 8://String
+                    case 16://MethodType
+                    case 19://Module
+                    case 20://Package
+                        index += 3;
+                        break;
+                    case 15://MethodHandle
+                        index += 4;
+                        break;
+                    case 3://Integer
+                    case 4://Float
+                    case 9://Fieldref
+                    case 10://Methodref
+                    case 11://InterfaceMethodref
+                    case 12://NameAndType
+                    case 17://Dynamic
+                    case 18://InvokeDynamic
+                        index += 5;
+                        break;
+                    case 5://Long
+                    case 6://Double
+                        index += 9;
+                        i++;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown constant pool tag " + tag + " at " + index);
+                }
+            }
+            int access = readUnsignedShort(bytes, index);
+            String className = readClassName(bytes, offsets, readUnsignedShort(bytes, index + 2));
+            int superIndex = readUnsignedShort(bytes, index + 4);
+            String superClassName = superIndex == 0 ? null : readClassName(bytes, offsets, superIndex);
+            int interfaceCount = readUnsignedShort(bytes, index + 6);
+            index += 8;
+            String[] interfaceNames = interfaceCount == 0 ? EMPTY : new String[interfaceCount];
+            for (int i = 0; i < interfaceCount; i++, index += 2) {
+                interfaceNames[i] = readClassName(bytes, offsets, readUnsignedShort(bytes, index));
+            }
+            //跳过字段与方法
+            for (int member = 0; member < 2; member++) {
+                int memberCount = readUnsignedShort(bytes, index);
+                index += 2;
+                for (int i = 0; i < memberCount; i++) {
+                    index = skipAttributes(bytes, index + 6);
+                }
+            }
+            //类上的属性
+            String[] annotationNames = EMPTY;
+            int attributeCount = readUnsignedShort(bytes, index);
+            index += 2;
+            for (int i = 0; i < attributeCount; i++) {
+                String attributeName = readUtf8(bytes, offsets[readUnsignedShort(bytes, index)]);
+                int attributeLength = readInt(bytes, index + 2);
+                if ("RuntimeVisibleAnnotations".equals(attributeName)) {
+                    annotationNames = readAnnotationNames(bytes, offsets, index + 6);
+                }
+                index += 6 + attributeLength;
+            }
+            return new ClassMetadata(className, access, superClassName, interfaceNames, annotationNames);
+        }
+
+        private static String[] readAnnotationNames(byte[] bytes, int[] offsets, int index) {
+            int annotationCount = readUnsignedShort(bytes, index);
+            index += 2;
+            String[] names = new String[annotationCount];
+            for (int i = 0; i < annotationCount; i++) {
+                //"Lcom/example/Foo;" -> "com.example.Foo"
+                String descriptor = readUtf8(bytes, offsets[readUnsignedShort(bytes, index)]);
+                names[i] = descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+                index = skipAnnotation(bytes, index);
+            }
+            return names;
+        }
+
+        private static int skipAnnotation(byte[] bytes, int index) {
+            int pairCount = readUnsignedShort(bytes, index + 2);
+            index += 4;
+            for (int i = 0; i < pairCount; i++) {
+                index = skipElementValue(bytes, index + 2);
+            }
+            return index;
+        }
+
+        private static int skipElementValue(byte[] bytes, int index) {
+            char tag = (char) bytes[index];
+            index++;
+            switch (tag) {
+                case 'e':
+                    return index + 4;
+                case '@':
+                    return skipAnnotation(bytes, index);
+                case '[': {
+                    int valueCount = readUnsignedShort(bytes, index);
+                    index += 2;
+                    for (int i = 0; i < valueCount; i++) {
+                        index = skipElementValue(bytes, index);
+                    }
+                    return index;
+                }
+                default:
+                    return index + 2;
+            }
+        }
+
+        private static int skipAttributes(byte[] bytes, int index) {
+            int attributeCount = readUnsignedShort(bytes, index);
+            index += 2;
+            for (int i = 0; i < attributeCount; i++) {
+                index += 6 + readInt(bytes, index + 2);
+            }
+            return index;
+        }
+
+        private static String readClassName(byte[] bytes, int[] offsets, int classIndex) {
+            int nameIndex = readUnsignedShort(bytes, offsets[classIndex]);
+            return readUtf8(bytes, offsets[nameIndex]).replace('/', '.');
+        }
+
+        private static String readUtf8(byte[] bytes, int offset) {
+            int length = readUnsignedShort(bytes, offset);
+            int begin = offset + 2;
+            char[] chars = new char[length];
+            int charLength = 0;
+            for (int i = begin, end = begin + length; i < end; ) {
+                int c = bytes[i++] & 0xFF;
+                if (c < 0x80) {
+                    chars[charLength++] = (char) c;
+                } else if ((c & 0xE0) == 0xC0) {
+                    chars[charLength++] = (char) (((c & 0x1F) << 6) | (bytes[i++] & 0x3F));
+                } else {
+                    chars[charLength++] = (char) (((c & 0x0F) << 12) | ((bytes[i++] & 0x3F) << 6) | (bytes[i++] & 0x3F));
+                }
+            }
+            return new String(chars, 0, charLength);
+        }
+
+        private static int readUnsignedShort(byte[] bytes, int index) {
+            return ((bytes[index] & 0xFF) << 8) | (bytes[index + 1] & 0xFF);
+        }
+
+        private static int readInt(byte[] bytes, int index) {
+            return ((bytes[index] & 0xFF) << 24) | ((bytes[index + 1] & 0xFF) << 16)
+                    | ((bytes[index + 2] & 0xFF) << 8) | (bytes[index + 3] & 0xFF);
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public int getAccess() {
+            return access;
+        }
+
+        public String getSuperClassName() {
+            return superClassName;
+        }
+
+        public String[] getInterfaceNames() {
+            return interfaceNames;
+        }
+
+        /**
+         * 类上直接标注的注解(运行时可见的)
+         *
+         * @return 注解的类名
+         */
+        public String[] getAnnotationNames() {
+            return annotationNames;
+        }
+
+        public boolean isInterface() {
+            return (access & ACC_INTERFACE) != 0;
+        }
+
+        public boolean isAnnotation() {
+            return (access & ACC_ANNOTATION) != 0;
+        }
+
+        public boolean isAbstract() {
+            return (access & ACC_ABSTRACT) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return "ClassMetadata{" +
+                    "className='" + className + '\'' +
+                    ", annotationNames=" + Arrays.toString(annotationNames) +
+                    '}';
+        }
+    }
+
+    /**
+     * 一个类需要注入的字段与方法. 参考 org.springframework.beans.factory.annotation.InjectionMetadata
+     * 解析一次后不再变化, 同一个类的多个实例(例如原型bean)共用, 注入时不再反射查找
+     */
+    public static class InjectionMetadata {
+        private final Class<?> targetClass;
+        private final List<InjectElement<Field>> injectFields;
+        private final List<InjectElement<Method>> injectMethods;
+
+        public InjectionMetadata(Class<?> targetClass, List<InjectElement<Field>> injectFields, List<InjectElement<Method>> injectMethods) {
+            this.targetClass = targetClass;
+            this.injectFields = Collections.unmodifiableList(new ArrayList<>(injectFields));
+            this.injectMethods = Collections.unmodifiableList(new ArrayList<>(injectMethods));
+        }
+
+        public Class<?> getTargetClass() {
+            return targetClass;
+        }
+
+        public List<InjectElement<Field>> getInjectFields() {
+            return injectFields;
+        }
+
+        public List<InjectElement<Method>> getInjectMethods() {
+            return injectMethods;
+        }
+
+        /**
+         * 先注入字段, 再调用setter方法
+         *
+         * @param target      需要注入的实例
+         * @param targetClass 需要注入的原始类型,用于查找泛型
+         * @throws IllegalStateException 注入异常
+         */
+        public void inject(Object target, Class<?> targetClass) throws IllegalStateException {
+            for (int i = 0, size = injectFields.size(); i < size; i++) {
+                injectFields.get(i).inject(target, targetClass);
+            }
+            for (int i = 0, size = injectMethods.size(); i < size; i++) {
+                injectMethods.get(i).inject(target, targetClass);
+            }
+        }
+    }
+
+    /**
+     * 一个类的初始化方法与销毁方法. 按方法名解析一次, 创建与销毁bean时不再调用getMethod
+     */
+    public static class LifecycleMetadata {
+        private final Class<?> targetClass;
+        private final String initMethodName;
+        private final String destroyMethodName;
+        private final Method initMethod;
+        private final Method destroyMethod;
+        /**
+         * 方法不存在时, 到调用时再抛出, 与之前每次getMethod的行为一致
+         */
+        private final NoSuchMethodException initMethodException;
+        private final NoSuchMethodException destroyMethodException;
+
+        public LifecycleMetadata(Class<?> targetClass, String initMethodName, String destroyMethodName) {
+            this.targetClass = targetClass;
+            this.initMethodName = initMethodName;
+            this.destroyMethodName = destroyMethodName;
+            Method initMethod = null;
+            NoSuchMethodException initMethodException = null;
+            if (initMethodName != null && initMethodName.length() > 0) {
+                try {
+                    initMethod = targetClass.getMethod(initMethodName);
+                } catch (NoSuchMethodException e) {
+                    initMethodException = e;
+                }
+            }
+            Method destroyMethod = null;
+            NoSuchMethodException destroyMethodException = null;
+            if (destroyMethodName != null && destroyMethodName.length() > 0) {
+                try {
+                    destroyMethod = targetClass.getMethod(destroyMethodName);
+                } catch (NoSuchMethodException e) {
+                    destroyMethodException = e;
+                }
+            }
+            this.initMethod = initMethod;
+            this.initMethodException = initMethodException;
+            this.destroyMethod = destroyMethod;
+            this.destroyMethodException = destroyMethodException;
+        }
+
+        /**
+         * bean定义中的方法名是否与解析时一致, 不一致需要重新解析
+         *
+         * @param initMethodName    初始化方法名
+         * @param destroyMethodName 销毁方法名
+         * @return true=一致
+         */
+        public boolean isMatch(String initMethodName, String destroyMethodName) {
+            return Objects.equals(this.initMethodName, initMethodName)
+                    && Objects.equals(this.destroyMethodName, destroyMethodName);
+        }
+
+        public Class<?> getTargetClass() {
+            return targetClass;
+        }
+
+        public Method getInitMethod() throws NoSuchMethodException {
+            if (initMethodException != null) {
+                throw initMethodException;
+            }
+            return initMethod;
+        }
+
+        public Method getDestroyMethod() throws NoSuchMethodException {
+            if (destroyMethodException != null) {
+                throw destroyMethodException;
+            }
+            return destroyMethod;
+        }
+    }
+
+    /**
+     * 池化(pooled)的bean注入时的代理. 每次调用方法时借出一个实例, 调用完归还.
+     * equals,hashCode,toString不借出实例, 按代理的对象地址比较
+     */
+    private static class PooledBeanHandler implements InvocationHandler {
+        private final ApplicationX applicationX;
+        private final String beanName;
+
+        PooledBeanHandler(ApplicationX applicationX, String beanName) {
+            this.applicationX = applicationX;
+            this.beanName = beanName;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return "PooledProxy(" + beanName + ")";
+                }
+            }
+            Object bean = applicationX.getBean(beanName, null, true);
+            try {
+                return method.invoke(bean, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            } finally {
+                applicationX.returnBean(beanName, bean);
+            }
+        }
+    }
+
+    /**
+     * 延迟注入(@Lazy)的代理. 第一次调用方法时获取目标bean, 之后直接调用缓存的目标.
+     * equals,hashCode,toString不获取目标, 按代理的对象地址比较
+     */
+    private static class LazyResolutionHandler implements InvocationHandler {
+        private final Supplier<Object> targetSupplier;
+        private volatile Object target;
+
+        LazyResolutionHandler(Supplier<Object> targetSupplier) {
+            this.targetSupplier = targetSupplier;
+        }
+
+        private Object getTarget() {
+            Object target = this.target;
+            if (target == null) {
+                synchronized (this) {
+                    target = this.target;
+                    if (target == null) {
+                        target = targetSupplier.get();
+                        this.target = target;
+                    }
+                }
+            }
+            return target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            //Object的方法不获取目标, 代理按对象地址比较, 这样与其他对象比较时两边的结果一致
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return "LazyProxy(" + proxy.getClass().getInterfaces()[0].getName() + ")";
+                }
+            }
+            try {
+                return method.invoke(getTarget(), args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+
+    /**
+     * 参考 org.springframework.beans.factory.annotation.InjectionMetadata.InjectedElement
+     *
+     * @param <T> 成员
+     */
+    public static class InjectElement<T extends Member> {
+        private static final String[] QUALIFIER_FIELDS = new String[]{"value", "name"};
+        /**
+         * 成员有[构造器,方法,字段] {@link Constructor,Method,Field}
+         */
+        private final T member;
+        /**
+         * 用于获取注入参数
+         */
+        private final ApplicationX applicationX;
+        /**
+         * 自动注入标记的注解
          */
         private final Annotation autowiredAnnotation;
         /**
-         * 注入类型如下 {@link BeanDefinition#AUTOWIRE_BY_NAME,BeanDefinition#AUTOWIRE_BY_TYPE}
+         * 注入类型如下 {@link BeanDefinition#AUTOWIRE_BY_NAME,BeanDefinition#AUTOWIRE_BY_TYPE}
+         */
+        private final int[] autowireType;
+        /**
+         * 这个参数是否是必须的 (会覆盖这些参数是否是必须的)
+         */
+        private final Boolean[] requireds;
+        /**
+         * 这个参数是否延迟获取(@Lazy), 注入的是代理
+         */
+        private final boolean[] lazys;
+        /**
+         * 这个包含泛型注入的类型
+         */
+        private Type[] requiredType;
+        /**
+         * 这个如果是泛型注入,则Class会是Object, 所以需要requiredType
+         */
+        private Class[] requiredClass;
+        /**
+         * 如果根据名称注入
+         */
+        private String[] requiredName;
+        /**
+         * 这些参数是否是必须的
+         */
+        private Boolean required;
+
+        public InjectElement(Executable executable, ApplicationX applicationX) {
+            int parameterCount = executable.getParameterCount();
+            this.member = (T) executable;
+            this.applicationX = applicationX;
+            this.autowiredAnnotation = findDeclaredAnnotation(executable, applicationX.autowiredAnnotations, AUTOWIRED_ANNOTATION_CACHE_MAP);
+            this.autowireType = new int[parameterCount];
+            this.requiredClass = new Class[parameterCount];
+            this.requiredType = new Type[parameterCount];
+            this.requiredName = new String[parameterCount];
+            this.requireds = new Boolean[parameterCount];
+            this.lazys = new boolean[parameterCount];
+            //构造器与setter方法上的@Lazy作用于所有参数. @Bean方法上的@Lazy是延迟创建bean, 不是延迟注入
+            boolean executableLazy = isLazy(executable)
+                    && (executable instanceof Constructor || this.autowiredAnnotation != null);
+
+            Parameter[] parameters = executable.getParameters();
+            for (int i = 0; i < parameterCount; i++) {
+                Parameter parameter = parameters[i];
+                this.requiredClass[i] = parameter.getType();
+                this.autowireType[i] = applicationX.findAutowireType(parameter);
+                switch (this.autowireType[i]) {
+                    default:
+                    case BeanDefinition.AUTOWIRE_BY_TYPE: {
+                        Annotation parameterInjectAnnotation = findDeclaredAnnotation(parameter, applicationX.autowiredAnnotations, AUTOWIRED_ANNOTATION_CACHE_MAP);
+                        this.requiredType[i] = findAnnotationDeclaredType(parameterInjectAnnotation, parameter.getParameterizedType());
+
+                        Annotation qualifierAnnotation = findDeclaredAnnotation(parameter, applicationX.qualifierAnnotations, QUALIFIER_ANNOTATION_CACHE_MAP);
+                        String autowiredBeanName = qualifierAnnotation != null ?
+                                getQualifierAnnotationValue(qualifierAnnotation) : null;
+                        this.requiredName[i] = autowiredBeanName;
+                        break;
+                    }
+                    case BeanDefinition.AUTOWIRE_BY_NAME: {
+                        Annotation qualifierAnnotation = findDeclaredAnnotation(parameter, applicationX.qualifierAnnotations, QUALIFIER_ANNOTATION_CACHE_MAP);
+                        String autowiredBeanName = qualifierAnnotation != null ?
+                                getQualifierAnnotationValue(qualifierAnnotation) : parameter.getName();
+                        this.requiredName[i] = autowiredBeanName;
+                        break;
+                    }
+                }
+                Annotation parameterAutowiredAnnotation = findDeclaredAnnotation(parameter, applicationX.autowiredAnnotations, AUTOWIRED_ANNOTATION_CACHE_MAP);
+                this.requireds[i] = parameterAutowiredAnnotation != null ?
+                        getAnnotationValue(parameterAutowiredAnnotation, "required", Boolean.class) : null;
+                this.lazys[i] = executableLazy || isLazy(parameter);
+            }
+            if (this.autowiredAnnotation != null) {
+                this.required = getAnnotationValue(this.autowiredAnnotation, "required", Boolean.class);
+            }
+        }
+
+        public InjectElement(Field field, ApplicationX applicationX) {
+            this.member = (T) field;
+            this.applicationX = applicationX;
+            this.autowiredAnnotation = findDeclaredAnnotation(field, applicationX.autowiredAnnotations, AUTOWIRED_ANNOTATION_CACHE_MAP);
+            this.autowireType = new int[]{applicationX.findAutowireType(field)};
+            this.requiredClass = new Class[]{field.getType()};
+            switch (this.autowireType[0]) {
+                default:
+                case BeanDefinition.AUTOWIRE_BY_TYPE: {
+                    this.requiredType = new Type[]{findAnnotationDeclaredType(this.autowiredAnnotation, field.getGenericType())};
+                }
+                case BeanDefinition.AUTOWIRE_BY_NAME: {
+                    Annotation qualifierAnnotation = findDeclaredAnnotation(field, applicationX.qualifierAnnotations, QUALIFIER_ANNOTATION_CACHE_MAP);
+                    String autowiredBeanName = qualifierAnnotation != null ?
+                            getQualifierAnnotationValue(qualifierAnnotation) : field.getName();
+                    this.requiredName = new String[]{autowiredBeanName};
+                    break;
+                }
+            }
+            if (this.autowiredAnnotation != null) {
+                this.required = getAnnotationValue(this.autowiredAnnotation, "required", Boolean.class);
+            }
+            this.requireds = new Boolean[]{this.required};
+            this.lazys = new boolean[]{isLazy(field)};
+        }
+
+        private static boolean isLazy(AnnotatedElement element) {
+            Lazy lazy = element.getAnnotation(Lazy.class);
+            return lazy != null && lazy.value();
+        }
+
+        private static String getQualifierAnnotationValue(Annotation qualifierAnnotation) {
+            return getAnnotationValue(qualifierAnnotation, QUALIFIER_FIELDS, String.class);
+        }
+
+        public static List<InjectElement<Field>> getInjectFields(Class rootClass, ApplicationX applicationX) {
+            List<InjectElement<Field>> list = new ArrayList<>();
+            for (Class clazz = rootClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+                for (Field field : clazz.getDeclaredFields()) {
+                    //寻找打着注解的字段
+                    if (null != findDeclaredAnnotation(field, applicationX.autowiredAnnotations, AUTOWIRED_ANNOTATION_CACHE_MAP)) {
+                        InjectElement<Field> element = new InjectElement<>(field, applicationX);
+                        list.add(element);
+                    }
+                }
+            }
+            return list;
+        }
+
+        public static List<InjectElement<Method>> getInjectMethods(Class rootClass, ApplicationX applicationX) {
+            List<InjectElement<Method>> result = new ArrayList<>();
+            eachClass(rootClass, clazz -> {
+                for (Method method : getDeclaredMethods(clazz)) {
+                    //寻找打着注解的方法
+                    if (null != findDeclaredAnnotation(method, applicationX.autowiredAnnotations, AUTOWIRED_ANNOTATION_CACHE_MAP)) {
+                        result.add(new InjectElement<>(method, applicationX));
+                    }
+                }
+            });
+            return result;
+        }
+
+        private static Class findConcreteClass(Class<?> parameterGenericClass, Class concreteChildClass) {
+            BiFunction<Type, Class<?>, Class<?>> findFunction = (generic, genericSuper) -> {
+                if (generic instanceof ParameterizedType) {
+                    for (Type actualTypeArgument : ((ParameterizedType) generic).getActualTypeArguments()) {
+                        if (actualTypeArgument instanceof Class
+                                && genericSuper.isAssignableFrom((Class<?>) actualTypeArgument)) {
+                            return (Class) actualTypeArgument;
+                        }
+                    }
+                }
+                return null;
+            };
+            Class<?> result = findFunction.apply(concreteChildClass.getGenericSuperclass(), parameterGenericClass);
+            if (result == null) {
+                for (Type genericInterface : concreteChildClass.getGenericInterfaces()) {
+                    if (null != (result = findFunction.apply(genericInterface, parameterGenericClass))) {
+                        break;
+                    }
+                }
+            }
+            return result == null ? parameterGenericClass : result;
+        }
+
+        private static Type findAnnotationDeclaredType(Annotation annotation, Type def) {
+            if (annotation == null) {
+                return def;
+            }
+            Type annotationDeclaredType = getAnnotationValue(annotation, "type", Type.class);
+            if (annotationDeclaredType != null && annotationDeclaredType != Object.class) {
+                return annotationDeclaredType;
+            } else {
+                return def;
+            }
+        }
+
+        /**
+         * 会根据类型或名称调用getBean()方法, 返回需要的所有参数. {@link BeanDefinition#AUTOWIRE_BY_TYPE,BeanDefinition#AUTOWIRE_BY_NAME}
+         *
+         * @param targetClass 注入目标类
+         * @return 从容器中取出的多个bean
+         * @throws IllegalStateException 如果容器中不存在需要的bean
+         */
+        private Object[] getInjectValues(Class targetClass) throws IllegalStateException {
+            Boolean defaultRequired = this.required;
+            if (defaultRequired == null) {
+                defaultRequired = Boolean.FALSE;
+            }
+
+            Object[] values = new Object[autowireType.length];
+            for (int i = 0; i < autowireType.length; i++) {
+                Boolean required = requireds[i];
+                if (required == null) {
+                    required = defaultRequired;
+                }
+                Class<?> autowireClass = autowireType[i] == BeanDefinition.AUTOWIRE_BY_NAME ? null : getAutowireClass(i, targetClass);
+                if (lazys[i]) {
+                    values[i] = resolveLazyInjectValue(applicationX, autowireType[i], requiredName[i], autowireClass,
+                            required, i, member, member.getDeclaringClass(), requiredClass[i]);
+                } else {
+                    values[i] = resolveInjectValue(applicationX, autowireType[i], requiredName[i], autowireClass,
+                            required, i, member, member.getDeclaringClass());
+                }
+            }
+            return values;
+        }
+
+        /**
+         * 与{@link #getInjectValues(Class)}一样取出参数, 但是缺少必须的参数或指定的参数类型不匹配时返回null, 不抛出异常.
+         * 用于在多个候选构造器中选择
+         *
+         * @param targetClass 注入目标类
+         * @param bindings    指定的参数, 下标与参数对应, 为null的参数从容器中取. 可以为null
+         * @return 参数, 不能满足时返回null
+         */
+        Object[] findInjectValues(Class<?> targetClass, Object[] bindings) {
+            if (bindings != null && bindings.length > autowireType.length) {
+                return null;
+            }
+            Boolean defaultRequired = this.required;
+            if (defaultRequired == null) {
+                defaultRequired = Boolean.FALSE;
+            }
+            Object[] values = new Object[autowireType.length];
+            for (int i = 0; i < autowireType.length; i++) {
+                if (bindings != null && i < bindings.length && bindings[i] != null) {
+                    if (!isAssignableValue(requiredClass[i], bindings[i])) {
+                        return null;
+                    }
+                    values[i] = bindings[i];
+                    continue;
+                }
+                Boolean required = requireds[i];
+                if (required == null) {
+                    required = defaultRequired;
+                }
+                Class<?> autowireClass = autowireType[i] == BeanDefinition.AUTOWIRE_BY_NAME ? null : getAutowireClass(i, targetClass);
+                //都按不是必须的取出, 取不到时由下面判断, 不抛出异常
+                Object value = lazys[i] ?
+                        resolveLazyInjectValue(applicationX, autowireType[i], requiredName[i], autowireClass,
+                                false, i, member, member.getDeclaringClass(), requiredClass[i]) :
+                        resolveInjectValue(applicationX, autowireType[i], requiredName[i], autowireClass,
+                                false, i, member, member.getDeclaringClass());
+                if (value == null && (required || requiredClass[i].isPrimitive())) {
+                    return null;
+                }
+                values[i] = value;
+            }
+            return values;
+        }
+
+        /**
+         * 按类型注入时, 第index个参数需要的类型. 泛型参数会从targetClass中找到具体的类型
+         *
+         * @param index       参数下标
+         * @param targetClass 注入目标类
+         * @return 需要的类型
+         */
+        Class<?> getAutowireClass(int index, Class<?> targetClass) {
+            return requiredType[index] instanceof Class ?
+                    (Class) requiredType[index] : findConcreteClass(requiredClass[index], targetClass);
+        }
+
+        /**
+         * 收集注入时会从容器中取出的bean名称, 与{@link #resolveInjectValue}的规则一致. 按类型注入时所有匹配的bean都算作依赖
+         *
+         * @param targetClass  注入目标类, 用于查找泛型
+         * @param dependencies 收集到这里
+         */
+        void collectDependencies(Class<?> targetClass, Collection<String> dependencies) {
+            for (int i = 0; i < autowireType.length; i++) {
+                //延迟注入的代理在调用时才获取, 不是创建时的依赖
+                if (lazys[i] && requiredClass[i].isInterface()) {
+                    continue;
+                }
+                if (requiredName[i] != null) {
+                    dependencies.add(applicationX.getBeanName(requiredName[i]));
+                }
+                if (autowireType[i] != BeanDefinition.AUTOWIRE_BY_NAME) {
+                    Class<?> autowireClass = getAutowireClass(i, targetClass);
+                    if (autowireClass != null && autowireClass != Object.class) {
+                        dependencies.addAll(Arrays.asList(applicationX.getBeanNamesForType(autowireClass)));
+                    }
+                }
+            }
+        }
+
+        /**
+         * 根据类型或名称从容器中取出一个注入参数. {@link #getInjectValues(Class)}与提前编译生成的代码{@link AotGenerator}都用这个方法, 保证规则一致.
+         * 池化(pooled)的bean注入的是代理, 每次调用方法时借出与归还, 见{@link ApplicationX#getInjectBean(String, Class, boolean)}
+         *
+         * @param applicationX   容器
+         * @param autowireType   {@link BeanDefinition#AUTOWIRE_BY_TYPE,BeanDefinition#AUTOWIRE_BY_NAME}
+         * @param requiredName   按名称注入的名称, 按类型注入时是限定的名称(例如@Qualifier), 可以为null
+         * @param autowireClass  按类型注入的类型, 按名称注入时为null
+         * @param required       是否是必须的
+         * @param index          参数下标, 用于错误信息
+         * @param member         成员或成员的描述, 用于错误信息
+         * @param declaringClass 成员所在的类, 用于错误信息
+         * @return 从容器中取出的bean
+         * @throws IllegalStateException 如果是必须的, 并且容器中不存在需要的bean. 或者池化的bean不能作为这个类型注入
+         */
+        public static Object resolveInjectValue(ApplicationX applicationX, int autowireType, String requiredName, Class<?> autowireClass,
+                                                boolean required, int index, Object member, Class<?> declaringClass) throws IllegalStateException {
+            Object injectResource = null;
+            Object desc;
+            switch (autowireType) {
+                case BeanDefinition.AUTOWIRE_BY_NAME: {
+                    desc = requiredName;
+                    injectResource = applicationX.getInjectBean(requiredName, null, false);
+                    break;
+                }
+                case BeanDefinition.AUTOWIRE_BY_TYPE:
+                default: {
+                    desc = autowireClass;
+                    if (requiredName != null) {
+                        Object byName = applicationX.getInjectBean(requiredName, null, false);
+                        if (byName != null && autowireClass.isAssignableFrom(byName.getClass())) {
+                            injectResource = byName;
+                        }
+                    }
+                    if (injectResource == null) {
+                        if (autowireClass == Object.class) {
+                            injectResource = null;
+                        } else if (isAbstract(autowireClass)) {
+                            List implList = applicationX.getBeanForType(autowireClass);
+                            int size = implList.size();
+                            if (size == 0) {
+                                injectResource = null;
+                            } else if (size == 1) {
+                                injectResource = implList.get(0);
+                            } else {
+                                injectResource = applicationX.getInjectBean(autowireClass, false);
+                            }
+                        } else {
+                            injectResource = applicationX.getInjectBean(autowireClass, false);
+                        }
+                    }
+                    break;
+                }
+            }
+            if (injectResource == null && required) {
+                throw new IllegalStateException("Required part[" + (index + 1) + "] '" + desc + "' is not present. member='" + member + "',class=" + declaringClass + ". Dependency annotations: Autowired(required=false)");
+            }
+            return injectResource;
+        }
+
+        /**
+         * 延迟注入(@Lazy). 注入一个实现了参数接口的代理, 第一次调用方法时才用{@link #resolveInjectValue}从容器中取出bean, 之后直接调用.
+         * 参数不是接口时不能代理, 与不延迟一样立即取出
+         *
+         * @param proxyInterface 参数的类型
+         * @return 代理
+         * @throws IllegalStateException 不是接口, 并且是必须的, 并且容器中不存在需要的bean
+         * @see #resolveInjectValue
+         */
+        public static Object resolveLazyInjectValue(ApplicationX applicationX, int autowireType, String requiredName, Class<?> autowireClass,
+                                                    boolean required, int index, Object member, Class<?> declaringClass,
+                                                    Class<?> proxyInterface) throws IllegalStateException {
+            if (!proxyInterface.isInterface()) {
+                return resolveInjectValue(applicationX, autowireType, requiredName, autowireClass, required, index, member, declaringClass);
+            }
+            //调用时一定要有bean, 所以是必须的
+            LazyResolutionHandler handler = new LazyResolutionHandler(() -> resolveInjectValue(applicationX, autowireType,
+                    requiredName, autowireClass, true, index, member, declaringClass));
+            return Proxy.newProxyInstance(proxyInterface.getClassLoader(), new Class<?>[]{proxyInterface}, handler);
+        }
+
+        /**
+         * 注入
+         *
+         * @param target      需要注入的实例
+         * @param targetClass 需要注入的原始类型,用于查找泛型
+         * @return 如果是方法, 则返回方法返回值. 如果是构造器,返回实例. 如果是字段返回null
+         * @throws IllegalStateException 注入异常
+         */
+        public Object inject(Object target, Class targetClass) throws IllegalStateException {
+            if (targetClass == null) {
+                targetClass = target.getClass();
+            }
+            if (this.member instanceof Field) {
+                Field field = (Field) this.member;
+                if (Modifier.isFinal(field.getModifiers())) {
+                    return null;
+                }
+                //获取注入的参数
+                Object[] values = getInjectValues(targetClass);
+                try {
+                    //调用java的字段赋值, 相当于this.field = value
+                    MemberAccessor.of(field).set(target, values[0]);
+                } catch (Throwable e) {
+                    throw new IllegalStateException("inject error=" + e + ". class=" + target.getClass() + ",field=" + this.member);
+                }
+            } else if (this.member instanceof Method) {
+                Method method = (Method) this.member;
+                Object[] values = getInjectValues(targetClass);
+                try {
+                    //调用java的方法, 相当于setValue(values)
+                    return MemberAccessor.of(method).invoke(target, values);
+                } catch (Throwable e) {
+                    throw new IllegalStateException("inject error=" + e + ". class=" + target.getClass() + ",method=" + this.member);
+                }
+            } else if (this.member instanceof Constructor) {
+                return newInstance(null);
+            }
+            return null;
+        }
+
+        public Object newInstance(Object[] args) throws IllegalStateException {
+            //不能创建枚举类
+            if (this.member.getDeclaringClass().isEnum()) {
+                return null;
+            }
+            if (!(this.member instanceof Constructor)) {
+                throw new IllegalStateException("member not instanceof Constructor!");
+            }
+            Constructor constructor = (Constructor) this.member;
+            //如果用户在getBean(name,args)没有传参数
+            if (args == null || args.length == 0) {
+                //获取注入的参数
+                args = getInjectValues(member.getDeclaringClass());
+            }
+            try {
+                //相当于 new MyBean(args)
+                return MemberAccessor.of(constructor).newInstance(args);
+            } catch (InvocationTargetException | IllegalArgumentException | ExceptionInInitializerError e) {
+                throw new IllegalStateException("inject error=" + e + ". method=" + this.member, e);
+            }
+        }
+    }
+
+    /**
+     * 没有ConcurrentReferenceHashMap时用的缓存. key是弱引用, value是软引用, 与spring的ConcurrentReferenceHashMap一样不会阻止回收.
+     * value通常也引用了key(例: Method[]引用了Class), value是强引用的话key永远不会被回收, 热加载后旧的类加载器也不会被回收.
+     */
+    static class ReferenceCacheMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+        private final Map<K, SoftReference<V>> map;
+
+        ReferenceCacheMap(int initialCapacity) {
+            this.map = Collections.synchronizedMap(new WeakHashMap<>(initialCapacity));
+        }
+
+        @Override
+        public V get(Object key) {
+            return unwrap(map.get(key));
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public V put(K key, V value) {
+            return unwrap(map.put(key, new SoftReference<>(Objects.requireNonNull(value))));
+        }
+
+        @Override
+        public V remove(Object key) {
+            return unwrap(map.remove(key));
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public V putIfAbsent(K key, V value) {
+            Objects.requireNonNull(value);
+            synchronized (map) {
+                V old = get(key);
+                if (old == null) {
+                    map.put(key, new SoftReference<>(value));
+                }
+                return old;
+            }
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            synchronized (map) {
+                V old = get(key);
+                if (old != null && old.equals(value)) {
+                    map.remove(key);
+                    return true;
+                }
+                return false;
+            }
+        }
+
+        @Override
+        public boolean replace(K key, V oldValue, V newValue) {
+            Objects.requireNonNull(newValue);
+            synchronized (map) {
+                V old = get(key);
+                if (old != null && old.equals(oldValue)) {
+                    map.put(key, new SoftReference<>(newValue));
+                    return true;
+                }
+                return false;
+            }
+        }
+
+        @Override
+        public V replace(K key, V value) {
+            Objects.requireNonNull(value);
+            synchronized (map) {
+                V old = get(key);
+                if (old != null) {
+                    map.put(key, new SoftReference<>(value));
+                }
+                return old;
+            }
+        }
+
+        /**
+         * 快照, 不包括已经被回收的value
          */
-        private final int[] autowireType;
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            Map<K, V> snapshot = new LinkedHashMap<>();
+            synchronized (map) {
+                for (Entry<K, SoftReference<V>> entry : map.entrySet()) {
+                    V value = unwrap(entry.getValue());
+                    if (value != null) {
+                        snapshot.put(entry.getKey(), value);
+                    }
+                }
+            }
+            return snapshot.entrySet();
+        }
+
+        private static <V> V unwrap(SoftReference<V> reference) {
+            return reference == null ? null : reference.get();
+        }
+    }
+
+    /**
+     * 字段,方法,构造器的调用器. 只在第一次解析时做访问检查并打开访问权限, 然后缓存,
+     * 以后调用时不再setAccessible(true/false)来回切换(多线程下来回切换也不安全).
+     * <p>
+     * 只有字段转成{@link MethodHandle}: (Object target, Object value)void, 比反射赋值快.
+     * 方法与构造器仍然用反射调用. 句柄存在字段里不会被内联, JDK8上展开Object[]参数(asSpreader)比反射慢,
+     * 按参数个数invokeExact也没有比反射快, 见 src/test/java/com/example/beanfactory/util/MemberAccessorBenchmark.java
+     * <p>
+     * 与反射一致, 成员本身抛出的异常包装成{@link InvocationTargetException}, Error直接抛出.
+     */
+    public static class MemberAccessor {
+        private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+        private static final Object[] EMPTY_ARGS = {};
+        private final Member member;
+        private final MethodHandle handle;
+
+        private MemberAccessor(Member member, MethodHandle handle) {
+            this.member = member;
+            this.handle = handle;
+        }
+
+        public static MemberAccessor of(Member member) throws IllegalStateException {
+            MemberAccessor accessor = MEMBER_ACCESSOR_CACHE_MAP.get(member);
+            if (accessor == null) {
+                accessor = new MemberAccessor(member, unreflect(member));
+                MEMBER_ACCESSOR_CACHE_MAP.put(member, accessor);
+            }
+            return accessor;
+        }
+
+        private static MethodHandle unreflect(Member member) throws IllegalStateException {
+            AccessibleObject accessibleObject = (AccessibleObject) member;
+            try {
+                //只打开一次, 不再恢复. 打开失败(比如模块没有开放)时按照原有的访问权限
+                accessibleObject.setAccessible(true);
+            } catch (RuntimeException e) {
+                //skip
+            }
+            try {
+                if (member instanceof Field) {
+                    MethodHandle handle = LOOKUP.unreflectSetter((Field) member);
+                    if (Modifier.isStatic(member.getModifiers())) {
+                        handle = MethodHandles.dropArguments(handle, 0, Object.class);
+                    }
+                    return handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+                } else if (member instanceof Method || member instanceof Constructor) {
+                    return null;
+                } else {
+                    throw new IllegalStateException("unsupported member " + member);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("unreflect error=" + e + ". member=" + member, e);
+            }
+        }
+
+        public Member getMember() {
+            return member;
+        }
+
         /**
-         * 这个参数是否是必须的 (会覆盖这些参数是否是必须的)
+         * 字段赋值, 相当于 target.field = value
+         *
+         * @param target 实例, 静态字段可以为null
+         * @param value  值
+         * @throws ClassCastException 类型不匹配
          */
-        private final Boolean[] requireds;
+        public void set(Object target, Object value) throws ClassCastException {
+            try {
+                handle.invokeExact(target, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                //字段赋值不会抛出受检异常
+                throw new UndeclaredThrowableException(e);
+            }
+        }
+
         /**
-         * 这个包含泛型注入的类型
+         * 调用方法, 相当于 target.method(args)
+         *
+         * @param target 实例, 静态方法可以为null
+         * @param args   参数
+         * @return 方法返回值, void方法返回null
+         * @throws IllegalAccessException    没有访问权限(没能打开访问权限时)
+         * @throws InvocationTargetException 方法抛出的异常
          */
-        private Type[] requiredType;
+        public Object invoke(Object target, Object[] args) throws IllegalAccessException, InvocationTargetException {
+            return ((Method) member).invoke(target, args == null ? EMPTY_ARGS : args);
+        }
+
         /**
-         * 这个如果是泛型注入,则Class会是Object, 所以需要requiredType
+         * 调用构造器, 相当于 new MyBean(args)
+         *
+         * @param args 参数
+         * @return 实例
+         * @throws InvocationTargetException 构造器抛出的异常
          */
-        private Class[] requiredClass;
+        public Object newInstance(Object[] args) throws InvocationTargetException {
+            try {
+                return ((Constructor<?>) member).newInstance(args == null ? EMPTY_ARGS : args);
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new InvocationTargetException(e);
+            }
+        }
+    }
+
+    /**
+     * 提前编译生成的容器初始化类, 由{@link AotGenerator}生成, 通过ServiceLoader加载.
+     * 存在扫描配置一致的初始化类时, {@link #scanner(ClassLoader, boolean, ScannerResult)}不再扫描类路径, 直接注册生成好的bean定义
+     */
+    public interface AotInitializer {
         /**
-         * 如果根据名称注入
+         * 生成时的扫描配置 {@link #getScanCacheKey()}, 与运行时不一致就不能使用
+         *
+         * @return 扫描配置
          */
-        private String[] requiredName;
+        String getScanKey();
+
         /**
-         * 这些参数是否是必须的
+         * 注册bean定义
+         *
+         * @param applicationX 容器
+         * @param result       扫描结果, 扫描到的bean定义放入{@link ScannerResult#getBeanDefinitionMap()}
          */
-        private Boolean required;
-
-        public InjectElement(Executable executable, ApplicationX applicationX) {
-            int parameterCount = executable.getParameterCount();
-            this.member = (T) executable;
-            this.applicationX = applicationX;
-            this.autowiredAnnotation = findDeclaredAnnotation(executable, applicationX.autowiredAnnotations, AUTOWIRED_ANNOTATION_CACHE_MAP);
-            this.autowireType = new int[parameterCount];
-            this.requiredClass = new Class[parameterCount];
-            this.requiredType = new Type[parameterCount];
-            this.requiredName = new String[parameterCount];
-            this.requireds = new Boolean[parameterCount];
+        void initialize(ApplicationX applicationX, ScannerResult result);
+    }
 
-            Parameter[] parameters = executable.getParameters();
-            for (int i = 0; i < parameterCount; i++) {
-                Parameter parameter = parameters[i];
-                this.requiredClass[i] = parameter.getType();
-                this.autowireType[i] = applicationX.findAutowireType(parameter);
-                switch (this.autowireType[i]) {
-                    default:
-                    case BeanDefinition.AUTOWIRE_BY_TYPE: {
-                        Annotation parameterInjectAnnotation = findDeclaredAnnotation(parameter, applicationX.autowiredAnnotations, AUTOWIRED_ANNOTATION_CACHE_MAP);
-                        this.requiredType[i] = findAnnotationDeclaredType(parameterInjectAnnotation, parameter.getParameterizedType());
+    /**
+     * 在编译时运行容器的分析(扫描, 选择构造器, 查找注入参数与@Bean工厂方法), 生成一个{@link AotInitializer}的java源码.
+     * 生成的代码用直接的Supplier(new与方法调用)创建bean, 运行时不需要扫描类路径, 也不需要反射选择构造器.
+     * <p>
+     * 用法: java -cp 类路径 com.example.beanfactory.util.ApplicationX$AotGenerator 源码目录 class目录 扫描包...
+     * 源码写入源码目录, 有编译器(JDK)时编译到class目录, 并写入META-INF/services.
+     * <p>
+     * 注: 字段与setter注入仍然在运行时用缓存的注入元数据完成. 不能直接访问的类与构造器(非public,内部类等), 仍然在运行时反射创建.
+     * 用了生成的Supplier后, getBean(name, args)传入的构造参数会被忽略.
+     */
+    public static class AotGenerator {
+        public static final String SERVICE_RESOURCE_LOCATION = "META-INF/services/" + AotInitializer.class.getName();
+        public static final String DEFAULT_CLASS_NAME = "ApplicationXAotInitializer";
+        private final ApplicationX applicationX;
+        private final String packageName;
+        private final String className;
 
-                        Annotation qualifierAnnotation = findDeclaredAnnotation(parameter, applicationX.qualifierAnnotations, QUALIFIER_ANNOTATION_CACHE_MAP);
-                        String autowiredBeanName = qualifierAnnotation != null ?
-                                getQualifierAnnotationValue(qualifierAnnotation) : null;
-                        this.requiredName[i] = autowiredBeanName;
-                        break;
-                    }
-                    case BeanDefinition.AUTOWIRE_BY_NAME: {
-                        Annotation qualifierAnnotation = findDeclaredAnnotation(parameter, applicationX.qualifierAnnotations, QUALIFIER_ANNOTATION_CACHE_MAP);
-                        String autowiredBeanName = qualifierAnnotation != null ?
-                                getQualifierAnnotationValue(qualifierAnnotation) : parameter.getName();
-                        this.requiredName[i] = autowiredBeanName;
-                        break;
-                    }
-                }
-                Annotation parameterAutowiredAnnotation = findDeclaredAnnotation(parameter, applicationX.autowiredAnnotations, AUTOWIRED_ANNOTATION_CACHE_MAP);
-                this.requireds[i] = parameterAutowiredAnnotation != null ?
-                        getAnnotationValue(parameterAutowiredAnnotation, "required", Boolean.class) : null;
-            }
-            if (this.autowiredAnnotation != null) {
-                this.required = getAnnotationValue(this.autowiredAnnotation, "required", Boolean.class);
-            }
+        public AotGenerator(ApplicationX applicationX, String packageName, String className) {
+            this.applicationX = Objects.requireNonNull(applicationX);
+            this.packageName = packageName == null ? "" : packageName;
+            this.className = Objects.requireNonNull(className);
         }
 
-        public InjectElement(Field field, ApplicationX applicationX) {
-            this.member = (T) field;
-            this.applicationX = applicationX;
-            this.autowiredAnnotation = findDeclaredAnnotation(field, applicationX.autowiredAnnotations, AUTOWIRED_ANNOTATION_CACHE_MAP);
-            this.autowireType = new int[]{applicationX.findAutowireType(field)};
-            this.requiredClass = new Class[]{field.getType()};
-            switch (this.autowireType[0]) {
-                default:
-                case BeanDefinition.AUTOWIRE_BY_TYPE: {
-                    this.requiredType = new Type[]{findAnnotationDeclaredType(this.autowiredAnnotation, field.getGenericType())};
-                }
-                case BeanDefinition.AUTOWIRE_BY_NAME: {
-                    Annotation qualifierAnnotation = findDeclaredAnnotation(field, applicationX.qualifierAnnotations, QUALIFIER_ANNOTATION_CACHE_MAP);
-                    String autowiredBeanName = qualifierAnnotation != null ?
-                            getQualifierAnnotationValue(qualifierAnnotation) : field.getName();
-                    this.requiredName = new String[]{autowiredBeanName};
-                    break;
-                }
-            }
-            if (this.autowiredAnnotation != null) {
-                this.required = getAnnotationValue(this.autowiredAnnotation, "required", Boolean.class);
+        public static void main(String[] args) throws IOException {
+            if (args.length < 3) {
+                System.err.println("usage: " + AotGenerator.class.getName() + " <sourceDirectory> <classesDirectory> <rootPackage>...");
+                return;
             }
-            this.requireds = new Boolean[]{this.required};
+            String[] rootPackages = Arrays.copyOfRange(args, 2, args.length);
+            ApplicationX applicationX = new ApplicationX();
+            applicationX.setAotInitializerEnabled(false);
+            ScannerResult result = applicationX.scanner(rootPackages);
+            AotGenerator generator = new AotGenerator(applicationX, rootPackages[0], DEFAULT_CLASS_NAME);
+            File sourceFile = generator.write(result, new File(args[0]), new File(args[1]));
+            System.out.println("generated " + sourceFile + " beans=" + result.getBeanDefinitionMap().size());
         }
 
-        private static String getQualifierAnnotationValue(Annotation qualifierAnnotation) {
-            return getAnnotationValue(qualifierAnnotation, QUALIFIER_FIELDS, String.class);
+        public String getQualifiedClassName() {
+            return packageName.isEmpty() ? className : packageName + "." + className;
         }
 
-        public static List<InjectElement<Field>> getInjectFields(Class rootClass, ApplicationX applicationX) {
-            List<InjectElement<Field>> list = new ArrayList<>();
-            for (Class clazz = rootClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
-                for (Field field : clazz.getDeclaredFields()) {
-                    //寻找打着注解的字段
-                    if (null != findDeclaredAnnotation(field, applicationX.autowiredAnnotations, AUTOWIRED_ANNOTATION_CACHE_MAP)) {
-                        InjectElement<Field> element = new InjectElement<>(field, applicationX);
-                        list.add(element);
-                    }
+        /**
+         * 写入源码, 有编译器时编译, 并写入ServiceLoader的配置文件
+         *
+         * @param result           扫描结果
+         * @param sourceDirectory  源码目录
+         * @param classesDirectory class目录
+         * @return 源码文件
+         * @throws IOException 写入失败
+         * @throws IllegalStateException 编译失败
+         */
+        public File write(ScannerResult result, File sourceDirectory, File classesDirectory) throws IOException {
+            File sourceFile = new File(sourceDirectory, getQualifiedClassName().replace('.', File.separatorChar) + ".java");
+            sourceFile.getParentFile().mkdirs();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(sourceFile), StandardCharsets.UTF_8)) {
+                writer.write(generate(result));
+            }
+            javax.tools.JavaCompiler compiler = javax.tools.ToolProvider.getSystemJavaCompiler();
+            if (compiler == null) {
+                System.err.println("no java compiler. compile " + sourceFile + " to " + classesDirectory + " manually");
+            } else {
+                classesDirectory.mkdirs();
+                int code = compiler.run(null, null, null, "-encoding", "UTF-8", "-nowarn",
+                        "-cp", classesDirectory.getPath() + File.pathSeparator + System.getProperty("java.class.path"),
+                        "-d", classesDirectory.getPath(), sourceFile.getPath());
+                if (code != 0) {
+                    throw new IllegalStateException("compile error. file=" + sourceFile + ",code=" + code);
                 }
             }
-            return list;
+            File serviceFile = new File(classesDirectory, SERVICE_RESOURCE_LOCATION);
+            serviceFile.getParentFile().mkdirs();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(serviceFile), StandardCharsets.UTF_8)) {
+                writer.write(getQualifiedClassName());
+                writer.write('\n');
+            }
+            return sourceFile;
         }
 
-        public static List<InjectElement<Method>> getInjectMethods(Class rootClass, ApplicationX applicationX) {
-            List<InjectElement<Method>> result = new ArrayList<>();
-            eachClass(rootClass, clazz -> {
+        /**
+         * 生成源码
+         *
+         * @param result 扫描结果, 没有inject()过的
+         * @return java源码
+         */
+        public String generate(ScannerResult result) {
+            StringBuilder body = new StringBuilder();
+            StringBuilder calls = new StringBuilder();
+            int index = 0;
+            //按名称排序, 每次生成的源码一样
+            for (Map.Entry<String, BeanDefinition> entry : new TreeMap<>(result.getBeanDefinitionMap()).entrySet()) {
+                String methodName = "register" + index++;
+                calls.append("        ").append(methodName).append("(applicationX, result);\n");
+                body.append('\n');
+                body.append("    private static void ").append(methodName).append("(ApplicationX applicationX, ApplicationX.ScannerResult result) {\n");
+                generateBean(body, entry.getKey(), entry.getValue());
+                body.append("    }\n");
+            }
+
+            StringBuilder source = new StringBuilder();
+            if (!packageName.isEmpty()) {
+                source.append("package ").append(packageName).append(";\n\n");
+            }
+            source.append("import com.example.beanfactory.util.ApplicationX;\n\n");
+            source.append("/**\n * Generated by ").append(AotGenerator.class.getName()).append(". Do not edit.\n */\n");
+            source.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+            source.append("public final class ").append(className).append(" implements ApplicationX.AotInitializer {\n\n");
+            source.append("    @Override\n    public String getScanKey() {\n");
+            source.append("        return ").append(toJavaString(applicationX.getScanCacheKey())).append(";\n    }\n\n");
+            source.append("    @Override\n    public void initialize(ApplicationX applicationX, ApplicationX.ScannerResult result) {\n");
+            source.append(calls);
+            source.append("    }\n");
+            source.append(body);
+            source.append("}\n");
+            return source.toString();
+        }
+
+        private void generateBean(StringBuilder out, String beanName, BeanDefinition definition) {
+            Class<?> beanClass = definition.getBeanClassIfResolve(applicationX.resourceLoader);
+            out.append("        ApplicationX.BeanDefinition definition = new ApplicationX.BeanDefinition();\n");
+            generateDefinition(out, "definition", beanClass, definition);
+            String supplier = generateConstructorSupplier(beanClass);
+            if (supplier != null) {
+                out.append("        definition.setBeanSupplier(").append(supplier).append(");\n");
+            }
+            out.append("        result.getBeanDefinitionMap().put(").append(toJavaString(beanName)).append(", definition);\n");
+
+            //与AutowiredConstructorPostProcessor.postProcessMergedBeanDefinition一样查找@Bean工厂方法
+            int[] factoryIndex = {0};
+            eachClass(beanClass, clazz -> {
                 for (Method method : getDeclaredMethods(clazz)) {
-                    //寻找打着注解的方法
-                    if (null != findDeclaredAnnotation(method, applicationX.autowiredAnnotations, AUTOWIRED_ANNOTATION_CACHE_MAP)) {
-                        result.add(new InjectElement<>(method, applicationX));
+                    Annotation factoryMethodAnnotation = findDeclaredAnnotation(method, applicationX.factoryMethodAnnotations, FACTORY_METHOD_ANNOTATION_CACHE_MAP);
+                    if (factoryMethodAnnotation != null) {
+                        generateFactoryMethod(out, method, factoryMethodAnnotation, beanName, beanClass, factoryIndex[0]++);
                     }
                 }
             });
-            return result;
         }
 
-        private static Class findConcreteClass(Class<?> parameterGenericClass, Class concreteChildClass) {
-            BiFunction<Type, Class<?>, Class<?>> findFunction = (generic, genericSuper) -> {
-                if (generic instanceof ParameterizedType) {
-                    for (Type actualTypeArgument : ((ParameterizedType) generic).getActualTypeArguments()) {
-                        if (actualTypeArgument instanceof Class
-                                && genericSuper.isAssignableFrom((Class<?>) actualTypeArgument)) {
-                            return (Class) actualTypeArgument;
-                        }
-                    }
-                }
-                return null;
-            };
-            Class<?> result = findFunction.apply(concreteChildClass.getGenericSuperclass(), parameterGenericClass);
-            if (result == null) {
-                for (Type genericInterface : concreteChildClass.getGenericInterfaces()) {
-                    if (null != (result = findFunction.apply(genericInterface, parameterGenericClass))) {
-                        break;
-                    }
-                }
+        private void generateDefinition(StringBuilder out, String variable, Class<?> beanClass, BeanDefinition definition) {
+            out.append("        ").append(variable).append(".setBeanClassName(").append(toJavaString(beanClass.getName())).append(");\n");
+            if (isAccessible(beanClass)) {
+                out.append("        ").append(variable).append(".setBeanClass(").append(beanClass.getCanonicalName()).append(".class);\n");
+            } else {
+                out.append("        ").append(variable).append(".getBeanClassIfResolve(applicationX.getResourceLoader());\n");
             }
-            return result == null ? parameterGenericClass : result;
-        }
-
-        private static Type findAnnotationDeclaredType(Annotation annotation, Type def) {
-            if (annotation == null) {
-                return def;
+            out.append("        ").append(variable).append(".setScope(").append(toJavaString(definition.getScope())).append(");\n");
+            if (definition.isLazyInit()) {
+                out.append("        ").append(variable).append(".setLazyInit(true);\n");
             }
-            Type annotationDeclaredType = getAnnotationValue(annotation, "type", Type.class);
-            if (annotationDeclaredType != null && annotationDeclaredType != Object.class) {
-                return annotationDeclaredType;
-            } else {
-                return def;
+            if (definition.isPrimary()) {
+                out.append("        ").append(variable).append(".setPrimary(true);\n");
+            }
+            if (definition.getInitMethodName() != null) {
+                out.append("        ").append(variable).append(".setInitMethodName(").append(toJavaString(definition.getInitMethodName())).append(");\n");
+            }
+            if (definition.getDestroyMethodName() != null) {
+                out.append("        ").append(variable).append(".setDestroyMethodName(").append(toJavaString(definition.getDestroyMethodName())).append(");\n");
             }
         }
 
         /**
-         * 会根据类型或名称调用getBean()方法, 返回需要的所有参数. {@link BeanDefinition#AUTOWIRE_BY_TYPE,BeanDefinition#AUTOWIRE_BY_NAME}
+         * 与DefaultBeanFactory.createBeanInstance一样选择构造器
          *
-         * @param targetClass 注入目标类
-         * @return 从容器中取出的多个bean
-         * @throws IllegalStateException 如果容器中不存在需要的bean
+         * @return Supplier的源码, 不能生成时返回null
          */
-        private Object[] getInjectValues(Class targetClass) throws IllegalStateException {
-            Boolean defaultRequired = this.required;
-            if (defaultRequired == null) {
-                defaultRequired = Boolean.FALSE;
+        private String generateConstructorSupplier(Class<?> beanClass) {
+            if (!isAccessible(beanClass) || isAbstract(beanClass) || beanClass.isEnum()
+                    || (beanClass.isMemberClass() && !Modifier.isStatic(beanClass.getModifiers()))) {
+                return null;
             }
-
-            Object[] values = new Object[autowireType.length];
-            for (int i = 0; i < autowireType.length; i++) {
-                Object injectResource = null;
-                Boolean required = requireds[i];
-                if (required == null) {
-                    required = defaultRequired;
-                }
-                Object desc;
-                switch (autowireType[i]) {
-                    case BeanDefinition.AUTOWIRE_BY_NAME: {
-                        desc = requiredName[i];
-                        injectResource = applicationX.getBean(requiredName[i], null, false);
-                        break;
-                    }
-                    case BeanDefinition.AUTOWIRE_BY_TYPE:
-                    default: {
-                        Class<?> autowireClass = requiredType[i] instanceof Class ?
-                                (Class) requiredType[i] : findConcreteClass(requiredClass[i], targetClass);
-                        desc = autowireClass;
-                        if (requiredName[i] != null) {
-                            Object byName = applicationX.getBean(requiredName[i], null, false);
-                            if (byName != null && autowireClass.isAssignableFrom(byName.getClass())) {
-                                injectResource = byName;
-                            }
-                        }
-                        if (injectResource == null) {
-                            if (autowireClass == Object.class) {
-                                injectResource = null;
-                            } else if (isAbstract(autowireClass)) {
-                                List implList = applicationX.getBeanForType(autowireClass);
-                                int size = implList.size();
-                                if (size == 0) {
-                                    injectResource = null;
-                                } else if (size == 1) {
-                                    injectResource = implList.get(0);
-                                } else {
-                                    injectResource = applicationX.getBean(autowireClass, null, false);
-                                }
-                            } else {
-                                injectResource = applicationX.getBean(autowireClass, null, false);
-                            }
-                        }
-                        break;
-                    }
-                }
-                if (injectResource == null && required) {
-                    throw new IllegalStateException("Required part[" + (i + 1) + "] '" + desc + "' is not present. member='" + member + "',class=" + member.getDeclaringClass() + ". Dependency annotations: Autowired(required=false)");
+            AutowiredConstructorPostProcessor postProcessor = applicationX.getAutowiredConstructorPostProcessor();
+            if (postProcessor == null) {
+                return null;
+            }
+            Constructor<?>[] ctors;
+            try {
+                ctors = postProcessor.determineCandidateConstructors(beanClass, beanClass.getName());
+            } catch (RuntimeException e) {
+                return null;
+            }
+            if (ctors == null) {
+                try {
+                    Constructor<?> constructor = beanClass.getDeclaredConstructor();
+                    return isAccessible(constructor) ? "() -> new " + beanClass.getCanonicalName() + "()" : null;
+                } catch (NoSuchMethodException e) {
+                    return null;
                 }
-                values[i] = injectResource;
             }
-            return values;
+            //多个候选构造器时运行时会依次尝试, 这里不生成
+            if (ctors.length != 1 || !isAccessible(ctors[0])) {
+                return null;
+            }
+            InjectElement<Constructor<?>> element = new InjectElement<>(ctors[0], applicationX);
+            boolean defaultRequired;
+            if (element.required != null) {
+                defaultRequired = element.required;
+            } else {
+                defaultRequired = !(applicationX.defaultBeanFactory instanceof DefaultBeanFactory)
+                        || ((DefaultBeanFactory) applicationX.defaultBeanFactory).defaultInjectRequiredConstructor;
+            }
+            String arguments = generateArguments(element, beanClass, defaultRequired);
+            return arguments == null ? null : "() -> new " + beanClass.getCanonicalName() + "(" + arguments + ")";
         }
 
         /**
-         * 注入
-         *
-         * @param target      需要注入的实例
-         * @param targetClass 需要注入的原始类型,用于查找泛型
-         * @return 如果是方法, 则返回方法返回值. 如果是构造器,返回实例. 如果是字段返回null
-         * @throws IllegalStateException 注入异常
+         * 与AutowiredConstructorPostProcessor.addBeanDefinition一样注册@Bean工厂方法的bean定义
          */
-        public Object inject(Object target, Class targetClass) throws IllegalStateException {
-            if (targetClass == null) {
-                targetClass = target.getClass();
+        private void generateFactoryMethod(StringBuilder out, Method method, Annotation factoryMethodAnnotation,
+                                           String factoryBeanName, Class<?> factoryBeanClass, int index) {
+            Class<?> returnType = method.getReturnType();
+            if (!isAccessible(method) || !isAccessible(method.getDeclaringClass()) || !isAccessible(returnType)) {
+                //运行时创建工厂bean时再反射注册
+                return;
             }
-            if (this.member instanceof Field) {
-                Field field = (Field) this.member;
-                if (Modifier.isFinal(field.getModifiers())) {
+            InjectElement<Method> element = new InjectElement<>(method, applicationX);
+            boolean defaultRequired = element.required != null ? element.required : false;
+            String arguments = generateArguments(element, factoryBeanClass, defaultRequired);
+            if (arguments == null) {
+                return;
+            }
+            String[] beanNames = getAnnotationValue(factoryMethodAnnotation, "value", String[].class);
+            List<String> beanNameList = beanNames == null || beanNames.length == 0 ?
+                    Collections.singletonList(method.getName()) : Arrays.asList(beanNames);
+            String variable = "factoryDefinition" + index;
+            String target = Modifier.isStatic(method.getModifiers()) ?
+                    method.getDeclaringClass().getCanonicalName() :
+                    "((" + method.getDeclaringClass().getCanonicalName() + ") factoryBean)";
+
+            BeanDefinition definition = applicationX.newBeanDefinition(returnType, method);
+            out.append("        ApplicationX.BeanDefinition ").append(variable).append(" = new ApplicationX.BeanDefinition();\n");
+            generateDefinition(out, variable, returnType, definition);
+            out.append("        ").append(variable).append(".setFactoryBeanName(").append(toJavaString(factoryBeanName)).append(");\n");
+            out.append("        ").append(variable).append(".setBeanSupplier(() -> {\n");
+            out.append("            Object factoryBean = applicationX.getBean(").append(toJavaString(factoryBeanName)).append(");\n");
+            out.append("            return ").append(target).append('.').append(method.getName()).append('(').append(arguments).append(");\n");
+            out.append("        });\n");
+            out.append("        applicationX.addBeanDefinition(").append(toJavaString(beanNameList.get(0))).append(", ").append(variable).append(");\n");
+            for (String alias : beanNameList.subList(1, beanNameList.size())) {
+                out.append("        applicationX.registerAlias(").append(toJavaString(beanNameList.get(0))).append(", ").append(toJavaString(alias)).append(");\n");
+            }
+        }
+
+        /**
+         * 生成注入参数的源码, 用{@link InjectElement#resolveInjectValue}按同样的规则取值
+         *
+         * @return 参数列表的源码, 有不能访问的类型时返回null
+         */
+        private String generateArguments(InjectElement<? extends Executable> element, Class<?> targetClass, boolean defaultRequired) {
+            Executable executable = element.member;
+            Class<?>[] parameterTypes = executable.getParameterTypes();
+            StringJoiner joiner = new StringJoiner(",\n                ");
+            for (int i = 0; i < parameterTypes.length; i++) {
+                Class<?> autowireClass = element.autowireType[i] == BeanDefinition.AUTOWIRE_BY_NAME ?
+                        null : element.getAutowireClass(i, targetClass);
+                if (!isAccessible(parameterTypes[i]) || (autowireClass != null && !isAccessible(autowireClass))) {
                     return null;
                 }
-                //获取注入的参数
-                Object[] values = getInjectValues(targetClass);
-                try {
-                    boolean accessible = field.isAccessible();
-                    try {
-                        //调用java的字段赋值, 相当于this.field = value
-                        field.setAccessible(true);
-                        field.set(target, values[0]);
-                    } finally {
-                        field.setAccessible(accessible);
-                    }
-                } catch (Throwable e) {
-                    throw new IllegalStateException("inject error=" + e + ". class=" + target.getClass() + ",field=" + this.member);
-                }
-            } else if (this.member instanceof Method) {
-                Method method = (Method) this.member;
-                Object[] values = getInjectValues(targetClass);
-                try {
-                    boolean accessible = method.isAccessible();
-                    try {
-                        //调用java的字段赋值, 相当于setValue(values)
-                        method.setAccessible(true);
-                        return method.invoke(target, values);
-                    } finally {
-                        method.setAccessible(accessible);
-                    }
-                } catch (Throwable e) {
-                    throw new IllegalStateException("inject error=" + e + ". class=" + target.getClass() + ",method=" + this.member);
-                }
-            } else if (this.member instanceof Constructor) {
-                return newInstance(null);
+                boolean required = element.requireds[i] != null ? element.requireds[i] : defaultRequired;
+                boolean lazy = element.lazys[i];
+                String cast = parameterTypes[i].isPrimitive() ? parameterTypes[i].getName() : parameterTypes[i].getCanonicalName();
+                joiner.add("(" + cast + ") ApplicationX.InjectElement." + (lazy ? "resolveLazyInjectValue" : "resolveInjectValue") + "(applicationX, "
+                        + element.autowireType[i] + ", "
+                        + (element.requiredName[i] == null ? "null" : toJavaString(element.requiredName[i])) + ", "
+                        + (autowireClass == null ? "null" : autowireClass.getCanonicalName() + ".class") + ", "
+                        + required + ", " + i + ", "
+                        + toJavaString(executable.toString()) + ", "
+                        + executable.getDeclaringClass().getCanonicalName() + ".class"
+                        + (lazy ? ", " + cast + ".class)" : ")"));
             }
-            return null;
+            return joiner.toString();
         }
 
-        public Object newInstance(Object[] args) throws IllegalStateException {
-            //不能创建枚举类
-            if (this.member.getDeclaringClass().isEnum()) {
-                return null;
+        /**
+         * 生成的类能否在源码中直接引用这个类
+         */
+        private boolean isAccessible(Class<?> type) {
+            while (type.isArray()) {
+                type = type.getComponentType();
             }
-            if (!(this.member instanceof Constructor)) {
-                throw new IllegalStateException("member not instanceof Constructor!");
+            if (type.isPrimitive()) {
+                return true;
             }
-            Constructor constructor = (Constructor) this.member;
-            //如果用户在getBean(name,args)没有传参数
-            if (args == null || args.length == 0) {
-                //获取注入的参数
-                args = getInjectValues(member.getDeclaringClass());
+            if (type.getCanonicalName() == null || type.isAnonymousClass() || type.isLocalClass()) {
+                return false;
             }
-            boolean accessible = constructor.isAccessible();
-            try {
-                //相当于 new MyBean(args)
-                constructor.setAccessible(true);
-                Object instance = constructor.newInstance(args);
-                return instance;
-            } catch (IllegalAccessException | InstantiationException |
-                    InvocationTargetException | IllegalArgumentException |
-                    ExceptionInInitializerError e) {
-                throw new IllegalStateException("inject error=" + e + ". method=" + this.member, e);
-            } finally {
-                constructor.setAccessible(accessible);
+            boolean samePackage = packageName.equals(getPackageName(type));
+            for (Class<?> clazz = type; clazz != null; clazz = clazz.getDeclaringClass()) {
+                int modifiers = clazz.getModifiers();
+                if (Modifier.isPrivate(modifiers) || (!Modifier.isPublic(modifiers) && !samePackage)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isAccessible(Member member) {
+            int modifiers = member.getModifiers();
+            return Modifier.isPublic(modifiers)
+                    || (!Modifier.isPrivate(modifiers) && packageName.equals(getPackageName(member.getDeclaringClass())));
+        }
+
+        private static String getPackageName(Class<?> clazz) {
+            String name = clazz.getName();
+            int index = name.lastIndexOf('.');
+            return index == -1 ? "" : name.substring(0, index);
+        }
+
+        private static String toJavaString(String value) {
+            StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        builder.append("\\\"");
+                        break;
+                    case '\\':
+                        builder.append("\\\\");
+                        break;
+                    case '\n':
+                        builder.append("\\n");
+                        break;
+                    case '\r':
+                        builder.append("\\r");
+                        break;
+                    case '\t':
+                        builder.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20 || c > 0x7E) {
+                            builder.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            builder.append(c);
+                        }
+                        break;
+                }
             }
+            return builder.append('"').toString();
         }
     }
 
@@ -1871,6 +7188,12 @@ public class ApplicationX {
     public static class BeanDefinition {
         public static final String SCOPE_SINGLETON = "singleton";
         public static final String SCOPE_PROTOTYPE = "prototype";
+        //池化, 借出的实例归还后可以复用, 见ApplicationX#returnBean
+        public static final String SCOPE_POOLED = "pooled";
+        //每个线程一个实例, 见ThreadBeanScope
+        public static final String SCOPE_THREAD = "thread";
+        //每个请求一个实例, 请求结束时销毁, 见ApplicationX#beginRequest,endRequest
+        public static final String SCOPE_REQUEST = "request";
         public static final int AUTOWIRE_NO = 0;
         public static final int AUTOWIRE_BY_NAME = 1;
         public static final int AUTOWIRE_BY_TYPE = 2;
@@ -1887,6 +7210,10 @@ public class ApplicationX {
         private Supplier<?> beanSupplier;
         private Object beanClass;
         private String beanClassName;
+        //工厂方法(@Bean)所在的bean名称
+        private String factoryBeanName;
+        //工厂方法(@Bean), 用于分析工厂方法参数的依赖
+        private Method factoryMethod;
         private String scope = SCOPE_SINGLETON;
         private boolean primary = false;
         private boolean lazyInit = false;
@@ -1897,6 +7224,16 @@ public class ApplicationX {
         private boolean allowCaching = true;
         //用于aop等代理对象
         private volatile Boolean beforeInstantiationResolved;
+        //第一次创建成功后选中的构造器, 以后创建时直接解析参数
+        volatile ResolvedConstructor resolvedConstructor;
+        //池化(pooled)时, 最多同时存在的实例数量(借出的与空闲的)
+        private int poolMaxSize = 8;
+        //池化(pooled)时, 空闲超过这个时间的实例会被销毁
+        private long poolMaxIdleMillis = 60000;
+        //池化(pooled)时, 实例都借出后等待归还的最长时间, 超时抛出异常
+        private long poolMaxWaitMillis = 3000;
+        //池化(pooled)时, 借出前检查实例是否可用, 不可用的会被销毁. 为null时不检查
+        private Predicate<Object> poolValidator;
 
         public BeanDefinition() {
         }
@@ -1937,6 +7274,10 @@ public class ApplicationX {
             return SCOPE_PROTOTYPE.equals(scope);
         }
 
+        public boolean isPooled() {
+            return SCOPE_POOLED.equals(scope);
+        }
+
         public boolean isLazyInit() {
             return lazyInit;
         }
@@ -1957,6 +7298,41 @@ public class ApplicationX {
             return scope;
         }
 
+        public int getPoolMaxSize() {
+            return poolMaxSize;
+        }
+
+        public void setPoolMaxSize(int poolMaxSize) {
+            if (poolMaxSize <= 0) {
+                throw new IllegalArgumentException("poolMaxSize must be greater than 0. poolMaxSize=" + poolMaxSize);
+            }
+            this.poolMaxSize = poolMaxSize;
+        }
+
+        public long getPoolMaxIdleMillis() {
+            return poolMaxIdleMillis;
+        }
+
+        public void setPoolMaxIdleMillis(long poolMaxIdleMillis) {
+            this.poolMaxIdleMillis = poolMaxIdleMillis;
+        }
+
+        public long getPoolMaxWaitMillis() {
+            return poolMaxWaitMillis;
+        }
+
+        public void setPoolMaxWaitMillis(long poolMaxWaitMillis) {
+            this.poolMaxWaitMillis = poolMaxWaitMillis;
+        }
+
+        public Predicate<Object> getPoolValidator() {
+            return poolValidator;
+        }
+
+        public void setPoolValidator(Predicate<Object> poolValidator) {
+            this.poolValidator = poolValidator;
+        }
+
         public void setScope(String scope) {
             this.scope = scope;
         }
@@ -2035,6 +7411,22 @@ public class ApplicationX {
             this.beanClassName = beanClassName;
         }
 
+        public String getFactoryBeanName() {
+            return factoryBeanName;
+        }
+
+        public void setFactoryBeanName(String factoryBeanName) {
+            this.factoryBeanName = factoryBeanName;
+        }
+
+        public Method getFactoryMethod() {
+            return factoryMethod;
+        }
+
+        public void setFactoryMethod(Method factoryMethod) {
+            this.factoryMethod = factoryMethod;
+        }
+
         public int getAutowireMode() {
             return this.autowireMode;
         }
@@ -2060,6 +7452,24 @@ public class ApplicationX {
         public ValueHolder(Object value) {
             this.value = value;
         }
+
+        public Object getValue() {
+            return converted ? convertedValue : value;
+        }
+    }
+
+    /**
+     * 缓存在BeanDefinition上的构造器选择结果. element为null表示用无参构造器
+     */
+    static class ResolvedConstructor {
+        final InjectElement<Constructor<?>> element;
+        //BeanDefinition#getConstructorArgumentValues, 下标与参数对应
+        final Object[] bindings;
+
+        ResolvedConstructor(InjectElement<Constructor<?>> element, Object[] bindings) {
+            this.element = element;
+            this.bindings = bindings;
+        }
     }
 
     public static class PropertyValues implements Iterable<PropertyValue> {
@@ -2189,6 +7599,8 @@ public class ApplicationX {
         private boolean defaultInjectRequiredField = true;
         //如果方法参数注入缺少参数, 是否抛出异常
         private boolean defaultInjectRequiredMethod = true;
+        //存放类与需要注入的字段,方法的关系. 每个类只解析一次
+        private final Map<Class<?>, InjectionMetadata> injectionMetadataCacheMap = newConcurrentReferenceMap(64);
 
         public AutowiredConstructorPostProcessor(ApplicationX applicationX) {
             this.applicationX = Objects.requireNonNull(applicationX);
@@ -2253,6 +7665,25 @@ public class ApplicationX {
          * @param beanClass 不是抽象的类型
          */
         private void inject(Object bean, Class beanClass) {
+            findInjectionMetadata(beanClass).inject(bean, beanClass);
+        }
+
+        /**
+         * 获取类需要注入的字段与方法, 每个类只解析一次
+         *
+         * @param beanClass 不是抽象的类型
+         * @return 注入元数据
+         */
+        public InjectionMetadata findInjectionMetadata(Class<?> beanClass) {
+            InjectionMetadata metadata = injectionMetadataCacheMap.get(beanClass);
+            if (metadata == null) {
+                metadata = buildInjectionMetadata(beanClass);
+                injectionMetadataCacheMap.put(beanClass, metadata);
+            }
+            return metadata;
+        }
+
+        private InjectionMetadata buildInjectionMetadata(Class<?> beanClass) {
             //获取需要注入的字段, 比如打过注解(@Autowired)的字段
             List<InjectElement<Field>> declaredFields = InjectElement.getInjectFields(beanClass, applicationX);
             //获取需要注入的方法. 比如打过注解(@Autowired)的setter方法.
@@ -2261,14 +7692,13 @@ public class ApplicationX {
                 if (element.required == null) {
                     element.required = defaultInjectRequiredField;
                 }
-                element.inject(bean, beanClass);
             }
             for (InjectElement<Method> element : declaredMethods) {
                 if (element.required == null) {
                     element.required = defaultInjectRequiredMethod;
                 }
-                element.inject(bean, beanClass);
             }
+            return new InjectionMetadata(beanClass, declaredFields, declaredMethods);
         }
 
         private void addBeanDefinition(Method method, Annotation factoryMethodAnnotation, String factoryBeanName, Class<?> factoryBeanClass) {
@@ -2277,8 +7707,16 @@ public class ApplicationX {
                     Arrays.asList(method.getName()) : Arrays.asList(beanNames));
             String beanName = beanNameList.pollFirst();
 
+            //提前编译时已经注册了这个工厂方法的bean定义
+            BeanDefinition existDefinition = applicationX.getBeanDefinition(applicationX.getBeanName(beanName));
+            if (existDefinition != null && existDefinition.getBeanSupplier() != null
+                    && factoryBeanName.equals(existDefinition.getFactoryBeanName())) {
+                return;
+            }
             BeanDefinition definition = applicationX.newBeanDefinition(method.getReturnType(), method);
             InjectElement<Method> element = new InjectElement<>(method, applicationX);
+            definition.setFactoryBeanName(factoryBeanName);
+            definition.setFactoryMethod(method);
             definition.setBeanSupplier(() -> {
                 Object bean = element.applicationX.getBean(factoryBeanName);
                 return element.inject(bean, factoryBeanClass);
@@ -2473,11 +7911,25 @@ public class ApplicationX {
 
     public class ScannerResult {
         private final AtomicInteger classCount = new AtomicInteger();
-        private final Set<ClassLoader> classLoaders = new LinkedHashSet<>();
+        private final AtomicInteger skipClassCount = new AtomicInteger();
+        private final AtomicInteger cacheHitCount = new AtomicInteger();
+        private final AtomicInteger cacheMissCount = new AtomicInteger();
+        private final Set<ClassLoader> classLoaders = Collections.synchronizedSet(new LinkedHashSet<>());
         private final Set<URL> tempUrls = new LinkedHashSet<>();
-        private final Set<URL> classUrls = new LinkedHashSet<>();
+        private final Set<URL> classUrls = Collections.synchronizedSet(new LinkedHashSet<>());
         private final Map<String, BeanDefinition> beanDefinitionMap = new ConcurrentHashMap<>(64);
         private final Map<Class, Boolean> scannerAnnotationCacheMap = new ConcurrentHashMap<>(64);
+        private final Map<String, Boolean> scannerAnnotationNameCacheMap = new ConcurrentHashMap<>(64);
+        private final ScanStatistics statistics = new ScanStatistics();
+        private final Map<URL, ScanStatistics> urlStatisticsMap = Collections.synchronizedMap(new LinkedHashMap<>());
+        private final Map<URL, ClassLoader> urlClassLoaderMap = new ConcurrentHashMap<>();
+        private ScanCache scanCache;
+        //一次scanUrls中打开的外层jar包, 扫描结束后释放
+        private Scanner.ArchiveCache archiveCache;
+        private ClassListRecorder classListRecorder;
+        private long loadedClassCountBegin;
+        private long loadedClassCountEnd;
+        //System.nanoTime(), 只能用来计算时间差
         public long scannerBeginTimestamp;
         public long scannerEndTimestamp;
         public long injectBeginTimestamp;
@@ -2487,6 +7939,242 @@ public class ApplicationX {
             return classCount;
         }
 
+        /**
+         * 读取字节码后, 因为没有扫描注解而没有加载的类的数量
+         *
+         * @return 跳过的类的数量
+         */
+        public AtomicInteger getSkipClassCount() {
+            return skipClassCount;
+        }
+
+        /**
+         * 类路径没有变化, 直接使用了扫描缓存的数量
+         *
+         * @return 命中缓存的jar包或目录的数量
+         */
+        public AtomicInteger getCacheHitCount() {
+            return cacheHitCount;
+        }
+
+        /**
+         * 类路径有变化或不在缓存中, 重新扫描的数量
+         *
+         * @return 没有命中缓存的jar包或目录的数量
+         */
+        public AtomicInteger getCacheMissCount() {
+            return cacheMissCount;
+        }
+
+        /**
+         * 读取的字节数. jar包中央目录的大小与读取的class文件的大小
+         *
+         * @return 字节数
+         */
+        public long getBytesRead() {
+            return statistics.getBytesRead();
+        }
+
+        /**
+         * 访问的jar包条目与目录条目的数量
+         *
+         * @return 条目数量
+         */
+        public long getEntryCount() {
+            return statistics.getEntryCount();
+        }
+
+        /**
+         * @return 汇总的统计数据
+         */
+        public ScanStatistics getStatistics() {
+            return statistics;
+        }
+
+        /**
+         * 获取一个类路径的统计数据
+         *
+         * @param url 类路径, 如果是null则返回汇总的统计数据
+         * @return 统计数据
+         */
+        public ScanStatistics getStatistics(URL url) {
+            if (url == null) {
+                return statistics;
+            }
+            return urlStatisticsMap.computeIfAbsent(url, k -> new ScanStatistics(k, statistics));
+        }
+
+        /**
+         * @return 每个类路径的统计数据, 按照开始扫描的顺序
+         */
+        public Collection<ScanStatistics> getUrlStatistics() {
+            synchronized (urlStatisticsMap) {
+                return new ArrayList<>(urlStatisticsMap.values());
+            }
+        }
+
+        public long getScannerNanos() {
+            return scannerEndTimestamp - scannerBeginTimestamp;
+        }
+
+        /**
+         * scanner开始到inject结束期间JVM加载的类的数量(包括不是bean的类).
+         * 只在开启{@link #setClassListRecording(boolean)}时统计
+         *
+         * @return 类的数量, 还没有inject或没有开启记录时是0
+         */
+        public long getLoadedClassCount() {
+            return loadedClassCountEnd == 0 ? 0 : loadedClassCountEnd - loadedClassCountBegin;
+        }
+
+        /**
+         * 获取记录的类列表, 需要开启{@link #setClassListRecording(boolean)}
+         *
+         * @return 按照加载顺序的类名, 例: com/example/Foo
+         */
+        public List<String> getClassList() {
+            if (classListRecorder == null) {
+                throw new IllegalStateException("class list is not recording. see ApplicationX#setClassListRecording");
+            }
+            return classListRecorder.getClassList();
+        }
+
+        /**
+         * 写入-XX:SharedClassListFile格式的类列表. 用法:
+         * <pre>
+         * java -Xshare:dump -XX:SharedClassListFile=app.classlist -XX:SharedArchiveFile=app.jsa -cp ...
+         * java -Xshare:auto -XX:SharedArchiveFile=app.jsa -cp ...
+         * </pre>
+         * 注: JDK8需要 -XX:+UnlockCommercialFeatures -XX:+UseAppCDS, JDK10以上可以直接使用. 归档只支持jar包类路径, 不支持目录.
+         *
+         * @param file 类列表文件
+         * @throws IOException 写入异常
+         */
+        public void writeClassList(File file) throws IOException {
+            //JDK自带的类列表放在前面, 否则使用归档后JDK的类反而不能共享了
+            Set<String> classList = new LinkedHashSet<>();
+            File jdkClassList = new File(System.getProperty("java.home"), "lib" + File.separator + "classlist");
+            if (jdkClassList.isFile()) {
+                for (String line : Files.readAllLines(jdkClassList.toPath(), StandardCharsets.UTF_8)) {
+                    if (!line.isEmpty() && !line.startsWith("#") && !line.startsWith("@")) {
+                        classList.add(line);
+                    }
+                }
+            }
+            classList.addAll(getClassList());
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                for (String className : classList) {
+                    writer.write(className);
+                    writer.write('\n');
+                }
+            }
+        }
+
+        /**
+         * 在报告文件中追加这次启动的耗时, 并返回使用AppCDS归档与不使用时的平均启动耗时对比.
+         * 分别用与不用-XX:SharedArchiveFile启动几次后, 就可以看到归档的效果.
+         *
+         * @param file 报告文件(csv)
+         * @return 对比结果
+         * @throws IOException 读写异常
+         */
+        public String writeStartupReport(File file) throws IOException {
+            boolean sharedArchive = isSharedArchiveEnabled();
+            long uptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+            boolean exists = file.exists();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+                if (!exists) {
+                    writer.write("sharedArchive,uptimeMillis,scannerNanos,injectNanos,loadedClassCount\n");
+                }
+                writer.write(sharedArchive + "," + uptimeMillis + "," + getScannerNanos() + "," + getInjectNanos() + "," + getLoadedClassCount() + "\n");
+            }
+            //按照是否使用归档分组求平均值
+            long[][] sums = new long[2][5];
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                String[] columns = line.split(",");
+                if (columns.length != 5 || !("true".equals(columns[0]) || "false".equals(columns[0]))) {
+                    continue;
+                }
+                long[] sum = sums["true".equals(columns[0]) ? 1 : 0];
+                sum[0]++;
+                for (int i = 1; i < columns.length; i++) {
+                    sum[i] += Long.parseLong(columns[i].trim());
+                }
+            }
+            StringBuilder builder = new StringBuilder("StartupReport{");
+            String[] names = {"without archive", "with archive"};
+            for (int i = 0; i < sums.length; i++) {
+                long[] sum = sums[i];
+                builder.append(i == 0 ? "" : ", ").append(names[i]).append("=");
+                if (sum[0] == 0) {
+                    builder.append("none");
+                    continue;
+                }
+                builder.append(sum[0]).append(" runs")
+                        .append(" uptime=").append(sum[1] / sum[0]).append("ms")
+                        .append(" scanner=").append(sum[2] / sum[0] / 1000_000).append("ms")
+                        .append(" inject=").append(sum[3] / sum[0] / 1000_000).append("ms")
+                        .append(" loadedClass=").append(sum[4] / sum[0]);
+            }
+            if (sums[0][0] > 0 && sums[1][0] > 0) {
+                double without = (double) sums[0][1] / sums[0][0];
+                double with = (double) sums[1][1] / sums[1][0];
+                builder.append(", uptime change=").append(String.format(Locale.ROOT, "%+.1f%%", (with - without) * 100 / without));
+            }
+            return builder.append('}').toString();
+        }
+
+        private boolean isSharedArchiveEnabled() {
+            //归档加载失败时JVM会关闭共享, java.vm.info中就没有sharing了
+            if (!System.getProperty("java.vm.info", "").contains("sharing")) {
+                return false;
+            }
+            for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+                if (argument.startsWith("-XX:SharedArchiveFile=")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public long getInjectNanos() {
+            return injectEndTimestamp - injectBeginTimestamp;
+        }
+
+        /**
+         * @return 每秒扫描的类的数量
+         */
+        public double getClassesPerSecond() {
+            long nanos = getScannerNanos();
+            return nanos <= 0 ? 0 : classCount.get() * 1_000_000_000D / nanos;
+        }
+
+        /**
+         * 以JSON格式输出所有的统计数据
+         *
+         * @return JSON
+         */
+        public String toJson() {
+            StringBuilder builder = new StringBuilder(256);
+            builder.append("{\"classCount\":").append(classCount)
+                    .append(",\"skipClassCount\":").append(skipClassCount)
+                    .append(",\"cacheHitCount\":").append(cacheHitCount)
+                    .append(",\"cacheMissCount\":").append(cacheMissCount)
+                    .append(",\"scannerNanos\":").append(getScannerNanos())
+                    .append(",\"injectNanos\":").append(getInjectNanos())
+                    .append(",\"classesPerSecond\":").append(String.format(Locale.ROOT, "%.1f", getClassesPerSecond()))
+                    .append(",\"total\":").append(statistics.toJson())
+                    .append(",\"urls\":[");
+            int i = 0;
+            for (ScanStatistics urlStatistics : getUrlStatistics()) {
+                if (i++ > 0) {
+                    builder.append(',');
+                }
+                builder.append(urlStatistics.toJson());
+            }
+            return builder.append("]}").toString();
+        }
+
         public Set<ClassLoader> getClassLoaders() {
             return classLoaders;
         }
@@ -2495,6 +8183,16 @@ public class ApplicationX {
             return classUrls;
         }
 
+        /**
+         * 获取加载这个类路径中的类时使用的类加载器
+         *
+         * @param url 类路径
+         * @return 类加载器, 没有扫描过返回null
+         */
+        public ClassLoader getClassLoader(URL url) {
+            return urlClassLoaderMap.get(url);
+        }
+
         public Map<String, BeanDefinition> getBeanDefinitionMap() {
             return beanDefinitionMap;
         }
@@ -2507,8 +8205,22 @@ public class ApplicationX {
             BiPredicate<ClassLoader, URL> filter = getResourceLoaderUrlFilter();
             if (filter.test(loader, url)) {
                 classLoaders.add(loader);
-                classUrls.add(url);
-                tempUrls.add(url);
+                //同一个路径可能在多个类加载器中出现, 只扫描一次
+                URL canonicalUrl = toCanonicalUrl(url);
+                if (classUrls.add(canonicalUrl)) {
+                    tempUrls.add(canonicalUrl);
+                }
+            }
+        }
+
+        private URL toCanonicalUrl(URL url) {
+            if (!"file".equals(url.getProtocol())) {
+                return url;
+            }
+            try {
+                return new File(url.toURI()).getCanonicalFile().toURI().toURL();
+            } catch (URISyntaxException | IOException | IllegalArgumentException e) {
+                return url;
             }
         }
 
@@ -2517,7 +8229,7 @@ public class ApplicationX {
         }
 
         public int inject(boolean lazy) {
-            this.injectBeginTimestamp = System.currentTimeMillis();
+            this.injectBeginTimestamp = System.nanoTime();
             try {
                 LinkedList<String> beanNameList = new LinkedList<>();
                 for (Map.Entry<String, BeanDefinition> entry : beanDefinitionMap.entrySet()) {
@@ -2534,15 +8246,26 @@ public class ApplicationX {
                     }
                 }
                 if (!lazy) {
-                    for (String beanName : beanNameList) {
-                        getBean(beanName, null, true);
+                    if (injectParallelism > 1 && beanNameList.size() > 1) {
+                        preInstantiateSingletons(beanNameList, injectParallelism);
+                    } else {
+                        for (String beanName : beanNameList) {
+                            getBean(beanName, null, true);
+                        }
                     }
                 }
                 beanDefinitionMap.clear();
                 scannerAnnotationCacheMap.clear();
+                scannerAnnotationNameCacheMap.clear();
                 return beanNameList.size();
             } finally {
-                this.injectEndTimestamp = System.currentTimeMillis();
+                this.injectEndTimestamp = System.nanoTime();
+                if (classListRecorder != null) {
+                    this.loadedClassCountEnd = ManagementFactory.getClassLoadingMXBean().getTotalLoadedClassCount();
+                    if (classListRecorder == ApplicationX.this.classListRecorder) {
+                        ApplicationX.this.classListRecorder = null;
+                    }
+                }
             }
         }
     }
@@ -2602,7 +8325,7 @@ public class ApplicationX {
             if (earlySingletonExposure) {
                 //这里与spring实现的不一样， spring原本是addSingletonFactory(beanName, () -> getEarlyBeanReference(beanName, mbd, bean));
                 //spring加的单例工厂在bean创建完后还是要删掉的, 而且代码量太大. 这里就不具体实现了,简单实现一下.
-                addSingleton(beanName, exposedObject);
+                addEarlySingleton(beanName, exposedObject);
             }
 
             //填充bean属性, 也就是自动注入.与PostProcessor事件
@@ -2682,13 +8405,23 @@ public class ApplicationX {
                 beanInstance = beanSupplier.get();
             } else {
                 Class<?> beanClass = resolveBeanClass(beanName, definition, resourceLoader);
-                //选出候选的构造方法,并排列好顺序, 如果需要用无参构造方法,则需要返回null.
-                Constructor<?>[] ctors = determineConstructorsFromBeanPostProcessors(beanClass, beanName);
-                if (ctors != null
-                        || definition.getAutowireMode() == BeanDefinition.AUTOWIRE_CONSTRUCTOR
-                        || definition.getConstructorArgumentValues().size() > 0
-                        || (args != null && args.length > 0)) {
-                    return autowireConstructor(beanName, definition, ctors, args);
+                boolean explicitArgs = args != null && args.length > 0;
+                ResolvedConstructor resolved = explicitArgs ? null : definition.resolvedConstructor;
+                if (resolved != null && resolved.element != null) {
+                    return autowireConstructor(beanName, definition, resolved);
+                }
+                if (resolved == null) {
+                    //选出候选的构造方法,并排列好顺序, 如果需要用无参构造方法,则需要返回null.
+                    Constructor<?>[] ctors = determineConstructorsFromBeanPostProcessors(beanClass, beanName);
+                    if (ctors != null
+                            || definition.getAutowireMode() == BeanDefinition.AUTOWIRE_CONSTRUCTOR
+                            || definition.getConstructorArgumentValues().size() > 0
+                            || explicitArgs) {
+                        return autowireConstructor(beanName, definition, ctors != null ? ctors : beanClass.getDeclaredConstructors(), args);
+                    }
+                    if (definition.allowCaching) {
+                        definition.resolvedConstructor = new ResolvedConstructor(null, null);
+                    }
                 }
                 //用无参构造创建实例
                 beanInstance = newInstance(beanClass);
@@ -2699,27 +8432,87 @@ public class ApplicationX {
             return bw;
         }
 
+        /**
+         * 依次尝试候选构造器, 用第一个参数能满足的构造器创建实例.
+         * 没有传入参数时, 把选中的构造器缓存到BeanDefinition上, 以后创建时不再选择
+         */
         protected BeanWrapper autowireConstructor(String beanName, BeanDefinition mbd, Constructor<?>[] ctors, Object[] explicitArgs) throws IllegalStateException {
-            int errorCount = 0;
+            boolean hasExplicitArgs = explicitArgs != null && explicitArgs.length > 0;
+            Object[] bindings = hasExplicitArgs ? explicitArgs : getConstructorArgumentBindings(mbd);
             for (Constructor<?> constructor : ctors) {
+                //不能创建枚举类
+                if (constructor.getDeclaringClass().isEnum()) {
+                    continue;
+                }
                 InjectElement<Constructor<?>> element = new InjectElement<>(constructor, ApplicationX.this);
-                try {
-                    if (element.required == null) {
-                        element.required = defaultInjectRequiredConstructor;
-                    }
-                    Object beanInstance = element.newInstance(explicitArgs);
-                    if (beanInstance != null) {
-                        BeanWrapper bw = new BeanWrapper(beanInstance);
-                        initBeanWrapper(bw);
-                        return bw;
-                    }
-                } catch (IllegalStateException e) {
-                    errorCount++;
+                if (element.required == null) {
+                    element.required = defaultInjectRequiredConstructor;
                 }
+                Object[] args;
+                if (hasExplicitArgs) {
+                    args = isArgumentsMatch(constructor, explicitArgs) ? explicitArgs : null;
+                } else {
+                    args = element.findInjectValues(constructor.getDeclaringClass(), bindings);
+                }
+                if (args == null) {
+                    continue;
+                }
+                Object beanInstance = element.newInstance(args);
+                if (!hasExplicitArgs && mbd.allowCaching) {
+                    mbd.resolvedConstructor = new ResolvedConstructor(element, bindings);
+                }
+                BeanWrapper bw = new BeanWrapper(beanInstance);
+                initBeanWrapper(bw);
+                return bw;
             }
             throw new IllegalStateException("can not create instances. " + Arrays.toString(ctors) + ". " + singletonsCurrentlyInCreation);
         }
 
+        /**
+         * 用缓存的构造器创建实例, 只解析参数
+         */
+        protected BeanWrapper autowireConstructor(String beanName, BeanDefinition mbd, ResolvedConstructor resolved) throws IllegalStateException {
+            Constructor<?> constructor = resolved.element.member;
+            Object[] args = resolved.element.findInjectValues(constructor.getDeclaringClass(), resolved.bindings);
+            if (args == null) {
+                //需要的bean没有了(例如被删除), 重新选择构造器
+                mbd.resolvedConstructor = null;
+                return createBeanInstance(beanName, mbd, null);
+            }
+            BeanWrapper bw = new BeanWrapper(resolved.element.newInstance(args));
+            initBeanWrapper(bw);
+            return bw;
+        }
+
+        private Object[] getConstructorArgumentBindings(BeanDefinition mbd) {
+            Map<Integer, ValueHolder> argumentValues = mbd.getConstructorArgumentValues();
+            if (argumentValues.isEmpty()) {
+                return null;
+            }
+            int length = 0;
+            for (Integer index : argumentValues.keySet()) {
+                length = Math.max(length, index + 1);
+            }
+            Object[] bindings = new Object[length];
+            for (Map.Entry<Integer, ValueHolder> entry : argumentValues.entrySet()) {
+                bindings[entry.getKey()] = entry.getValue().getValue();
+            }
+            return bindings;
+        }
+
+        private boolean isArgumentsMatch(Constructor<?> constructor, Object[] args) {
+            Class<?>[] parameterTypes = constructor.getParameterTypes();
+            if (parameterTypes.length != args.length) {
+                return false;
+            }
+            for (int i = 0; i < parameterTypes.length; i++) {
+                if (!isAssignableValue(parameterTypes[i], args[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
         protected Constructor<?>[] determineConstructorsFromBeanPostProcessors(Class<?> beanClass, String beanName)
                 throws RuntimeException {
             for (BeanPostProcessor bp : new ArrayList<>(beanPostProcessors)) {
@@ -2869,7 +8662,7 @@ public class ApplicationX {
 
         private <T> T newInstance(Class<T> clazz) throws IllegalStateException {
             try {
-                Object instance = clazz.getDeclaredConstructor().newInstance();
+                Object instance = MemberAccessor.of(clazz.getDeclaredConstructor()).newInstance(null);
                 return (T) instance;
             } catch (Exception e) {
                 throw new IllegalStateException("newInstanceByJdk error=" + e, e);
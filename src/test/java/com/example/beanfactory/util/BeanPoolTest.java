@@ -0,0 +1,227 @@
+package com.example.beanfactory.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ApplicationX.BeanPool}
+ */
+public class BeanPoolTest {
+    private ApplicationX app;
+
+    @Before
+    public void setUp() {
+        Worker.createCount.set(0);
+        Worker.destroyCount.set(0);
+        app = new ApplicationX();
+        app.addBeanDefinition("worker", pooled(Worker.class, 2));
+    }
+
+    private ApplicationX.BeanDefinition pooled(Class<?> beanClass, int maxSize) {
+        ApplicationX.BeanDefinition definition = app.newBeanDefinition(beanClass);
+        definition.setScope(ApplicationX.BeanDefinition.SCOPE_POOLED);
+        definition.setPoolMaxSize(maxSize);
+        definition.setPoolMaxWaitMillis(50);
+        return definition;
+    }
+
+    private void addHolder(String beanName) {
+        ApplicationX.BeanDefinition definition = app.newBeanDefinition(Holder.class);
+        definition.setScope(ApplicationX.BeanDefinition.SCOPE_PROTOTYPE);
+        app.addBeanDefinition(beanName, definition);
+    }
+
+    @Test
+    public void borrowAndReturn() {
+        Worker first = app.getBean("worker");
+        Worker second = app.getBean("worker");
+        assertNotSame(first, second);
+        ApplicationX.BeanPool pool = app.getBeanPool("worker");
+        assertEquals(2, pool.getActiveCount());
+        assertEquals(2, pool.getMissCount());
+
+        assertTrue(app.returnBean("worker", first));
+        //归还过的不能再归还
+        assertFalse(app.returnBean("worker", first));
+        assertFalse(app.returnBean("worker", new Object()));
+        assertEquals(1, pool.getIdleCount());
+
+        //后归还的先借出
+        assertSame(first, app.getBean("worker"));
+        assertEquals(1, pool.getHitCount());
+        assertEquals(2, Worker.createCount.get());
+    }
+
+    @Test
+    public void exhausted() {
+        app.getBean("worker");
+        app.getBean("worker");
+        try {
+            app.getBean("worker");
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("exhausted"));
+        }
+        assertEquals(1, app.getBeanPool("worker").getWaitCount());
+    }
+
+    @Test
+    public void evictIdle() throws InterruptedException {
+        ApplicationX.BeanDefinition definition = pooled(Worker.class, 2);
+        definition.setPoolMaxIdleMillis(10);
+        app.addBeanDefinition("worker", definition);
+
+        Worker worker = app.getBean("worker");
+        app.returnBean("worker", worker);
+        Thread.sleep(50);
+        app.evictIdleBeans();
+        ApplicationX.BeanPool pool = app.getBeanPool("worker");
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, pool.getEvictCount());
+        assertEquals(1, Worker.destroyCount.get());
+        assertNotSame(worker, app.getBean("worker"));
+    }
+
+    @Test
+    public void validator() {
+        ApplicationX.BeanDefinition definition = pooled(Worker.class, 2);
+        definition.setPoolValidator(bean -> !((Worker) bean).broken);
+        app.addBeanDefinition("worker", definition);
+
+        Worker worker = app.getBean("worker");
+        worker.broken = true;
+        app.returnBean("worker", worker);
+        Worker next = app.getBean("worker");
+        assertNotSame(worker, next);
+        ApplicationX.BeanPool pool = app.getBeanPool("worker");
+        assertEquals(1, pool.getInvalidCount());
+        assertEquals(1, Worker.destroyCount.get());
+    }
+
+    @Test
+    public void preDestroy() {
+        Worker first = app.getBean("worker");
+        Worker second = app.getBean("worker");
+        app.returnBean("worker", first);
+
+        //关闭时销毁空闲的实例, 之后归还的实例也销毁
+        app.getBeanPool("worker").close();
+        assertEquals(1, Worker.destroyCount.get());
+        assertTrue(app.returnBean("worker", second));
+        assertEquals(2, Worker.destroyCount.get());
+
+        app.addBeanDefinition("worker", pooled(Worker.class, 2));
+        app.returnBean("worker", app.getBean("worker"));
+        app.removeBeanDefinition("worker");
+        assertEquals(3, Worker.destroyCount.get());
+        assertNull(app.getBeanPool("worker"));
+    }
+
+    @Test
+    public void injectProxy() {
+        //注入的是代理, 持有者不占用池中的实例
+        addHolder("holder1");
+        addHolder("holder2");
+        addHolder("holder3");
+        Holder holder1 = app.getBean("holder1");
+        Holder holder2 = app.getBean("holder2");
+        Holder holder3 = app.getBean("holder3");
+        assertSame(holder1.task, holder2.task);
+        assertSame(holder1.task, holder3.task);
+        assertEquals("PooledProxy(worker)", holder1.task.toString());
+        assertEquals(0, Worker.createCount.get());
+
+        assertEquals("run", holder1.task.run());
+        assertEquals("run", holder2.task.run());
+        assertEquals("run", holder3.task.run());
+        ApplicationX.BeanPool pool = app.getBeanPool("worker");
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, Worker.createCount.get());
+    }
+
+    @Test
+    public void injectProxyReturnOnException() {
+        addHolder("holder");
+        Holder holder = app.getBean("holder");
+        try {
+            holder.task.fail();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            //skip
+        }
+        assertEquals(0, app.getBeanPool("worker").getActiveCount());
+    }
+
+    @Test
+    public void getBeanForType() {
+        List<Task> tasks = app.getBeanForType(Task.class);
+        assertEquals(1, tasks.size());
+        assertEquals("run", tasks.get(0).run());
+        assertEquals(0, app.getBeanPool("worker").getActiveCount());
+
+        //类型不是接口时不能代理
+        try {
+            app.getBeanForType(Worker.class);
+            fail();
+        } catch (IllegalStateException e) {
+            //skip
+        }
+    }
+
+    @Test
+    public void registerWithoutInterface() {
+        //没有接口不能注入代理, 注册时就报错
+        try {
+            app.addBeanDefinition("plainWorker", pooled(PlainWorker.class, 2));
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("plainWorker"));
+        }
+        assertNull(app.getBeanDefinition("plainWorker"));
+    }
+
+    public interface Task {
+        String run();
+
+        void fail();
+    }
+
+    public static class Worker implements Task {
+        static final AtomicInteger createCount = new AtomicInteger();
+        static final AtomicInteger destroyCount = new AtomicInteger();
+        boolean broken;
+
+        public Worker() {
+            createCount.incrementAndGet();
+        }
+
+        @Override
+        public String run() {
+            return "run";
+        }
+
+        @Override
+        public void fail() {
+            throw new UnsupportedOperationException();
+        }
+
+        @ApplicationX.PreDestroy
+        public void destroy() {
+            destroyCount.incrementAndGet();
+        }
+    }
+
+    public static class Holder {
+        @ApplicationX.Autowired
+        private Task task;
+    }
+
+    public static class PlainWorker {
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.beanfactory.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ApplicationX.BeanScope}, {@link ApplicationX.RequestBeanScope}, {@link ApplicationX.ThreadBeanScope}
+ */
+public class BeanScopeTest {
+    private ApplicationX app;
+
+    @Before
+    public void setUp() {
+        RequestBean.destroyCount.set(0);
+        app = new ApplicationX();
+        ApplicationX.BeanDefinition definition = app.newBeanDefinition(RequestBean.class);
+        definition.setScope(ApplicationX.BeanDefinition.SCOPE_REQUEST);
+        app.addBeanDefinition("requestBean", definition);
+    }
+
+    @Test
+    public void request() {
+        app.beginRequest();
+        RequestBean bean = app.getBean("requestBean");
+        assertSame(bean, app.getBean("requestBean"));
+        try {
+            app.beginRequest();
+            fail();
+        } catch (IllegalStateException e) {
+            //skip
+        }
+        app.endRequest();
+        assertEquals(1, RequestBean.destroyCount.get());
+
+        app.beginRequest();
+        assertNotSame(bean, app.getBean("requestBean"));
+        app.endRequest();
+        assertEquals(2, RequestBean.destroyCount.get());
+    }
+
+    @Test
+    public void threadScopeClose() throws InterruptedException {
+        ApplicationX.BeanDefinition definition = app.newBeanDefinition(RequestBean.class);
+        definition.setScope(ApplicationX.BeanDefinition.SCOPE_THREAD);
+        app.addBeanDefinition("threadBean", definition);
+        ApplicationX.ThreadBeanScope scope = (ApplicationX.ThreadBeanScope) app.getRegisteredScope(ApplicationX.BeanDefinition.SCOPE_THREAD);
+
+        RequestBean bean = app.getBean("threadBean");
+        AtomicReference<Object> otherBean = new AtomicReference<>();
+        CountDownLatch created = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            otherBean.set(app.getBean("threadBean"));
+            created.countDown();
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                //skip
+            }
+        });
+        thread.start();
+        created.await();
+        assertNotSame(bean, otherBean.get());
+
+        //关闭时销毁所有还存活的线程的实例
+        scope.close();
+        closed.countDown();
+        thread.join();
+        assertEquals(2, RequestBean.destroyCount.get());
+        scope.destroy();
+        assertEquals(2, RequestBean.destroyCount.get());
+
+        //关闭后再获取的是新的实例
+        assertNotSame(bean, app.getBean("threadBean"));
+        scope.destroy();
+        assertEquals(3, RequestBean.destroyCount.get());
+    }
+
+    @Test
+    public void cannotReplaceBuiltinScopes() {
+        String[] scopeNames = {ApplicationX.BeanDefinition.SCOPE_SINGLETON, ApplicationX.BeanDefinition.SCOPE_PROTOTYPE,
+                ApplicationX.BeanDefinition.SCOPE_POOLED, ApplicationX.BeanDefinition.SCOPE_THREAD,
+                ApplicationX.BeanDefinition.SCOPE_REQUEST};
+        for (String scopeName : scopeNames) {
+            try {
+                app.registerScope(scopeName, new MapBeanScope());
+                fail(scopeName);
+            } catch (IllegalArgumentException e) {
+                //skip
+            }
+        }
+        //替换失败后请求作用域还可以用
+        app.beginRequest();
+        assertNotNull(app.getBean("requestBean"));
+        app.endRequest();
+    }
+
+    @Test
+    public void customScope() {
+        MapBeanScope scope = new MapBeanScope();
+        app.registerScope("custom", scope);
+        assertSame(scope, app.getRegisteredScope("custom"));
+        ApplicationX.BeanDefinition definition = app.newBeanDefinition(RequestBean.class);
+        definition.setScope("custom");
+        app.addBeanDefinition("customBean", definition);
+
+        Object bean = app.getBean("customBean");
+        assertSame(bean, app.getBean("customBean"));
+        assertSame(bean, scope.remove("customBean"));
+        assertNotSame(bean, app.getBean("customBean"));
+    }
+
+    public static class RequestBean {
+        static final AtomicInteger destroyCount = new AtomicInteger();
+
+        @ApplicationX.PreDestroy
+        public void destroy() {
+            destroyCount.incrementAndGet();
+        }
+    }
+
+    private static class MapBeanScope implements ApplicationX.BeanScope {
+        private final Map<String, Object> beanMap = new HashMap<>();
+
+        @Override
+        public Object get(String beanName, Supplier<Object> objectFactory) {
+            return beanMap.computeIfAbsent(beanName, k -> objectFactory.get());
+        }
+
+        @Override
+        public Object remove(String beanName) {
+            return beanMap.remove(beanName);
+        }
+    }
+}
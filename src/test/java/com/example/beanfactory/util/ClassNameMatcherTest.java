@@ -0,0 +1,101 @@
+package com.example.beanfactory.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ApplicationX.ClassNameMatcher}
+ */
+public class ClassNameMatcherTest {
+
+    private static ApplicationX.ClassNameMatcher matcher(String... patterns) {
+        return new ApplicationX.ClassNameMatcher(Arrays.asList(patterns));
+    }
+
+    @Test
+    public void empty() {
+        ApplicationX.ClassNameMatcher matcher = new ApplicationX.ClassNameMatcher(Collections.emptyList());
+        assertTrue(matcher.isEmpty());
+        assertFalse(matcher.matches("com.example.Foo"));
+    }
+
+    @Test
+    public void exact() {
+        ApplicationX.ClassNameMatcher matcher = matcher("com.example.Foo");
+        assertTrue(matcher.matches("com.example.Foo"));
+        assertFalse(matcher.matches("com.example.FooBar"));
+        assertFalse(matcher.matches("com.example.Foo.Bar"));
+        assertFalse(matcher.matches("com.example"));
+    }
+
+    @Test
+    public void star() {
+        ApplicationX.ClassNameMatcher matcher = matcher("com.example.*");
+        assertTrue(matcher.matches("com.example.Foo"));
+        //'*'不跨段
+        assertFalse(matcher.matches("com.example.a.Foo"));
+        assertFalse(matcher.matches("com.example"));
+
+        matcher = matcher("com.example.*Impl");
+        assertTrue(matcher.matches("com.example.FooImpl"));
+        assertTrue(matcher.matches("com.example.Impl"));
+        assertFalse(matcher.matches("com.example.FooImplBar"));
+
+        matcher = matcher("com.*.Foo");
+        assertTrue(matcher.matches("com.example.Foo"));
+        assertFalse(matcher.matches("com.Foo"));
+    }
+
+    @Test
+    public void questionMark() {
+        ApplicationX.ClassNameMatcher matcher = matcher("com.example.Foo?");
+        assertTrue(matcher.matches("com.example.Foo1"));
+        assertFalse(matcher.matches("com.example.Foo"));
+        assertFalse(matcher.matches("com.example.Foo12"));
+    }
+
+    @Test
+    public void anySegments() {
+        ApplicationX.ClassNameMatcher matcher = matcher("com.example.**.internal.*");
+        assertTrue(matcher.matches("com.example.internal.Foo"));
+        assertTrue(matcher.matches("com.example.a.internal.Foo"));
+        assertTrue(matcher.matches("com.example.a.b.internal.Foo"));
+        assertFalse(matcher.matches("com.example.a.internal"));
+        assertFalse(matcher.matches("com.example.a.internal.b.Foo"));
+        assertFalse(matcher.matches("com.other.internal.Foo"));
+    }
+
+    @Test
+    public void trailingAnySegments() {
+        ApplicationX.ClassNameMatcher matcher = matcher("com.example.**");
+        assertTrue(matcher.matches("com.example.Foo"));
+        assertTrue(matcher.matches("com.example.a.b.Foo"));
+        //'**'可以匹配0段, 所以也匹配com.example本身
+        assertTrue(matcher.matches("com.example"));
+        assertFalse(matcher.matches("com.examples.Foo"));
+        assertFalse(matcher.matches("com"));
+    }
+
+    @Test
+    public void leadingAnySegments() {
+        ApplicationX.ClassNameMatcher matcher = matcher("**.*Test");
+        assertTrue(matcher.matches("FooTest"));
+        assertTrue(matcher.matches("com.example.FooTest"));
+        assertFalse(matcher.matches("com.example.FooTests"));
+    }
+
+    @Test
+    public void multiplePatterns() {
+        ApplicationX.ClassNameMatcher matcher = matcher("com.example.a.*", "com.example.b.**", "com.example.a.sub.Foo");
+        assertEquals(Arrays.asList("com.example.a.*", "com.example.b.**", "com.example.a.sub.Foo"), matcher.getPatterns());
+        assertTrue(matcher.matches("com.example.a.Foo"));
+        assertTrue(matcher.matches("com.example.a.sub.Foo"));
+        assertFalse(matcher.matches("com.example.a.sub.Bar"));
+        assertTrue(matcher.matches("com.example.b.sub.Bar"));
+        assertFalse(matcher.matches("com.example.c.Foo"));
+    }
+}
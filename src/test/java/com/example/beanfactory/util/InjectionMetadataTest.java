@@ -0,0 +1,134 @@
+package com.example.beanfactory.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ApplicationX.InjectionMetadata}, {@link ApplicationX.LifecycleMetadata}
+ */
+public class InjectionMetadataTest {
+    private ApplicationX app;
+
+    @Before
+    public void setUp() {
+        app = new ApplicationX();
+        app.addBeanDefinition("dep", app.newBeanDefinition(Dep.class));
+        ApplicationX.BeanDefinition definition = app.newBeanDefinition(Target.class);
+        definition.setScope(ApplicationX.BeanDefinition.SCOPE_PROTOTYPE);
+        app.addBeanDefinition("target", definition);
+        app.addBeanDefinition("lifecycleBean", app.newBeanDefinition(LifecycleBean.class));
+    }
+
+    @Test
+    public void injectionMetadataIsCachedPerClass() {
+        ApplicationX.AutowiredConstructorPostProcessor postProcessor = app.getAutowiredConstructorPostProcessor();
+        ApplicationX.InjectionMetadata metadata = postProcessor.findInjectionMetadata(Target.class);
+        assertSame(metadata, postProcessor.findInjectionMetadata(Target.class));
+        assertSame(Target.class, metadata.getTargetClass());
+        assertEquals(1, metadata.getInjectFields().size());
+        assertEquals(1, metadata.getInjectMethods().size());
+        assertNotSame(metadata, postProcessor.findInjectionMetadata(Dep.class));
+    }
+
+    @Test
+    public void prototypesShareMetadata() {
+        ApplicationX.AutowiredConstructorPostProcessor postProcessor = app.getAutowiredConstructorPostProcessor();
+        Target first = app.getBean("target");
+        ApplicationX.InjectionMetadata metadata = postProcessor.findInjectionMetadata(Target.class);
+        Target second = app.getBean("target");
+        assertNotSame(first, second);
+        assertSame(metadata, postProcessor.findInjectionMetadata(Target.class));
+
+        Dep dep = app.getBean("dep");
+        assertSame(dep, first.dep);
+        assertSame(dep, first.setterDep);
+        assertSame(dep, second.dep);
+        assertSame(dep, second.setterDep);
+    }
+
+    @Test
+    public void injectionMetadataInject() {
+        Target target = new Target();
+        app.getAutowiredConstructorPostProcessor().findInjectionMetadata(Target.class).inject(target, Target.class);
+        assertSame(app.getBean("dep"), target.dep);
+        assertSame(app.getBean("dep"), target.setterDep);
+    }
+
+    @Test
+    public void lifecycleMetadata() throws NoSuchMethodException {
+        ApplicationX.LifecycleMetadata metadata = new ApplicationX.LifecycleMetadata(LifecycleBean.class, "init", "destroy");
+        assertSame(LifecycleBean.class, metadata.getTargetClass());
+        assertEquals(LifecycleBean.class.getMethod("init"), metadata.getInitMethod());
+        assertEquals(LifecycleBean.class.getMethod("destroy"), metadata.getDestroyMethod());
+        assertTrue(metadata.isMatch("init", "destroy"));
+        assertFalse(metadata.isMatch("init", null));
+        assertFalse(metadata.isMatch("other", "destroy"));
+
+        ApplicationX.LifecycleMetadata empty = new ApplicationX.LifecycleMetadata(LifecycleBean.class, null, "");
+        assertNull(empty.getInitMethod());
+        assertNull(empty.getDestroyMethod());
+        assertTrue(empty.isMatch(null, ""));
+    }
+
+    @Test
+    public void lifecycleMetadataMissingMethod() {
+        //方法不存在时, 到获取时再抛出
+        ApplicationX.LifecycleMetadata metadata = new ApplicationX.LifecycleMetadata(LifecycleBean.class, "missing", "destroy");
+        try {
+            metadata.getInitMethod();
+            fail();
+        } catch (NoSuchMethodException e) {
+            //skip
+        }
+    }
+
+    @Test
+    public void lifecycleMethodsInvoked() {
+        LifecycleBean.initCount.set(0);
+        LifecycleBean.destroyCount.set(0);
+        LifecycleBean bean = app.getBean("lifecycleBean");
+        assertNotNull(bean);
+        assertEquals(1, LifecycleBean.initCount.get());
+        app.destroySingleton("lifecycleBean");
+        assertEquals(1, LifecycleBean.destroyCount.get());
+
+        //销毁后重新创建, 使用同一份生命周期元数据
+        assertNotSame(bean, app.getBean("lifecycleBean"));
+        assertEquals(2, LifecycleBean.initCount.get());
+        app.destroySingleton("lifecycleBean");
+        assertEquals(2, LifecycleBean.destroyCount.get());
+    }
+
+    public static class Dep {
+    }
+
+    public static class Target {
+        @ApplicationX.Autowired
+        private Dep dep;
+        private Dep setterDep;
+
+        @ApplicationX.Autowired
+        public void setSetterDep(Dep setterDep) {
+            this.setterDep = setterDep;
+        }
+    }
+
+    public static class LifecycleBean {
+        static final AtomicInteger initCount = new AtomicInteger();
+        static final AtomicInteger destroyCount = new AtomicInteger();
+
+        @ApplicationX.PostConstruct
+        public void init() {
+            initCount.incrementAndGet();
+        }
+
+        @ApplicationX.PreDestroy
+        public void destroy() {
+            destroyCount.incrementAndGet();
+        }
+    }
+}
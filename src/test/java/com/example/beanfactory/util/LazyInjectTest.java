@@ -0,0 +1,95 @@
+package com.example.beanfactory.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ApplicationX.InjectElement#resolveLazyInjectValue}
+ */
+public class LazyInjectTest {
+    private ApplicationX app;
+
+    @Before
+    public void setUp() {
+        Service.createCount.set(0);
+        app = new ApplicationX();
+        app.addBeanDefinition("service", app.newBeanDefinition(Service.class));
+        app.addBeanDefinition("holder", app.newBeanDefinition(Holder.class));
+    }
+
+    @Test
+    public void resolveOnFirstCall() {
+        Holder holder = app.getBean("holder");
+        assertNotNull(holder.greeter);
+        assertEquals(0, Service.createCount.get());
+
+        assertEquals("hello", holder.greeter.greet());
+        assertEquals("hello", holder.greeter.greet());
+        assertEquals(1, Service.createCount.get());
+    }
+
+    @Test
+    public void objectMethodsDoNotResolve() {
+        Holder holder = app.getBean("holder");
+        Greeter greeter = holder.greeter;
+        assertEquals("LazyProxy(" + Greeter.class.getName() + ")", greeter.toString());
+        assertEquals(System.identityHashCode(greeter), greeter.hashCode());
+        assertTrue(greeter.equals(greeter));
+        assertEquals(0, Service.createCount.get());
+
+        //按代理的对象地址比较, 两边的结果一致
+        Service service = app.getBean("service");
+        assertFalse(greeter.equals(service));
+        assertFalse(service.equals(greeter));
+        assertEquals(1, Service.createCount.get());
+    }
+
+    @Test
+    public void lazyConstructorCandidate() {
+        //@Lazy的参数不是接口时立即取出, 取不到时与不延迟的参数一样换下一个构造器, 不抛出异常
+        app.addBeanDefinition("fallbackHolder", app.newBeanDefinition(FallbackHolder.class));
+        FallbackHolder holder = app.getBean("fallbackHolder");
+        assertNotNull(holder.greeter);
+    }
+
+    public interface Greeter {
+        String greet();
+    }
+
+    public static class Service implements Greeter {
+        static final AtomicInteger createCount = new AtomicInteger();
+
+        public Service() {
+            createCount.incrementAndGet();
+        }
+
+        @Override
+        public String greet() {
+            return "hello";
+        }
+    }
+
+    public static class Holder {
+        @ApplicationX.Autowired
+        @ApplicationX.Lazy
+        private Greeter greeter;
+    }
+
+    public static class Missing {
+    }
+
+    public static class FallbackHolder {
+        private Greeter greeter;
+
+        public FallbackHolder(@ApplicationX.Lazy Missing missing) {
+        }
+
+        public FallbackHolder(Greeter greeter) {
+            this.greeter = greeter;
+        }
+    }
+}
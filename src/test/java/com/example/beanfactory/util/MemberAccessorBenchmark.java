@@ -0,0 +1,112 @@
+package com.example.beanfactory.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ApplicationX.MemberAccessor}与反射的对比. 反射是注入时原来的用法, 每次调用前后切换setAccessible.
+ * <p>
+ * 运行: mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * 然后 java -cp target/test-classes:target/classes:$(cat cp.txt) com.example.beanfactory.util.MemberAccessorBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MemberAccessorBenchmark {
+    private final Bean bean = new Bean();
+    private final Object value = "value";
+    private final Object[] args = {"value"};
+    private final Object[] emptyArgs = {};
+    private Field field;
+    private Method method;
+    private Constructor<Bean> constructor;
+    private ApplicationX.MemberAccessor fieldAccessor;
+    private ApplicationX.MemberAccessor methodAccessor;
+    private ApplicationX.MemberAccessor constructorAccessor;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        field = Bean.class.getDeclaredField("field");
+        method = Bean.class.getDeclaredMethod("setValue", String.class);
+        constructor = Bean.class.getDeclaredConstructor();
+        fieldAccessor = ApplicationX.MemberAccessor.of(field);
+        methodAccessor = ApplicationX.MemberAccessor.of(method);
+        constructorAccessor = ApplicationX.MemberAccessor.of(constructor);
+    }
+
+    @Benchmark
+    public Object fieldReflect() throws ReflectiveOperationException {
+        boolean accessible = field.isAccessible();
+        try {
+            field.setAccessible(true);
+            field.set(bean, value);
+        } finally {
+            field.setAccessible(accessible);
+        }
+        return bean;
+    }
+
+    @Benchmark
+    public Object fieldAccessor() throws Throwable {
+        fieldAccessor.set(bean, value);
+        return bean;
+    }
+
+    @Benchmark
+    public Object methodReflect() throws ReflectiveOperationException {
+        boolean accessible = method.isAccessible();
+        try {
+            method.setAccessible(true);
+            return method.invoke(bean, args);
+        } finally {
+            method.setAccessible(accessible);
+        }
+    }
+
+    @Benchmark
+    public Object methodAccessor() throws Throwable {
+        return methodAccessor.invoke(bean, args);
+    }
+
+    @Benchmark
+    public Object constructorReflect() throws ReflectiveOperationException {
+        boolean accessible = constructor.isAccessible();
+        try {
+            constructor.setAccessible(true);
+            return constructor.newInstance(emptyArgs);
+        } finally {
+            constructor.setAccessible(accessible);
+        }
+    }
+
+    @Benchmark
+    public Object constructorAccessor() throws Throwable {
+        return constructorAccessor.newInstance(emptyArgs);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MemberAccessorBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    private static class Bean {
+        private Object field;
+        private String value;
+
+        private Bean() {
+        }
+
+        private void setValue(String value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.beanfactory.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ApplicationX#setInjectParallelism(int)}
+ */
+public class ParallelStartupTest {
+
+    @Test
+    public void sameBeansAsSerial() {
+        Set<String> serial = startup(1);
+        Set<String> parallel = startup(4);
+        assertEquals(serial, parallel);
+        //懒加载的单例只有被注入时才创建, 没有被选中的候选bean不创建
+        assertTrue(parallel.contains("lazyRepository"));
+        assertFalse(parallel.contains("otherService"));
+        assertFalse(parallel.contains("unusedLazy"));
+    }
+
+    private static Set<String> startup(int parallelism) {
+        ApplicationX app = new ApplicationX();
+        app.setInjectParallelism(parallelism);
+        ApplicationX.ScannerResult result = app.new ScannerResult();
+        result.getBeanDefinitionMap().put("primaryService", definition(app, PrimaryService.class, false, true));
+        result.getBeanDefinitionMap().put("otherService", definition(app, OtherService.class, true, false));
+        result.getBeanDefinitionMap().put("lazyRepository", definition(app, LazyRepository.class, true, false));
+        result.getBeanDefinitionMap().put("unusedLazy", definition(app, UnusedLazy.class, true, false));
+        result.getBeanDefinitionMap().put("controller", definition(app, Controller.class, false, false));
+        result.getBeanDefinitionMap().put("dataSource", definition(app, DataSource.class, false, false));
+        result.inject();
+
+        Controller controller = app.getBean("controller");
+        assertTrue(controller.service instanceof PrimaryService);
+        assertNotNull(((PrimaryService) controller.service).repository.dataSource);
+
+        Set<String> created = new TreeSet<>();
+        for (String beanName : Arrays.asList("primaryService", "otherService", "lazyRepository", "unusedLazy", "controller", "dataSource")) {
+            if (app.containsInstance(beanName)) {
+                created.add(beanName);
+            }
+        }
+        return created;
+    }
+
+    private static ApplicationX.BeanDefinition definition(ApplicationX app, Class<?> beanClass, boolean lazyInit, boolean primary) {
+        ApplicationX.BeanDefinition definition = app.newBeanDefinition(beanClass);
+        definition.setLazyInit(lazyInit);
+        definition.setPrimary(primary);
+        return definition;
+    }
+
+    public static class Service {
+    }
+
+    public static class PrimaryService extends Service {
+        @ApplicationX.Autowired
+        private LazyRepository repository;
+    }
+
+    public static class OtherService extends Service {
+    }
+
+    public static class LazyRepository {
+        @ApplicationX.Autowired
+        private DataSource dataSource;
+    }
+
+    public static class UnusedLazy {
+        @ApplicationX.Autowired
+        private DataSource dataSource;
+    }
+
+    public static class DataSource {
+    }
+
+    public static class Controller {
+        @ApplicationX.Autowired
+        private Service service;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.beanfactory.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ApplicationX.ScanCache}
+ */
+public class ScanCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File cacheFile;
+    private File classesDir;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheFile = new File(folder.getRoot(), ApplicationX.ScanCache.FILE_NAME);
+        classesDir = folder.newFolder("classes");
+        writeFile(new File(classesDir, "com/example/Foo.class"), new byte[]{1, 2, 3});
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        URL url = classesDir.toURI().toURL();
+        ApplicationX.ScanCache cache = ApplicationX.ScanCache.load(cacheFile, "key");
+        assertNull(cache.getClassNames(url));
+        cache.addClassName(url, "com.example.FooBar");
+        cache.addClassName(url, "com.example.Foo");
+        cache.save();
+        assertTrue(cacheFile.isFile());
+        assertFalse(new File(cacheFile.getPath() + ".tmp").exists());
+
+        ApplicationX.ScanCache loaded = ApplicationX.ScanCache.load(cacheFile, "key");
+        assertArrayEquals(new String[]{"com.example.Foo", "com.example.FooBar"}, sort(loaded.getClassNames(url)));
+    }
+
+    @Test
+    public void fileFormat() throws IOException {
+        URL url = classesDir.toURI().toURL();
+        ApplicationX.ScanCache cache = ApplicationX.ScanCache.load(cacheFile, "key");
+        cache.getClassNames(url);
+        cache.addClassName(url, "com.example.FooBar");
+        cache.addClassName(url, "com.example.Foo");
+        cache.save();
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(cacheFile))) {
+            assertEquals(0x41505843, in.readInt());
+            assertEquals(1, in.readInt());
+            assertEquals("key", in.readUTF());
+            assertEquals(1, in.readInt());
+            assertEquals(url.toString(), in.readUTF());
+            //大小是所有class文件的大小之和
+            assertEquals(3L, in.readLong());
+            assertEquals(new File(classesDir, "com/example/Foo.class").lastModified(), in.readLong());
+            in.readLong();
+            assertEquals(2, in.readInt());
+            //类名排序后, 只保存与上个类名不同的部分
+            assertEquals(0, in.readUnsignedShort());
+            assertEquals("com.example.Foo", in.readUTF());
+            assertEquals("com.example.Foo".length(), in.readUnsignedShort());
+            assertEquals("Bar", in.readUTF());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void keyChanged() throws IOException {
+        URL url = classesDir.toURI().toURL();
+        ApplicationX.ScanCache cache = ApplicationX.ScanCache.load(cacheFile, "key");
+        cache.getClassNames(url);
+        cache.addClassName(url, "com.example.Foo");
+        cache.save();
+
+        assertNull(ApplicationX.ScanCache.load(cacheFile, "other").getClassNames(url));
+    }
+
+    @Test
+    public void directoryChanged() throws IOException {
+        URL url = classesDir.toURI().toURL();
+        ApplicationX.ScanCache cache = ApplicationX.ScanCache.load(cacheFile, "key");
+        cache.getClassNames(url);
+        cache.addClassName(url, "com.example.Foo");
+        cache.save();
+
+        writeFile(new File(classesDir, "com/example/Bar.class"), new byte[]{4});
+        assertNull(ApplicationX.ScanCache.load(cacheFile, "key").getClassNames(url));
+    }
+
+    @Test
+    public void jarChanged() throws IOException {
+        File jar = new File(folder.getRoot(), "lib.jar");
+        writeJar(jar, "com/example/Foo.class");
+        URL url = new URL("jar:" + jar.toURI() + "!/");
+        ApplicationX.ScanCache cache = ApplicationX.ScanCache.load(cacheFile, "key");
+        assertNull(cache.getClassNames(url));
+        cache.addClassName(url, "com.example.Foo");
+        cache.save();
+        assertArrayEquals(new String[]{"com.example.Foo"}, ApplicationX.ScanCache.load(cacheFile, "key").getClassNames(url));
+
+        writeJar(jar, "com/example/Foo.class", "com/example/Bar.class");
+        assertNull(ApplicationX.ScanCache.load(cacheFile, "key").getClassNames(url));
+    }
+
+    @Test
+    public void corruptedFile() throws IOException {
+        URL url = classesDir.toURI().toURL();
+        ApplicationX.ScanCache cache = ApplicationX.ScanCache.load(cacheFile, "key");
+        cache.getClassNames(url);
+        cache.addClassName(url, "com.example.Foo");
+        cache.save();
+
+        byte[] bytes = Files.readAllBytes(cacheFile.toPath());
+        Files.write(cacheFile.toPath(), Arrays.copyOf(bytes, bytes.length - 4));
+        assertNull(ApplicationX.ScanCache.load(cacheFile, "key").getClassNames(url));
+    }
+
+    private static String[] sort(String[] names) {
+        assertNotNull(names);
+        Arrays.sort(names);
+        return names;
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+    }
+
+    private static void writeJar(File file, String... names) throws IOException {
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            for (String name : names) {
+                out.putNextEntry(new JarEntry(name));
+                out.write(name.getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.beanfactory.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ApplicationX#getBean(String)} 多个线程同时创建单例
+ */
+public class SingletonLockTest {
+    private static volatile CountDownLatch latch;
+    private ApplicationX app;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        SlowBean.createCount.set(0);
+        app = new ApplicationX();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    private void addBean(String beanName, Class<?> beanClass) {
+        app.addBeanDefinition(beanName, app.newBeanDefinition(beanClass));
+    }
+
+    private void addBarrier() {
+        ApplicationX.BeanDefinition definition = app.newBeanDefinition(Barrier.class);
+        definition.setScope(ApplicationX.BeanDefinition.SCOPE_PROTOTYPE);
+        app.addBeanDefinition("barrier", definition);
+    }
+
+    private List<Future<Object>> getBeans(String... beanNames) {
+        List<Future<Object>> futures = new ArrayList<>();
+        for (String beanName : beanNames) {
+            futures.add(executor.submit(() -> app.getBean(beanName)));
+        }
+        return futures;
+    }
+
+    @Test(timeout = 5000)
+    public void sameSingleton() throws Exception {
+        latch = new CountDownLatch(1);
+        addBean("slowBean", SlowBean.class);
+        List<Future<Object>> futures = getBeans("slowBean", "slowBean", "slowBean", "slowBean");
+        //其他线程等待第一个线程创建完
+        Thread.sleep(50);
+        latch.countDown();
+
+        Object bean = futures.get(0).get();
+        for (Future<Object> future : futures) {
+            assertSame(bean, future.get());
+        }
+        assertEquals(1, SlowBean.createCount.get());
+        executor.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void circularReferenceBetweenThreads() throws Exception {
+        //两个线程分别创建A与B, 都实例化完后再注入对方, 互相等待时用提前暴露的实例
+        latch = new CountDownLatch(2);
+        addBean("fieldA", FieldA.class);
+        addBean("fieldB", FieldB.class);
+        List<Future<Object>> futures = getBeans("fieldA", "fieldB");
+
+        FieldA a = (FieldA) futures.get(0).get();
+        FieldB b = (FieldB) futures.get(1).get();
+        assertSame(b, a.b);
+        assertSame(a, b.a);
+        assertSame(a, app.getBean("fieldA"));
+        assertSame(b, app.getBean("fieldB"));
+        executor.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void circularReferenceResolvedByOtherThread() throws Exception {
+        //E构造器注入F(没有提前暴露的实例), F字段注入E. E的线程先等待, F的线程发现互相等待后要唤醒E的线程,
+        //由E的线程拿到F提前暴露的实例
+        latch = new CountDownLatch(2);
+        addBean("constructorE", ConstructorE.class);
+        addBean("fieldF", FieldF.class);
+        addBarrier();
+        List<Future<Object>> futures = getBeans("constructorE", "fieldF");
+
+        ConstructorE e = (ConstructorE) futures.get(0).get();
+        FieldF f = (FieldF) futures.get(1).get();
+        assertSame(f, e.f);
+        assertSame(e, f.e);
+        executor.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void unresolvableCircularReferenceBetweenThreads() throws Exception {
+        //构造器注入没有提前暴露的实例, 互相等待时不能解开, 要抛出异常而不是一直等待
+        latch = new CountDownLatch(2);
+        addBean("constructorC", ConstructorC.class);
+        addBean("constructorD", ConstructorD.class);
+        addBarrier();
+        List<Future<Object>> futures = getBeans("constructorC", "constructorD");
+
+        for (Future<Object> future : futures) {
+            try {
+                future.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        assertFalse(app.containsInstance("constructorC"));
+        assertFalse(app.containsInstance("constructorD"));
+        executor.shutdown();
+    }
+
+    private static void await() {
+        latch.countDown();
+        try {
+            assertTrue(latch.await(1, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static class SlowBean {
+        static final AtomicInteger createCount = new AtomicInteger();
+
+        public SlowBean() throws InterruptedException {
+            createCount.incrementAndGet();
+            latch.await();
+        }
+    }
+
+    public static class FieldA {
+        @ApplicationX.Autowired
+        FieldB b;
+
+        public FieldA() {
+            await();
+        }
+    }
+
+    public static class FieldB {
+        @ApplicationX.Autowired
+        FieldA a;
+
+        public FieldB() {
+            await();
+        }
+    }
+
+    public static class Barrier {
+        public Barrier() {
+            await();
+        }
+    }
+
+    public static class ConstructorC {
+        @ApplicationX.Autowired
+        public ConstructorC(Barrier barrier, ConstructorD d) {
+        }
+    }
+
+    public static class ConstructorD {
+        @ApplicationX.Autowired
+        public ConstructorD(Barrier barrier, ConstructorC c) {
+        }
+    }
+
+    public static class ConstructorE {
+        final FieldF f;
+
+        @ApplicationX.Autowired
+        public ConstructorE(Barrier barrier, FieldF f) {
+            this.f = f;
+        }
+    }
+
+    public static class FieldF {
+        @ApplicationX.Autowired
+        ConstructorE e;
+
+        public FieldF() throws InterruptedException {
+            await();
+            //让E的线程先开始等待
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.beanfactory.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link ApplicationX.ZipArchive}
+ */
+public class ZipArchiveTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File outerJar;
+
+    @Before
+    public void setUp() throws IOException {
+        byte[] storedJar = zip(false, "com/example/stored/Foo.class", "com/example/stored/sub/Bar.class", "other/Baz.class");
+        byte[] deflatedJar = zip(true, "com/example/deflated/Foo.class");
+        outerJar = folder.newFile("app.jar");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(outerJar))) {
+            putEntry(out, "BOOT-INF/classes/com/example/App.class", bytes("BOOT-INF/classes/com/example/App.class"), true);
+            putEntry(out, "BOOT-INF/lib/stored.jar", storedJar, false);
+            putEntry(out, "BOOT-INF/lib/deflated.jar", deflatedJar, true);
+        }
+    }
+
+    @Test
+    public void readEntries() throws IOException {
+        ApplicationX.ZipArchive archive = ApplicationX.ZipArchive.open(outerJar);
+        assertEquals(3, archive.getEntryCount());
+        assertTrue(archive.getCentralDirectorySize() > 0);
+        assertEquals(Arrays.asList("BOOT-INF/classes/com/example/App.class", "BOOT-INF/lib/stored.jar", "BOOT-INF/lib/deflated.jar"), names(archive));
+        assertNull(archive.getEntry("BOOT-INF/lib/missing.jar"));
+
+        ApplicationX.ZipArchive.Entry entry = archive.getEntry("BOOT-INF/classes/com/example/App.class");
+        assertFalse(entry.isStored());
+        assertEquals("BOOT-INF/classes/com/example/App.class", string(archive.getData(entry)));
+    }
+
+    @Test
+    public void readStoredNestedJar() throws IOException {
+        ApplicationX.ZipArchive archive = ApplicationX.ZipArchive.open(outerJar);
+        ApplicationX.ZipArchive.Entry entry = archive.getEntry("BOOT-INF/lib/stored.jar");
+        assertTrue(entry.isStored());
+        ApplicationX.ZipArchive nested = archive.openNested(entry);
+        assertEquals(Arrays.asList("com/example/stored/Foo.class", "com/example/stored/sub/Bar.class", "other/Baz.class"), names(nested));
+        assertEquals("com/example/stored/sub/Bar.class", string(nested.getData(nested.getEntry("com/example/stored/sub/Bar.class"))));
+    }
+
+    @Test
+    public void readDeflatedNestedJar() throws IOException {
+        ApplicationX.ZipArchive archive = ApplicationX.ZipArchive.open(outerJar);
+        ApplicationX.ZipArchive.Entry entry = archive.getEntry("BOOT-INF/lib/deflated.jar");
+        assertFalse(entry.isStored());
+        ApplicationX.ZipArchive nested = archive.openNested(entry);
+        assertEquals(Collections.singletonList("com/example/deflated/Foo.class"), names(nested));
+        assertEquals("com/example/deflated/Foo.class", string(nested.getData(nested.getEntry("com/example/deflated/Foo.class"))));
+    }
+
+    @Test(expected = IOException.class)
+    public void notZip() throws IOException {
+        File file = folder.newFile("not.jar");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[64]);
+        }
+        ApplicationX.ZipArchive.open(file);
+    }
+
+    @Test
+    public void scanNestedUrls() throws IOException {
+        ApplicationX.Scanner scanner = new ApplicationX.Scanner();
+        ApplicationX.PackageTrie packageTrie = new ApplicationX.PackageTrie(Collections.singletonList("com.example"));
+        String outerUrl = "jar:" + outerJar.toURI() + "!/";
+
+        assertEquals(Arrays.asList("com.example.stored.Foo", "com.example.stored.sub.Bar"),
+                scan(scanner, packageTrie, new URL(outerUrl + "BOOT-INF/lib/stored.jar!/")));
+        assertEquals(Collections.singletonList("com.example.deflated.Foo"),
+                scan(scanner, packageTrie, new URL(outerUrl + "BOOT-INF/lib/deflated.jar!/")));
+        assertEquals(Collections.singletonList("com.example.App"),
+                scan(scanner, packageTrie, new URL(outerUrl + "BOOT-INF/classes!/")));
+        assertEquals(Collections.emptyList(),
+                scan(scanner, packageTrie, new URL(outerUrl + "BOOT-INF/lib/missing.jar!/")));
+    }
+
+    @Test
+    public void close() throws IOException {
+        ApplicationX.ZipArchive archive = ApplicationX.ZipArchive.open(outerJar);
+        ApplicationX.ZipArchive.Entry entry = archive.getEntry("BOOT-INF/lib/stored.jar");
+        ApplicationX.ZipArchive nested = archive.openNested(entry);
+        ApplicationX.ZipArchive.Entry nestedEntry = nested.getEntry("other/Baz.class");
+        archive.close();
+        //释放映射后不能再读取, 内层jar包的数据也在映射中
+        assertTrue(nested.isClosed());
+        try {
+            nested.getData(nestedEntry);
+            fail();
+        } catch (IOException e) {
+            //skip
+        }
+        try {
+            archive.getEntry("BOOT-INF/lib/stored.jar");
+            fail();
+        } catch (IOException e) {
+            //skip
+        }
+    }
+
+    @Test
+    public void scanNestedUrlsWithArchiveCache() throws IOException {
+        ApplicationX.Scanner scanner = new ApplicationX.Scanner();
+        ApplicationX.PackageTrie packageTrie = new ApplicationX.PackageTrie(Collections.singletonList("com.example"));
+        String outerUrl = "jar:" + outerJar.toURI() + "!/";
+        ApplicationX.ScanStatistics statistics = new ApplicationX.ScanStatistics();
+        List<String> classNames = new ArrayList<>();
+        ApplicationX.ZipArchive archive;
+        try (ApplicationX.Scanner.ArchiveCache archiveCache = new ApplicationX.Scanner.ArchiveCache()) {
+            for (String nested : Arrays.asList("BOOT-INF/lib/stored.jar!/", "BOOT-INF/lib/deflated.jar!/", "BOOT-INF/classes!/")) {
+                scanner.scan(new URL(outerUrl + nested), packageTrie, (classUrl, className) -> classNames.add(className), statistics, archiveCache);
+            }
+            //外层jar包只打开一次
+            archive = archiveCache.open(outerJar, statistics);
+            assertSame(archive, archiveCache.open(outerJar, statistics));
+            assertFalse(archive.isClosed());
+        }
+        assertTrue(archive.isClosed());
+        assertEquals(Arrays.asList("com.example.stored.Foo", "com.example.stored.sub.Bar", "com.example.deflated.Foo", "com.example.App"), classNames);
+    }
+
+    @Test
+    public void readClassFiles() throws IOException {
+        ApplicationX.Scanner scanner = new ApplicationX.Scanner();
+        ApplicationX.PackageTrie packageTrie = new ApplicationX.PackageTrie(Collections.singletonList("com.example"));
+        File classesDir = folder.newFolder("classes");
+        File classFile = new File(classesDir, "com/example/Dir.class");
+        classFile.getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(classFile)) {
+            out.write(bytes("com/example/Dir.class"));
+        }
+        File plainJar = folder.newFile("plain.jar");
+        try (FileOutputStream out = new FileOutputStream(plainJar)) {
+            out.write(zip(true, "com/example/Plain.class"));
+        }
+        String outerUrl = "jar:" + outerJar.toURI() + "!/";
+
+        //class文件从正在扫描的jar包或目录中读取
+        assertEquals(Collections.singletonList("com/example/Dir.class"), readClassFiles(scanner, packageTrie, classesDir.toURI().toURL()));
+        assertEquals(Collections.singletonList("com/example/Plain.class"), readClassFiles(scanner, packageTrie, new URL("jar:" + plainJar.toURI() + "!/")));
+        assertEquals(Arrays.asList("com/example/stored/Foo.class", "com/example/stored/sub/Bar.class"),
+                readClassFiles(scanner, packageTrie, new URL(outerUrl + "BOOT-INF/lib/stored.jar!/")));
+        assertEquals(Collections.singletonList("com/example/deflated/Foo.class"),
+                readClassFiles(scanner, packageTrie, new URL(outerUrl + "BOOT-INF/lib/deflated.jar!/")));
+        assertEquals(Collections.singletonList("BOOT-INF/classes/com/example/App.class"),
+                readClassFiles(scanner, packageTrie, new URL(outerUrl + "BOOT-INF/classes!/")));
+    }
+
+    private static List<String> readClassFiles(ApplicationX.Scanner scanner, ApplicationX.PackageTrie packageTrie, URL url) throws IOException {
+        List<String> contents = new ArrayList<>();
+        scanner.scan(url, packageTrie, (ApplicationX.ClassFileConsumer) (classUrl, className, classFile) -> {
+            try {
+                contents.add(new String(classFile.read(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, new ApplicationX.ScanStatistics());
+        return contents;
+    }
+
+    private static List<String> scan(ApplicationX.Scanner scanner, ApplicationX.PackageTrie packageTrie, URL url) throws IOException {
+        List<String> classNames = new ArrayList<>();
+        ApplicationX.ScanStatistics statistics = new ApplicationX.ScanStatistics();
+        scanner.scan(url, packageTrie, (classUrl, className) -> classNames.add(className), statistics);
+        //找不到内层jar包时不读取条目
+        assertEquals(classNames.isEmpty(), statistics.getEntryCount() == 0);
+        return classNames;
+    }
+
+    private static List<String> names(ApplicationX.ZipArchive archive) throws IOException {
+        List<String> names = new ArrayList<>();
+        archive.forEachEntry(entry -> names.add(entry.getName()));
+        return names;
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] zip(boolean deflated, String... names) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            for (String name : names) {
+                putEntry(out, name, bytes(name), deflated);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void putEntry(ZipOutputStream out, String name, byte[] data, boolean deflated) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        if (!deflated) {
+            CRC32 crc32 = new CRC32();
+            crc32.update(data);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc32.getValue());
+        }
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+    }
+}